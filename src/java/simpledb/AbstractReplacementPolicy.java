@@ -0,0 +1,102 @@
+package simpledb;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Helper for implementing ReplacementPolicies. Keeps the hit/miss/eviction
+ * counters and serializes all bookkeeping on the policy object, so that
+ * subclasses only deal with their own data structures.
+ */
+public abstract class AbstractReplacementPolicy implements ReplacementPolicy {
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public synchronized void pageAccessed(PageId pid) {
+        hits.incrementAndGet();
+        accessed(pid);
+    }
+
+    public synchronized void pageLoaded(PageId pid) {
+        misses.incrementAndGet();
+        loaded(pid);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        removed(pid);
+    }
+
+    public synchronized void pageRestored(PageId pid) {
+        evictions.decrementAndGet();
+        restored(pid);
+    }
+
+    public synchronized PageId chooseVictim() {
+        PageId victim = victim();
+        if (victim != null)
+            evictions.incrementAndGet();
+        return victim;
+    }
+
+    public synchronized List<PageId> coldestPages(int n) {
+        return coldest(n);
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public void resetCounters() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    /** Called with the policy lock held when a resident page is hit. */
+    protected abstract void accessed(PageId pid);
+
+    /** Called with the policy lock held when a page enters the pool. */
+    protected abstract void loaded(PageId pid);
+
+    /** Called with the policy lock held when a page leaves the pool. */
+    protected abstract void removed(PageId pid);
+
+    /**
+     * Called with the policy lock held to track the last victim again,
+     * without counting it as a reference.
+     */
+    protected abstract void restored(PageId pid);
+
+    /**
+     * Called with the policy lock held to pick a victim. Implementations must
+     * stop tracking the page they return.
+     * @return the victim, or null if nothing is resident
+     */
+    protected abstract PageId victim();
+
+    /**
+     * Called with the policy lock held to list the next victims in order,
+     * without changing any state.
+     * @return up to n resident pages
+     */
+    protected abstract List<PageId> coldest(int n);
+
+    public String toString() {
+        long h = getHitCount();
+        long m = getMissCount();
+        double ratio = (h + m == 0) ? 0.0 : (double) h / (h + m);
+        return getClass().getSimpleName() + "[hits=" + h + ", misses=" + m
+                + ", evictions=" + getEvictionCount()
+                + String.format(", hitRatio=%.3f]", ratio);
+    }
+}
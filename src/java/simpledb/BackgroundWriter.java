@@ -0,0 +1,239 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BackgroundWriter keeps a share of the frames of a BufferPool clean, so
+ * that a query whose miss needs a frame rarely has to write a dirty victim
+ * before it can read its own page.
+ * <p>
+ * A daemon thread wakes up every interval. When fewer than cleanFraction
+ * of the frames are free or hold a clean page, it writes out the coldest
+ * dirty pages, in the order the pool's {@link ReplacementPolicy} would
+ * evict them, at most maxPages per round; maxPages and the interval bound
+ * its write rate. Only pages of finished transactions are written, so the
+ * writer never logs or steals. Dirty pages next to a chosen page in the
+ * same HeapFile are written along with it in one larger write.
+ * <p>
+ * Database runs one for its buffer pool when the system property
+ * simpledb.BackgroundWriter.enabled is true, with the default settings
+ * below, and stops it when the pool is replaced or shut down.
+ *
+ * @see BufferPool#setBackgroundWriter
+ * @see BufferPool#writeColdPages
+ * @Threadsafe
+ */
+public class BackgroundWriter {
+
+    /**
+     * Whether Database runs a writer for its buffer pool; set it with the
+     * system property simpledb.BackgroundWriter.enabled.
+     */
+    public static final boolean ENABLED =
+        Boolean.getBoolean("simpledb.BackgroundWriter.enabled");
+
+    /**
+     * Default share of frames to keep clean; set it with the system
+     * property simpledb.BackgroundWriter.cleanFraction.
+     */
+    public static final double DEFAULT_CLEAN_FRACTION =
+        Double.parseDouble(System.getProperty("simpledb.BackgroundWriter.cleanFraction", "0.25"));
+
+    /**
+     * Default time between rounds in milliseconds; set it with the system
+     * property simpledb.BackgroundWriter.interval.
+     */
+    public static final long DEFAULT_INTERVAL_MS =
+        Long.getLong("simpledb.BackgroundWriter.interval", 100);
+
+    /**
+     * Default number of pages written per round at most; set it with the
+     * system property simpledb.BackgroundWriter.maxPages.
+     */
+    public static final int DEFAULT_MAX_PAGES =
+        Integer.getInteger("simpledb.BackgroundWriter.maxPages", 64);
+
+    /** Largest number of adjacent pages written together. */
+    public static final int MAX_RUN_PAGES = 16;
+
+    private final BufferPool pool;
+    private volatile double cleanFraction;
+    private volatile long intervalMs;
+    private volatile int maxPages;
+
+    private Thread thread; // guarded by this
+
+    private final AtomicLong rounds = new AtomicLong();
+    private final AtomicLong activeRounds = new AtomicLong();
+    private final AtomicLong pagesWritten = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    /**
+     * Creates a writer for pool; call start() to run it.
+     *
+     * @param pool the buffer pool to keep clean
+     * @param cleanFraction share of the frames to keep free or clean
+     * @param intervalMs time between rounds in milliseconds
+     * @param maxPages pages written per round at most
+     */
+    public BackgroundWriter(BufferPool pool, double cleanFraction, long intervalMs, int maxPages) {
+        this.pool = pool;
+        setCleanFraction(cleanFraction);
+        setInterval(intervalMs);
+        setMaxPages(maxPages);
+    }
+
+    /** Creates a writer for pool with the default settings. */
+    public BackgroundWriter(BufferPool pool) {
+        this(pool, DEFAULT_CLEAN_FRACTION, DEFAULT_INTERVAL_MS, DEFAULT_MAX_PAGES);
+    }
+
+    public void setCleanFraction(double cleanFraction) {
+        if (cleanFraction < 0 || cleanFraction > 1)
+            throw new IllegalArgumentException("clean fraction must be in [0, 1]");
+        this.cleanFraction = cleanFraction;
+    }
+
+    public double getCleanFraction() {
+        return cleanFraction;
+    }
+
+    public void setInterval(long intervalMs) {
+        if (intervalMs < 1)
+            throw new IllegalArgumentException("interval must be positive");
+        this.intervalMs = intervalMs;
+    }
+
+    public long getInterval() {
+        return intervalMs;
+    }
+
+    public void setMaxPages(int maxPages) {
+        if (maxPages < 1)
+            throw new IllegalArgumentException("need to write at least one page per round");
+        this.maxPages = maxPages;
+    }
+
+    public int getMaxPages() {
+        return maxPages;
+    }
+
+    /** Starts the writer thread, if it is not running. */
+    public synchronized void start() {
+        if (thread != null)
+            return;
+        thread = new Thread(new Runnable() {
+            public void run() {
+                loop();
+            }
+        }, "simpledb-bgwriter");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Stops the writer thread and waits for it to finish its round. */
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            t = thread;
+            thread = null;
+        }
+        if (t == null)
+            return;
+        t.interrupt();
+        boolean interrupted = false;
+        while (t.isAlive()) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /** @return true if the writer thread is running */
+    public synchronized boolean isRunning() {
+        return thread != null;
+    }
+
+    private void loop() {
+        while (true) {
+            synchronized (this) {
+                if (thread != Thread.currentThread())
+                    return;
+            }
+            try {
+                writeRound();
+            } catch (IOException e) {
+                errors.incrementAndGet();
+                Debug.log("background writer: %s", e);
+            }
+            try {
+                Thread.sleep(intervalMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Does one round now: writes cold pages if fewer than cleanFraction of
+     * the frames are clean.
+     *
+     * @return the number of pages written
+     */
+    public int writeRound() throws IOException {
+        rounds.incrementAndGet();
+        int target = (int) Math.ceil(cleanFraction * pool.getNumPages());
+        int missing = target - pool.getNumCleanFrames();
+        if (missing <= 0)
+            return 0;
+        activeRounds.incrementAndGet();
+        List<Integer> done = pool.writeColdPages(Math.min(missing, maxPages),
+                                                 MAX_RUN_PAGES);
+        int pages = 0;
+        for (int n : done)
+            pages += n;
+        pagesWritten.addAndGet(pages);
+        writes.addAndGet(done.size());
+        return pages;
+    }
+
+    /** @return the number of rounds done */
+    public long getRoundCount() {
+        return rounds.get();
+    }
+
+    /** @return the number of rounds that found too few clean frames */
+    public long getActiveRoundCount() {
+        return activeRounds.get();
+    }
+
+    /** @return the number of pages written */
+    public long getPagesWritten() {
+        return pagesWritten.get();
+    }
+
+    /** @return the number of writes done; each writes one or more adjacent pages */
+    public long getWriteCount() {
+        return writes.get();
+    }
+
+    /** @return the number of rounds that failed with an I/O error */
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    public String toString() {
+        return "BackgroundWriter[rounds=" + getRoundCount()
+            + ", activeRounds=" + getActiveRoundCount()
+            + ", pages=" + getPagesWritten()
+            + ", writes=" + getWriteCount()
+            + ", errors=" + getErrorCount() + "]";
+    }
+}
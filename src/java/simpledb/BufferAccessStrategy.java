@@ -0,0 +1,56 @@
+package simpledb;
+
+/**
+ * BufferAccessStrategy is a ring of buffer frames private to one large
+ * sequential scan, in the spirit of PostgreSQL's bulk-read rings. Pages the
+ * scan has to read from disk are remembered in the ring; once the ring is
+ * full, the next miss recycles the frame of the page the scan read
+ * ringSize misses ago instead of asking the pool's ReplacementPolicy for a
+ * victim. A full scan of a big table therefore only ever occupies about
+ * ringSize frames, and the rest of the pool keeps its hot pages.
+ * <p>
+ * Pages that were already resident when the scan reached them are used as
+ * normal hits and never enter the ring. A ring page that was dirtied in the
+ * meantime is not recycled; the pool falls back to its normal eviction.
+ *
+ * @see BufferPool#getScanStrategy
+ * @see BufferPool#getPage(TransactionId, PageId, Permissions, BufferAccessStrategy)
+ */
+public class BufferAccessStrategy {
+
+    private final PageId[] ring;
+    private int next = 0;
+
+    /**
+     * Creates a ring of ringSize frames.
+     *
+     * @param ringSize the number of frames the scan may keep; at least 1
+     */
+    public BufferAccessStrategy(int ringSize) {
+        if (ringSize < 1)
+            throw new IllegalArgumentException("ring size must be at least 1");
+        this.ring = new PageId[ringSize];
+    }
+
+    /** @return the number of frames in this ring */
+    public int getRingSize() {
+        return ring.length;
+    }
+
+    /**
+     * @return the page whose frame the next miss should reuse, or null if
+     *     the ring is not full yet
+     */
+    synchronized PageId nextToRecycle() {
+        return ring[next];
+    }
+
+    /**
+     * Records that pid was read into the pool on behalf of this scan, taking
+     * the place of the page returned by the last call to nextToRecycle.
+     */
+    synchronized void pageLoaded(PageId pid) {
+        ring[next] = pid;
+        next = (next + 1) % ring.length;
+    }
+}
@@ -2,7 +2,8 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import simpledb.Catalog.Table;
 
 /**
@@ -12,7 +13,23 @@ import simpledb.Catalog.Table;
  * <p>
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
- * locks to read/write the page.
+ * locks to read/write the page. Locks are page-level shared/exclusive
+ * locks handed out by a {@link LockManager} and held until the
+ * transaction completes (strict two-phase locking).
+ * <p>
+ * Recovery follows the write-ahead log (see {@link LogFile}) with a
+ * NO-FORCE/STEAL policy. A commit logs the pages the transaction
+ * dirtied and forces the log, but leaves the pages to be written later.
+ * Eviction may write a page dirtied by a running transaction, after
+ * logging it. An abort restores the transaction's cached pages from their
+ * before images and rolls back stolen pages from the log.
+ * <p>
+ * The page table maps each page to a {@link Frame}. A miss installs a
+ * frame in the loading state before it reads the page, so concurrent
+ * misses on the same page wait for that one read instead of reading the
+ * page again. Hits never take a pool-wide lock: only misses that have to
+ * make room serialize on the eviction latch, and flushing or evicting a
+ * page only latches that page's frame.
  * 
  * @Threadsafe, all fields are final
  */
@@ -27,19 +44,152 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /** Largest ring handed out by {@link #getScanStrategy}. */
+    public static final int MAX_RING_PAGES = 32;
+
+    /**
+     * Replacement policy used by {@link #BufferPool(int)}. Set it with the
+     * system property simpledb.BufferPool.policy, e.g.
+     * -Dsimpledb.BufferPool.policy=clock. One of lru (default), clock, lruk.
+     */
+    public static final String DEFAULT_POLICY =
+        System.getProperty("simpledb.BufferPool.policy", "lru");
+
+    private final ConcurrentHashMap<PageId, Frame> frames;
+    private final int numPages;
+    // frames holding or reserved for a page; changes under the frame latch
+    private final AtomicInteger used = new AtomicInteger();
+    // serializes making room in the pool
+    private final Object evictionLatch = new Object();
+    // times a miss waits 10ms for a frame to finish loading before it gives up
+    private static final int MAX_EVICTION_WAITS = 100;
+    private final ReplacementPolicy policy;
+    private volatile Prefetcher prefetcher;
+    private BackgroundWriter backgroundWriter; // guarded by this
+    // evictions that had to write their victim first
+    private final AtomicInteger dirtyEvictions = new AtomicInteger();
+    private final LockManager lockManager = new LockManager();
+    // transactions whose commit record is being written; their pages are
+    // already logged
+    private final Set<TransactionId> committing =
+        Collections.newSetFromMap(new ConcurrentHashMap<TransactionId, Boolean>());
+    // dirtier of a page whose only changes not on disk are committed ones,
+    // such as a before image an abort put back; it is never running
+    private static final TransactionId COMMITTED = new TransactionId(-1);
+
+    /**
+     * A slot of the page table. A frame starts out LOADING while its page
+     * is read, becomes RESIDENT, and is GONE once it has been evicted or
+     * discarded (or its load failed). The frame's monitor is its latch: it
+     * guards the state and the pin count and is held while the page is
+     * flushed. A pinned page is being changed (see {@link #pinPage}); it is
+     * not evicted, written or logged until it is unpinned.
+     */
+    private static class Frame {
+        static final int LOADING = 0, RESIDENT = 1, GONE = 2;
+
+        final PageId pid;
+        int state = LOADING;
+        // whether the frame counts against numPages
+        boolean reserved;
+        Page page;
+        // log offset of the first logged change of page that is not on
+        // disk yet, or -1
+        long recLsn = -1;
+        // threads changing page; the frame stays RESIDENT while it is > 0
+        int pins;
+
+        Frame(PageId pid) {
+            this.pid = pid;
+        }
+
+        /** Waits until the page is not pinned; called with the latch held. */
+        void awaitUnpinned() {
+            boolean interrupted = false;
+            while (pins > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+
+        /**
+         * Waits for the page to be read.
+         * @return the page, or null if the load failed
+         */
+        synchronized Page await() {
+            boolean interrupted = false;
+            while (state == LOADING) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+            return page;
+        }
+
+        synchronized Page getPage() {
+            return page;
+        }
+    }
+
     /**
      * Creates a BufferPool that caches up to numPages pages.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
-    
-    private ConcurrentHashMap<PageId, Page> PageId_to_Page;
-    private int numPages;
-    
     public BufferPool(int numPages) {
+        this(numPages, newReplacementPolicy(DEFAULT_POLICY, numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and picks
+     * eviction victims with the given policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the replacement policy; must not be shared with another
+     *     BufferPool.
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy) {
         // some code goes here
-    	PageId_to_Page = new ConcurrentHashMap<PageId, Page>();
+    	frames = new ConcurrentHashMap<PageId, Frame>();
         this.numPages = numPages;
+        this.policy = policy;
+        if (Prefetcher.DEFAULT_DEPTH > 0)
+            this.prefetcher = new Prefetcher(Prefetcher.DEFAULT_DEPTH);
+    }
+
+    /**
+     * Creates one of the built in replacement policies by name.
+     *
+     * @param name lru, clock or lruk (case insensitive)
+     * @param numPages the size of the pool the policy is for
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    public static ReplacementPolicy newReplacementPolicy(String name, int numPages) {
+        String n = name.trim().toLowerCase();
+        if (n.equals("lru"))
+            return new LruReplacementPolicy();
+        if (n.equals("clock"))
+            return new ClockReplacementPolicy();
+        if (n.equals("lruk") || n.equals("lru-k") || n.equals("lru2"))
+            return new LruKReplacementPolicy(numPages);
+        throw new IllegalArgumentException("Unknown replacement policy " + name);
+    }
+
+    /**
+     * @return the replacement policy of this pool; its counters show how
+     *     well the policy did on the workload run so far.
+     */
+    public ReplacementPolicy getReplacementPolicy() {
+        return policy;
     }
     
     public static int getPageSize() {
@@ -68,31 +218,278 @@ public class BufferPool {
      */
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page on behalf of a scan that uses the given
+     * access strategy. Works like {@link #getPage(TransactionId, PageId,
+     * Permissions)}, except that when the page has to be read from disk,
+     * the frame of the oldest page in the strategy's ring is reused if
+     * possible, so the scan does not push other pages out of the pool.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param strategy the ring of the calling scan, or null for the normal
+     *     replacement policy
+     * @throws TransactionAbortedException if waiting for the lock would
+     *     deadlock
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm,
+            BufferAccessStrategy strategy)
+        throws TransactionAbortedException, DbException {
         // some code goes here
+        if (tid != null)
+            lockManager.acquire(tid, pid, perm);
 
-        Page p;
-        //check if the page is in the bufferpool
-        if (!PageId_to_Page.containsKey(pid))
-        {
-        	//it is not in the bufferpool, must get from dbfile
-        	//check to see if the buffer is full. if it is then evict
-            if(PageId_to_Page.size() == numPages)
-            {
-                // Buffer is full, evict a page before adding
-                evictPage();
+        Page p = null;
+        while (p == null) {
+            Frame f = frames.get(pid);
+            if (f == null) {
+                //not in the bufferpool: claim a frame and read the page
+                Frame mine = new Frame(pid);
+                f = frames.putIfAbsent(pid, mine);
+                if (f == null) {
+                    p = loadPage(mine, strategy);
+                    break;
+                }
+            }
+            //resident, or being read by another thread: wait for it
+            p = f.await();
+            if (p != null)
+                policy.pageAccessed(pid);
+            //else the other load failed; try again ourselves
+        }
+
+        Prefetcher pf = prefetcher;
+        if (pf != null)
+            pf.pageRequested(this, tid, pid, strategy);
+        return p;
+    }
+
+    /**
+     * Retrieves a page like {@link #getPage(TransactionId, PageId,
+     * Permissions)} and pins it for a change. Until {@link #unpinPage}, the
+     * pool does not evict, write or log the page, so nothing sees the
+     * change half done. A DbFile changes a page of the pool only while it
+     * is pinned, and marks it dirty before unpinning it.
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        while (true) {
+            getPage(tid, pid, perm);
+            Frame f = frames.get(pid);
+            if (f == null)
+                continue;
+            synchronized (f) {
+                //evicted again before we got the latch: read it again
+                if (f.state == Frame.RESIDENT) {
+                    f.pins++;
+                    return f.page;
+                }
             }
-            
-            //now add from dbfile
+        }
+    }
+
+    /** Ends a change of a page pinned by {@link #pinPage}. */
+    public void unpinPage(PageId pid) {
+        Frame f = frames.get(pid);
+        if (f == null)
+            throw new IllegalStateException("page " + pid + " is not pinned");
+        synchronized (f) {
+            if (f.pins <= 0)
+                throw new IllegalStateException("page " + pid + " is not pinned");
+            if (--f.pins == 0)
+                f.notifyAll();
+        }
+    }
+
+    /**
+     * Reads the page of a frame this thread installed in the page table,
+     * making room in the pool first if it is full. Threads that found the
+     * frame wait for the outcome.
+     */
+    private Page loadPage(Frame frame, BufferAccessStrategy strategy)
+        throws DbException {
+        PageId pid = frame.pid;
+        Page p = null;
+        try {
+            reserveFrame(frame, strategy);
             DbFile dbfile = Database.getCatalog().getDatabaseFile(pid.getTableId());
             p = dbfile.readPage(pid);
-            PageId_to_Page.put(pid, p);
-        } 
-        //if it is then simply get it
-        else
-                p = PageId_to_Page.get(pid);
+        } finally {
+            boolean resident;
+            synchronized (frame) {
+                frame.page = p;
+                if (p != null && frame.state == Frame.LOADING) {
+                    frame.state = Frame.RESIDENT;
+                } else {
+                    //failed, or discarded while we were reading
+                    release(frame);
+                }
+                resident = (frame.state == Frame.RESIDENT);
+                frame.notifyAll();
+            }
+            if (resident) {
+                policy.pageLoaded(pid);
+                if (strategy != null)
+                    strategy.pageLoaded(pid);
+            }
+        }
         return p;
     }
 
+    /**
+     * Makes the frame count against the size of the pool, evicting pages
+     * until there is room for it.
+     */
+    private void reserveFrame(Frame frame, BufferAccessStrategy strategy)
+        throws DbException {
+        synchronized (evictionLatch) {
+            if (strategy != null)
+                recycleRingPage(strategy);
+            int waits = 0;
+            while (used.get() >= numPages) {
+                if (!evictPage()) {
+                    //every frame is still being read; wait for one
+                    if (++waits > MAX_EVICTION_WAITS)
+                        throw new DbException("Error: Cannot evict page");
+                    try {
+                        evictionLatch.wait(10);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new DbException("interrupted while waiting for a free frame");
+                    }
+                }
+            }
+            synchronized (frame) {
+                frame.reserved = true;
+                used.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Removes a frame from the page table and frees its slot. The caller
+     * holds the frame's latch.
+     */
+    private void release(Frame frame) {
+        if (frame.state != Frame.GONE) {
+            frame.state = Frame.GONE;
+            frames.remove(frame.pid, frame);
+        }
+        if (frame.reserved) {
+            frame.reserved = false;
+            used.decrementAndGet();
+        }
+    }
+
+    /**
+     * Starts loading pid in the background unless it is resident or
+     * already being loaded. Called by the Prefetcher.
+     */
+    void prefetchPage(final PageId pid, final BufferAccessStrategy strategy,
+            Executor executor) {
+        if (frames.containsKey(pid))
+            return;
+        final Frame mine = new Frame(pid);
+        if (frames.putIfAbsent(pid, mine) != null)
+            return;
+        Runnable task = new Runnable() {
+            public void run() {
+                try {
+                    loadPage(mine, strategy);
+                } catch (DbException e) {
+                    //whoever asks for the page next reads it itself
+                } catch (RuntimeException e) {
+                }
+            }
+        };
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            synchronized (mine) {
+                release(mine);
+                mine.notifyAll();
+            }
+        }
+    }
+
+    /** @return the number of frames in use, including pages being read */
+    int getNumFramesUsed() {
+        return used.get();
+    }
+
+    /**
+     * Installs the prefetcher used for read-ahead on sequential access, or
+     * turns read-ahead off if pf is null.
+     */
+    public void setPrefetcher(Prefetcher pf) {
+        this.prefetcher = pf;
+    }
+
+    /** @return the prefetcher of this pool, or null if read-ahead is off */
+    public Prefetcher getPrefetcher() {
+        return prefetcher;
+    }
+
+    /**
+     * Installs and starts w to keep frames of this pool clean, after
+     * stopping the writer installed before; if w is null, the pool is
+     * left without one.
+     */
+    public synchronized void setBackgroundWriter(BackgroundWriter w) {
+        if (backgroundWriter != null)
+            backgroundWriter.stop();
+        backgroundWriter = w;
+        if (w != null)
+            w.start();
+    }
+
+    /** @return the background writer of this pool, or null if it has none */
+    public synchronized BackgroundWriter getBackgroundWriter() {
+        return backgroundWriter;
+    }
+
+    /** @return the number of evictions that had to write their victim */
+    int getNumDirtyEvictions() {
+        return dirtyEvictions.get();
+    }
+
+    /**
+     * Returns the access strategy a sequential scan over a table of
+     * tablePages pages should use, or null if the table is small enough
+     * to go through the normal replacement policy. Tables that do not fit
+     * in the pool get no reuse out of it on a scan anyway (the scan would
+     * only evict its own earlier pages), so they get a ring of 1/8 of the
+     * pool, capped at {@link #MAX_RING_PAGES} frames.
+     */
+    public BufferAccessStrategy getScanStrategy(int tablePages) {
+        if (tablePages <= numPages)
+            return null;
+        return new BufferAccessStrategy(Math.max(1, Math.min(MAX_RING_PAGES, numPages / 8)));
+    }
+
+    /**
+     * Frees the frame of the page the ring wants to reuse, if that page
+     * is still resident and clean. Called with the eviction latch held.
+     */
+    private void recycleRingPage(BufferAccessStrategy strategy) {
+        PageId old = strategy.nextToRecycle();
+        if (old == null)
+            return;
+        Frame f = frames.get(old);
+        if (f == null)
+            return;
+        synchronized (f) {
+            if (f.state == Frame.RESIDENT && f.pins == 0 && f.page.isDirty() == null) {
+                release(f);
+                policy.pageRemoved(old);
+            }
+        }
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -104,7 +501,7 @@ public class BufferPool {
      */
     public  void releasePage(TransactionId tid, PageId pid) {
         // some code goes here
-        // not necessary for lab1|lab2
+        lockManager.release(tid, pid);
     }
 
     /**
@@ -114,19 +511,30 @@ public class BufferPool {
      */
     public void transactionComplete(TransactionId tid) throws IOException {
         // some code goes here
-        // not necessary for lab1|lab2
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
-        // not necessary for lab1|lab2
-        return false;
+        return lockManager.holdsLock(tid, p);
+    }
+
+    /** @return the lock manager of this pool */
+    public LockManager getLockManager() {
+        return lockManager;
     }
 
     /**
      * Commit or abort a given transaction; release all locks associated to
      * the transaction.
+     * <p>
+     * On commit, the pages the transaction dirtied are logged and become
+     * the pages' before images, and a commit record is forced to the log.
+     * The pages themselves stay dirty in the pool (NO-FORCE). On abort,
+     * the cached pages the transaction dirtied are replaced by their before
+     * images, and the log rolls back the pages that were stolen. Either way,
+     * a transaction that never dirtied a page writes nothing to the log.
      *
      * @param tid the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
@@ -134,7 +542,43 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid, boolean commit)
         throws IOException {
         // some code goes here
-        // not necessary for lab1|lab2
+        LogFile log = Database.getLogFile();
+        try {
+            for (PageId pid : lockManager.getLockedPages(tid)) {
+                Frame f = frames.get(pid);
+                if (f == null)
+                    continue;
+                synchronized (f) {
+                    // the page and its before image must not be in the
+                    // middle of a change when they are logged or swapped
+                    f.awaitUnpinned();
+                    if (f.state != Frame.RESIDENT || !tid.equals(f.page.isDirty()))
+                        continue;
+                    if (commit) {
+                        long lsn = log.logWrite(tid, f.page.getBeforeImage(), f.page);
+                        if (f.recLsn < 0)
+                            f.recLsn = lsn;
+                        f.page.setBeforeImage();
+                    } else {
+                        Page before = f.page.getBeforeImage();
+                        // committed changes in it may not be on disk yet
+                        if (f.recLsn >= 0)
+                            before.markDirty(true, COMMITTED);
+                        f.page = before;
+                    }
+                }
+            }
+            if (commit) {
+                committing.add(tid);
+                if (log.isActive(tid))
+                    log.logCommit(tid);
+            } else if (log.isActive(tid)) {
+                log.logAbort(tid);
+            }
+        } finally {
+            lockManager.releaseAll(tid);
+            committing.remove(tid);
+        }
     }
 
     /**
@@ -163,7 +607,7 @@ public class BufferPool {
     	{
     		p.markDirty(true, tid);
     		//now update the cache 
-    		PageId_to_Page.put(p.getId(),p);
+    		cachePage(p);
     	}
     }
 
@@ -190,7 +634,45 @@ public class BufferPool {
         {
             p.markDirty(true, tid);
             //now update the cache
-            PageId_to_Page.put(p.getId(),p);
+            cachePage(p);
+        }
+    }
+
+    /**
+     * Makes p the cached version of its page. Pages returned by a DbFile
+     * normally came from getPage and are still resident; if one was evicted
+     * in the meantime it is put back like a freshly loaded page.
+     */
+    private void cachePage(Page p) throws DbException {
+        PageId pid = p.getId();
+        while (true) {
+            Frame f = frames.get(pid);
+            if (f == null) {
+                Frame mine = new Frame(pid);
+                if (frames.putIfAbsent(pid, mine) != null)
+                    continue;
+                try {
+                    reserveFrame(mine, null);
+                } finally {
+                    synchronized (mine) {
+                        mine.page = p;
+                        if (mine.reserved)
+                            mine.state = Frame.RESIDENT;
+                        else
+                            release(mine);
+                        mine.notifyAll();
+                    }
+                }
+                policy.pageLoaded(pid);
+                return;
+            }
+            f.await();
+            synchronized (f) {
+                if (f.state == Frame.RESIDENT) {
+                    f.page = p;
+                    return;
+                }
+            }
         }
     }
 
@@ -199,77 +681,317 @@ public class BufferPool {
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
     	
-    	for(PageId pidIterator : PageId_to_Page.keySet())
+    	for(PageId pidIterator : frames.keySet())
     	{
     		flushPage(pidIterator);
     	}
     }
 
+    /**
+     * @return the cached copy of pid, without locking it, or null if it
+     *     is not in the pool
+     */
+    Page getCachedPage(PageId pid) {
+        Frame f = frames.get(pid);
+        if (f == null)
+            return null;
+        synchronized (f) {
+            return (f.state == Frame.RESIDENT) ? f.page : null;
+        }
+    }
+
     /** Remove the specific page id from the buffer pool.
         Needed by the recovery manager to ensure that the
         buffer pool doesn't keep a rolled back page in its
         cache.
     */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
         // only necessary for lab5
+        Frame f = frames.get(pid);
+        if (f == null)
+            return;
+        synchronized (f) {
+            f.awaitUnpinned();
+            if (f.state == Frame.GONE)
+                return;
+            boolean resident = (f.state == Frame.RESIDENT);
+            release(f);
+            if (resident)
+                policy.pageRemoved(pid);
+        }
     }
 
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
-    	Page page = PageId_to_Page.get(pid);
-    	if(page != null && page.isDirty() != null)
+        Frame f = frames.get(pid);
+        if (f != null) {
+            synchronized (f) {
+                if (f.state == Frame.RESIDENT)
+                    writeIfDirty(f);
+            }
+        }
+    }
+
+    /**
+     * Writes the page of f to its file if it is dirty. If the transaction
+     * that dirtied it is still running, the page is logged and the log
+     * forced first. Called with the frame latched; waits for a change in
+     * progress to end first.
+     */
+    private void writeIfDirty(Frame f) throws IOException {
+        f.awaitUnpinned();
+        if (f.state != Frame.RESIDENT)
+            return;
+        Page page = f.page;
+        TransactionId dirtier = page.isDirty();
+    	if(dirtier != null)
     	{
-    		Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
-    		page.markDirty(false, page.isDirty());
+            if (lockManager.isActive(dirtier) && !committing.contains(dirtier)) {
+                // steal: no change is under way, so the logged delta is
+                // the whole change and the before image is not written to
+                LogFile log = Database.getLogFile();
+                log.logWrite(dirtier, page.getBeforeImage(), page);
+                log.force();
+                // the next record for the page is a delta from this one
+                page.setBeforeImage();
+            }
+    		Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
+    		page.markDirty(false, null);
+    		f.recLsn = -1;
     	}
     }
 
+    /**
+     * Returns the dirty page table for a checkpoint: the pages with logged
+     * changes that are not on disk yet, each with the log offset of the
+     * first such change. Frames are latched one at a time, so the table is
+     * fuzzy; pages changed while it is built are logged after it was
+     * started.
+     */
+    Map<PageId, Long> getDirtyPages() {
+        HashMap<PageId, Long> dirty = new HashMap<PageId, Long>();
+        for (Frame f : frames.values()) {
+            synchronized (f) {
+                if (f.state == Frame.RESIDENT && f.recLsn >= 0)
+                    dirty.put(f.pid, f.recLsn);
+            }
+        }
+        return dirty;
+    }
+
+    /**
+     * Writes out the dirty pages whose first change that is not on disk
+     * was logged before lsn, so that the log before lsn is no longer
+     * needed to redo them. Frames are latched one at a time.
+     */
+    void flushPagesLoggedBefore(long lsn) throws IOException {
+        for (Frame f : frames.values()) {
+            synchronized (f) {
+                if (f.state == Frame.RESIDENT && f.recLsn >= 0 && f.recLsn < lsn)
+                    writeIfDirty(f);
+            }
+        }
+    }
+
+    /**
+     * @return the number of frames that are free or hold a clean page, so
+     *     that a miss can take them without writing anything
+     */
+    int getNumCleanFrames() {
+        int clean = numPages - used.get();
+        for (Frame f : frames.values()) {
+            synchronized (f) {
+                if (f.state == Frame.RESIDENT && f.page.isDirty() == null)
+                    clean++;
+            }
+        }
+        return clean;
+    }
+
+    /** @return the number of pages the pool holds at most */
+    int getNumPages() {
+        return numPages;
+    }
+
+    /**
+     * Writes out up to max of the coldest dirty pages, in the order the
+     * replacement policy would evict them, for the {@link BackgroundWriter}.
+     * Only pages of finished transactions are written, so nothing has to
+     * be logged. The dirty pages next to a page in the same HeapFile are
+     * written along with it in one write of up to maxRun pages.
+     *
+     * @return the number of pages of each write done
+     */
+    List<Integer> writeColdPages(int max, int maxRun) throws IOException {
+        List<Integer> writes = new ArrayList<Integer>();
+        int written = 0;
+        for (PageId pid : policy.coldestPages(numPages)) {
+            if (written >= max)
+                break;
+            if (!(pid instanceof HeapPageId) || !isWritable(frames.get(pid)))
+                continue;
+            DbFile file;
+            try {
+                file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            } catch (NoSuchElementException e) {
+                continue;
+            }
+            if (!(file instanceof HeapFile))
+                continue;
+
+            // grow a run of writable neighbors around the page
+            int room = Math.min(maxRun, max - written);
+            int table = pid.getTableId();
+            int lo = pid.pageNumber();
+            int hi = lo;
+            while (hi - lo + 1 < room && lo > 0
+                   && isWritable(frames.get(new HeapPageId(table, lo - 1))))
+                lo--;
+            while (hi - lo + 1 < room
+                   && isWritable(frames.get(new HeapPageId(table, hi + 1))))
+                hi++;
+            List<Frame> run = new ArrayList<Frame>();
+            for (int pg = lo; pg <= hi; pg++) {
+                Frame f = frames.get(new HeapPageId(table, pg));
+                if (f != null)
+                    run.add(f);
+            }
+            written += writeRun((HeapFile) file, run, 0, writes);
+        }
+        return writes;
+    }
+
+    /** @return true if f holds a page a finished transaction dirtied */
+    private boolean isWritable(Frame f) {
+        if (f == null)
+            return false;
+        synchronized (f) {
+            if (f.state != Frame.RESIDENT)
+                return false;
+            TransactionId dirtier = f.page.isDirty();
+            return f.pins == 0 && dirtier != null && !lockManager.isActive(dirtier);
+        }
+    }
+
+    /**
+     * Latches run[i..] in page order, then writes the pages that are still
+     * writable, consecutive ones together.
+     * @return the number of pages written
+     */
+    private int writeRun(HeapFile file, List<Frame> run, int i, List<Integer> writes)
+            throws IOException {
+        if (i < run.size()) {
+            synchronized (run.get(i)) {
+                return writeRun(file, run, i + 1, writes);
+            }
+        }
+        int written = 0;
+        List<Frame> batch = new ArrayList<Frame>();
+        for (int j = 0; j <= run.size(); j++) {
+            Frame f = (j < run.size()) ? run.get(j) : null;
+            boolean writable = f != null && f.state == Frame.RESIDENT && f.pins == 0
+                && f.page.isDirty() != null && !lockManager.isActive(f.page.isDirty());
+            boolean next = writable && (batch.isEmpty()
+                || f.pid.pageNumber() == batch.get(batch.size() - 1).pid.pageNumber() + 1);
+            if (!next && !batch.isEmpty()) {
+                List<Page> pages = new ArrayList<Page>();
+                for (Frame b : batch)
+                    pages.add(b.page);
+                file.writePages(pages);
+                for (Frame b : batch) {
+                    b.page.markDirty(false, null);
+                    b.recLsn = -1;
+                }
+                writes.add(batch.size());
+                written += batch.size();
+                batch.clear();
+            }
+            if (writable)
+                batch.add(f);
+        }
+        return written;
+    }
+
     /** Write all pages of the specified transaction to disk.
+        Pages of a running transaction are logged first, as when they are
+        stolen, so the log can still roll them back if it aborts.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
-        // not necessary for lab1|lab2
+        for (PageId pid : lockManager.getLockedPages(tid)) {
+            Frame f = frames.get(pid);
+            if (f == null)
+                continue;
+            synchronized (f) {
+                if (f.state == Frame.RESIDENT && tid.equals(f.page.isDirty()))
+                    writeIfDirty(f);
+            }
+        }
     }
 
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * The page is chosen by the pool's {@link ReplacementPolicy}. Called
+     * with the eviction latch held; only the victim's frame is latched, so
+     * hits on other pages go on meanwhile.
+     * @return false if there is no page to evict because every frame is
+     *     still being read
      */
-    private synchronized  void evictPage() throws DbException {
+    private boolean evictPage() throws DbException {
         // some code goes here
         // not necessary for lab1
-    	boolean evicted = false;
-        Page page;
-        for (PageId i : PageId_to_Page.keySet())
-        {
-        	//search for the page
-            page = PageId_to_Page.get(i);
-            try
-            {
-            	//flush to disk
-                flushPage(i);
-                //remove the page from buffer
-                PageId_to_Page.remove(i);
-                evicted = true;
-                break;
+        // pinned victims, handed back to the policy once we are done
+        List<PageId> pinned = new ArrayList<PageId>();
+        try {
+            while (true) {
+                PageId victim = policy.chooseVictim();
+                if (victim == null) {
+                    return false;
+                }
+                Frame f = frames.get(victim);
+                if (f == null)
+                    //already gone; the policy heard of it late
+                    continue;
+                synchronized (f) {
+                    if (f.state != Frame.RESIDENT)
+                        continue;
+                    if (f.pins > 0) {
+                        //being changed; try the next one
+                        pinned.add(victim);
+                        continue;
+                    }
+                    try
+                    {
+                        //flush to disk
+                        if (f.page.isDirty() != null)
+                            dirtyEvictions.incrementAndGet();
+                        writeIfDirty(f);
+                    }
+                    catch (IOException e)
+                    {
+                        policy.pageRestored(victim);
+                        throw new DbException("Error: Cannot evict page " + victim + ": " + e);
+                    }
+                    //remove the page from buffer
+                    release(f);
+                }
+                return true;
             }
-            catch (IOException e) 
-            { 
-            	throw new RuntimeException();
-            }
-        }
-        if (!evicted) {
-            throw new DbException("Error: Cannot evict page");
+        } finally {
+            //last first, so the first one skipped is the next victim again
+            for (int i = pinned.size() - 1; i >= 0; i--)
+                policy.pageRestored(pinned.get(i));
         }
     }
 }
@@ -0,0 +1,388 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * BulkLoader turns a delimited text file into a HeapFile, the fast way.
+ * The input is read in chunks of lines; worker threads parse each chunk and
+ * encode it straight into full heap pages, and the calling thread writes
+ * the encoded chunks to the table file in order with large sequential
+ * writes. Lines have the same format as for {@link HeapFileEncoder}: one
+ * tuple per line, fields separated by a separator character, blank lines
+ * ignored.
+ * <p>
+ * {@link #load} also adds the new table to the Catalog and installs its
+ * TableStats. The minimum and maximum of every int column are collected
+ * while the text is parsed, so the histograms are filled by one sequential
+ * read of the freshly written pages rather than by two scans through the
+ * BufferPool.
+ *
+ * @see HeapFileEncoder
+ * @see TableStats
+ */
+public class BulkLoader {
+
+    /** Default number of encoding threads: one per processor. */
+    public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /** Default number of pages encoded by one task. */
+    static final int DEFAULT_CHUNK_PAGES = 64;
+
+    private final TupleDesc td;
+    private final char fieldSeparator;
+    private final int threads;
+    private final int chunkPages;
+
+    /**
+     * Creates a loader for tables with the given schema.
+     *
+     * @param td the schema of the tuples in the input
+     * @param fieldSeparator the character between the fields of a line
+     * @param threads the number of encoding threads
+     */
+    public BulkLoader(TupleDesc td, char fieldSeparator, int threads) {
+        this(td, fieldSeparator, threads, DEFAULT_CHUNK_PAGES);
+    }
+
+    /**
+     * Creates a loader for comma separated input that encodes on
+     * {@link #DEFAULT_THREADS} threads.
+     */
+    public BulkLoader(TupleDesc td) {
+        this(td, ',', DEFAULT_THREADS);
+    }
+
+    BulkLoader(TupleDesc td, char fieldSeparator, int threads, int chunkPages) {
+        if (threads < 1 || chunkPages < 1)
+            throw new IllegalArgumentException("need at least one thread and one page per chunk");
+        this.td = td;
+        this.fieldSeparator = fieldSeparator;
+        this.threads = threads;
+        this.chunkPages = chunkPages;
+    }
+
+    /**
+     * Converts inFile to a table file, adds it to the Catalog under
+     * tableName and computes its TableStats.
+     *
+     * @param inFile the text file to load
+     * @param outFile the table file to write; overwritten if it exists
+     * @param tableName the name of the new table
+     * @return the new table
+     * @throws IOException if a file can't be read or written, or a line is
+     *     malformed
+     */
+    public HeapFile load(File inFile, File outFile, String tableName) throws IOException {
+        Summary summary = encode(inFile, outFile);
+        HeapFile hf = new HeapFile(outFile, td);
+        Database.getCatalog().addTable(hf, tableName);
+        TableStats.setTableStats(tableName, computeStats(hf, summary));
+        return hf;
+    }
+
+    /**
+     * Converts inFile to a table file without registering it anywhere.
+     *
+     * @return the number of tuples written
+     * @throws IOException if a file can't be read or written, or a line is
+     *     malformed
+     */
+    public long convert(File inFile, File outFile) throws IOException {
+        return encode(inFile, outFile).numTuples;
+    }
+
+    /** What the encoding pass learned about the table. */
+    private static class Summary {
+        long numTuples;
+        final int[] min;
+        final int[] max;
+
+        Summary(int numFields) {
+            min = new int[numFields];
+            max = new int[numFields];
+            Arrays.fill(min, Integer.MAX_VALUE);
+            Arrays.fill(max, Integer.MIN_VALUE);
+        }
+
+        void add(Summary other) {
+            numTuples += other.numTuples;
+            for (int i = 0; i < min.length; i++) {
+                min[i] = Math.min(min[i], other.min[i]);
+                max[i] = Math.max(max[i], other.max[i]);
+            }
+        }
+    }
+
+    /** One chunk of input lines and, once encoded, its pages. */
+    private class Chunk implements Callable<Chunk> {
+        private final String[] lines;
+        // the line number of each line in the input; blank lines are skipped
+        private final long[] lineNos;
+        private final int numLines;
+        byte[] pages;
+        int pageBytes;
+        final Summary summary = new Summary(td.numFields());
+
+        Chunk(String[] lines, long[] lineNos, int numLines) {
+            this.lines = lines;
+            this.lineNos = lineNos;
+            this.numLines = numLines;
+        }
+
+        public Chunk call() throws IOException {
+            PageEncoder enc = new PageEncoder(td, BufferPool.getPageSize(), chunkPages);
+            for (int i = 0; i < numLines; i++)
+                parseLine(lines[i], lineNos[i], enc, summary);
+            summary.numTuples = numLines;
+            pages = enc.getPages();
+            pageBytes = enc.getNumPages() * BufferPool.getPageSize();
+            return this;
+        }
+    }
+
+    private Summary encode(File inFile, File outFile) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        int linesPerChunk = PageEncoder.slotsPerPage(td, pageSize) * chunkPages;
+        Summary total = new Summary(td.numFields());
+        ExecutorService workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "simpledb-bulkload");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        // encoded chunks waiting to be written, in input order
+        ArrayDeque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>();
+
+        // an old free-space map does not describe the new file
+        FreeSpaceMap.sideFile(outFile).delete();
+        BufferedReader in = new BufferedReader(new FileReader(inFile), 1 << 20);
+        FileOutputStream out = new FileOutputStream(outFile);
+        try {
+            long lineNo = 0;
+            long written = 0;
+            String[] lines = new String[linesPerChunk];
+            long[] lineNos = new long[linesPerChunk];
+            int n = 0;
+            String line;
+            while ((line = in.readLine()) != null) {
+                lineNo++;
+                if (line.length() == 0)
+                    continue;
+                lines[n] = line;
+                lineNos[n++] = lineNo;
+                if (n == linesPerChunk) {
+                    pending.add(workers.submit(new Chunk(lines, lineNos, n)));
+                    lines = new String[linesPerChunk];
+                    lineNos = new long[linesPerChunk];
+                    n = 0;
+                    // keep only a few chunks in memory
+                    while (pending.size() > 2 * threads)
+                        written += writeChunk(pending.poll(), out, total);
+                }
+            }
+            if (n > 0)
+                pending.add(workers.submit(new Chunk(lines, lineNos, n)));
+            while (!pending.isEmpty())
+                written += writeChunk(pending.poll(), out, total);
+
+            // like HeapFileEncoder, an empty table still gets one empty page
+            if (written == 0)
+                out.write(HeapPage.createEmptyPageData());
+        } finally {
+            workers.shutdownNow();
+            in.close();
+            out.close();
+        }
+        return total;
+    }
+
+    /** Waits for an encoded chunk and appends its pages to the table file. */
+    private int writeChunk(Future<Chunk> f, OutputStream out, Summary total) throws IOException {
+        Chunk c;
+        try {
+            c = f.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("bulk load interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+        out.write(c.pages, 0, c.pageBytes);
+        total.add(c.summary);
+        return c.pageBytes;
+    }
+
+    /** Parses one input line into the next slot of enc. */
+    private void parseLine(String line, long lineNo, PageEncoder enc, Summary summary)
+            throws IOException {
+        int off = enc.nextSlot();
+        ByteBuffer buf = enc.getBuffer();
+        int start = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            int end = line.indexOf(fieldSeparator, start);
+            if (end < 0) {
+                if (i != td.numFields() - 1)
+                    throw new IOException("line " + lineNo + ": expected "
+                            + td.numFields() + " fields: " + line);
+                end = line.length();
+            }
+            String s = line.substring(start, end).trim();
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                int v;
+                try {
+                    v = Integer.parseInt(s);
+                } catch (NumberFormatException e) {
+                    throw new IOException("line " + lineNo + ": bad int " + s);
+                }
+                buf.putInt(off, v);
+                if (v < summary.min[i])
+                    summary.min[i] = v;
+                if (v > summary.max[i])
+                    summary.max[i] = v;
+            } else {
+                PageEncoder.putString(buf, off, s);
+            }
+            off += td.getFieldType(i).getLen();
+            start = end + 1;
+        }
+        // a separator after the last field starts a field too many
+        if (start <= line.length())
+            throw new IOException("line " + lineNo + ": expected "
+                    + td.numFields() + " fields: " + line);
+    }
+
+    /**
+     * Builds the TableStats of a table encoded by this loader. The int
+     * histograms need the column ranges found while encoding; the values
+     * themselves are read back from the table file in one sequential pass.
+     */
+    private TableStats computeStats(HeapFile hf, Summary summary) throws IOException {
+        Map<String, Object> histograms = new HashMap<String, Object>();
+        if (summary.numTuples > 0) {
+            for (int i = 0; i < td.numFields(); i++) {
+                if (td.getFieldType(i) == Type.INT_TYPE)
+                    histograms.put(td.getFieldName(i), new IntHistogram(
+                            TableStats.NUM_HIST_BINS, summary.min[i], summary.max[i]));
+                else
+                    histograms.put(td.getFieldName(i), new StringHistogram(TableStats.NUM_HIST_BINS));
+            }
+        }
+
+        int pageSize = BufferPool.getPageSize();
+        int slots = PageEncoder.slotsPerPage(td, pageSize);
+        int headerSize = (slots + 7) / 8;
+        byte[] page = new byte[pageSize];
+        ByteBuffer buf = ByteBuffer.wrap(page);
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(hf.getFile()), 1 << 20));
+        try {
+            for (int p = 0; p < hf.numPages(); p++) {
+                in.readFully(page);
+                for (int slot = 0; slot < slots; slot++) {
+                    if ((page[slot >>> 3] & (1 << (slot & 7))) == 0)
+                        continue;
+                    int off = headerSize + slot * td.getSize();
+                    for (int i = 0; i < td.numFields(); i++) {
+                        Object h = histograms.get(td.getFieldName(i));
+                        if (td.getFieldType(i) == Type.INT_TYPE)
+                            ((IntHistogram) h).addValue(buf.getInt(off));
+                        else
+                            ((StringHistogram) h).addValue(
+                                    ((StringField) Type.STRING_TYPE.parse(buf, off)).getValue());
+                        off += td.getFieldType(i).getLen();
+                    }
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return new TableStats(hf, TableStats.IOCOSTPERPAGE, (int) summary.numTuples, histograms);
+    }
+
+    /**
+     * PageEncoder lays tuples out in consecutive heap pages in memory,
+     * setting the header bit of every slot it hands out. Pages are in the
+     * format read by {@link HeapPage}.
+     */
+    static class PageEncoder {
+        private final int pageSize;
+        private final int tupleSize;
+        private final int slots;
+        private final int headerSize;
+        private byte[] pages;
+        private ByteBuffer buf;
+        private int numPages = 0;
+        private int nextSlot;
+
+        /**
+         * @param expectedPages the number of pages to allocate room for
+         *     up front; more are added as needed
+         */
+        PageEncoder(TupleDesc td, int pageSize, int expectedPages) {
+            this.pageSize = pageSize;
+            this.tupleSize = td.getSize();
+            this.slots = slotsPerPage(td, pageSize);
+            this.headerSize = (slots + 7) / 8;
+            this.pages = new byte[Math.max(1, expectedPages) * pageSize];
+            this.buf = ByteBuffer.wrap(pages);
+            this.nextSlot = slots;
+        }
+
+        /** @return the number of tuples that fit on one page */
+        static int slotsPerPage(TupleDesc td, int pageSize) {
+            return (pageSize * 8) / (td.getSize() * 8 + 1);
+        }
+
+        /**
+         * Takes the next free slot, starting a new page if the current one
+         * is full.
+         * @return the offset of the slot in {@link #getBuffer}
+         */
+        int nextSlot() {
+            if (nextSlot == slots) {
+                if ((numPages + 1) * pageSize > pages.length) {
+                    pages = Arrays.copyOf(pages, pages.length * 2);
+                    buf = ByteBuffer.wrap(pages);
+                }
+                numPages++;
+                nextSlot = 0;
+            }
+            int page = (numPages - 1) * pageSize;
+            pages[page + (nextSlot >>> 3)] |= (byte) (1 << (nextSlot & 7));
+            return page + headerSize + tupleSize * nextSlot++;
+        }
+
+        /** @return the buffer the pages are encoded in */
+        ByteBuffer getBuffer() {
+            return buf;
+        }
+
+        /**
+         * @return the encoded pages; only the first getNumPages() pages
+         *     of the array are meaningful
+         */
+        byte[] getPages() {
+            return pages;
+        }
+
+        int getNumPages() {
+            return numPages;
+        }
+
+        /**
+         * Writes a string field at off the way {@link Type#STRING_TYPE}
+         * does, truncating it to {@link Type#STRING_LEN} characters.
+         */
+        static void putString(ByteBuffer buf, int off, String s) {
+            int len = Math.min(s.length(), Type.STRING_LEN);
+            buf.putInt(off, len);
+            for (int i = 0; i < len; i++)
+                buf.put(off + 4 + i, (byte) s.charAt(i));
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
@@ -182,13 +183,33 @@ public class Catalog {
     /** Delete all tables from the catalog */
     public void clear() {
         // some code goes here
+        closeFiles();
         nameToId.clear();
         idToTable.clear();
         ids.clear();
     }
     
+    /**
+     * Closes the files of all tables that hold open file handles. The
+     * tables stay in the catalog; their files are reopened when used.
+     */
+    public void closeFiles() {
+        for (Table table : idToTable.values()) {
+            if (table.file instanceof Closeable) {
+                try {
+                    ((Closeable) table.file).close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line has the form <tt>name (field type [pk], ...) [mapped]</tt>;
+     * the table is read from name.dat next to the catalog file, through a
+     * read-only {@link MappedHeapFile} if the line ends with mapped.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -229,7 +250,19 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                //optional storage option after the field list
+                String option = line.substring(line.indexOf(")") + 1).trim().toLowerCase();
+                File tabFile = new File(baseFolder+"/"+name + ".dat");
+                HeapFile tabHf;
+                if (option.equals(""))
+                    tabHf = new HeapFile(tabFile, t);
+                else if (option.equals("mapped"))
+                    tabHf = new MappedHeapFile(tabFile, t);
+                else {
+                    System.out.println("Unknown table option " + option);
+                    System.exit(0);
+                    return;
+                }
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
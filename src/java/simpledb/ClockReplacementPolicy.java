@@ -0,0 +1,102 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * CLOCK (second chance) replacement. Resident pages sit in a circular list
+ * of frames with a reference bit each; a hit only sets the bit, and the
+ * clock hand clears bits as it sweeps until it finds a frame whose bit is
+ * already clear. Approximates LRU without reordering anything on a hit.
+ */
+public class ClockReplacementPolicy extends AbstractReplacementPolicy {
+
+    private final ArrayList<PageId> frames = new ArrayList<PageId>();
+    private final ArrayList<Boolean> referenced = new ArrayList<Boolean>();
+    private final HashMap<PageId, Integer> frameOf = new HashMap<PageId, Integer>();
+    private final ArrayList<Integer> freeFrames = new ArrayList<Integer>();
+    private int hand = 0;
+
+    protected void accessed(PageId pid) {
+        Integer frame = frameOf.get(pid);
+        if (frame == null)
+            loaded(pid);
+        else
+            referenced.set(frame, Boolean.TRUE);
+    }
+
+    protected void loaded(PageId pid) {
+        if (frameOf.containsKey(pid)) {
+            accessed(pid);
+            return;
+        }
+        int frame;
+        if (!freeFrames.isEmpty()) {
+            frame = freeFrames.remove(freeFrames.size() - 1);
+            frames.set(frame, pid);
+            referenced.set(frame, Boolean.TRUE);
+        } else {
+            frame = frames.size();
+            frames.add(pid);
+            referenced.add(Boolean.TRUE);
+        }
+        frameOf.put(pid, frame);
+    }
+
+    protected void restored(PageId pid) {
+        if (frameOf.containsKey(pid))
+            return;
+        loaded(pid);
+        // unreferenced and under the hand, as it was when it was picked
+        int frame = frameOf.get(pid);
+        referenced.set(frame, Boolean.FALSE);
+        hand = frame;
+    }
+
+    protected void removed(PageId pid) {
+        Integer frame = frameOf.remove(pid);
+        if (frame != null)
+            release(frame);
+    }
+
+    protected PageId victim() {
+        if (frameOf.isEmpty())
+            return null;
+        // at most two sweeps: the first one may only clear reference bits
+        for (int steps = 0; steps < 2 * frames.size(); steps++) {
+            int frame = hand;
+            hand = (hand + 1) % frames.size();
+            PageId pid = frames.get(frame);
+            if (pid == null)
+                continue;
+            if (referenced.get(frame)) {
+                referenced.set(frame, Boolean.FALSE);
+                continue;
+            }
+            frameOf.remove(pid);
+            release(frame);
+            return pid;
+        }
+        throw new IllegalStateException("clock sweep found no victim");
+    }
+
+    protected List<PageId> coldest(int n) {
+        // a sweep takes the unreferenced frames in hand order, then the
+        // ones whose bits it cleared on the way
+        ArrayList<PageId> pages = new ArrayList<PageId>();
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < frames.size() && pages.size() < n; i++) {
+                int frame = (hand + i) % frames.size();
+                PageId pid = frames.get(frame);
+                if (pid != null && referenced.get(frame) == (pass == 1))
+                    pages.add(pid);
+            }
+        }
+        return pages;
+    }
+
+    private void release(int frame) {
+        frames.set(frame, null);
+        referenced.set(frame, Boolean.FALSE);
+        freeFrames.add(frame);
+    }
+}
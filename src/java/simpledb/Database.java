@@ -23,7 +23,7 @@ public class Database {
 
     private Database() {
         _catalog = new Catalog();
-        _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+        _bufferpool = newBufferPool(BufferPool.DEFAULT_PAGES);
         LogFile tmp = null;
         try {
             tmp = new LogFile(new File(LOGFILENAME));
@@ -35,6 +35,17 @@ public class Database {
         // startControllerThread();
     }
 
+    /**
+     * Creates a buffer pool, with a running BackgroundWriter if
+     * {@link BackgroundWriter#ENABLED}.
+     */
+    private static BufferPool newBufferPool(int pages) {
+        BufferPool bp = new BufferPool(pages);
+        if (BackgroundWriter.ENABLED)
+            bp.setBackgroundWriter(new BackgroundWriter(bp));
+        return bp;
+    }
+
     /** Return the log file of the static Database instance */
     public static LogFile getLogFile() {
         return _instance.get()._logfile;
@@ -59,7 +70,8 @@ public class Database {
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            _instance.get()._bufferpool.setBackgroundWriter(null);
+            bufferPoolF.set(_instance.get(), newBufferPool(pages));
         } catch (NoSuchFieldException e) {
             e.printStackTrace();
         } catch (SecurityException e) {
@@ -75,7 +87,24 @@ public class Database {
 
     // reset the database, used for unit tests only.
     public static void reset() {
-        _instance.set(new Database());
+        Database old = _instance.getAndSet(new Database());
+        old._bufferpool.setBackgroundWriter(null);
+        old._catalog.closeFiles();
+    }
+
+    /**
+     * Shut the database down cleanly: stop the background writer, write all
+     * dirty pages out and close the files of all tables.
+     */
+    public static void shutdown() {
+        Database db = _instance.get();
+        db._bufferpool.setBackgroundWriter(null);
+        try {
+            db._bufferpool.flushAllPages();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        db._catalog.closeFiles();
     }
 
 }
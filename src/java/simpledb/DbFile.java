@@ -32,6 +32,7 @@ public interface DbFile {
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
      * may block until the lock can be acquired.
+     * Pages are changed while pinned with {@link BufferPool#pinPage}.
      *
      * @param tid The transaction performing the update
      * @param t The tuple to add.  This tuple should be updated to reflect that
@@ -48,6 +49,7 @@ public interface DbFile {
      * transaction.
      * This method will acquire a lock on the affected pages of the file, and
      * may block until the lock can be acquired.
+     * Pages are changed while pinned with {@link BufferPool#pinPage}.
      *
      * @param tid The transaction performing the update
      * @param t The tuple to delete.  This tuple should be updated to reflect that
@@ -0,0 +1,223 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * ExternalSort returns the tuples of its child in the order of a
+ * comparator, holding at most a memory budget of them at a time.
+ * <p>
+ * open() reads the child in runs of as many tuples as fit in memory, sorts
+ * each run and, unless the first run holds the whole input, writes the runs
+ * to TupleFiles. When there are more runs than can be merged at once (one
+ * page of buffer each), runs are merged into longer runs until there are
+ * few enough. The last merge is done lazily as tuples are fetched. The sort
+ * is stable: tuples that compare equal come out in the order the child
+ * returned them.
+ *
+ * @see OrderBy
+ * @see SortMergeJoin
+ */
+class ExternalSort extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator child;
+    private final Comparator<Tuple> comparator;
+    private final int memoryPages;
+
+    // the sorted input if it fit in memory, otherwise the runs to merge
+    transient private ArrayList<Tuple> sorted;
+    transient private int index;
+    transient private ArrayList<TupleFile> runs;
+    transient private PriorityQueue<Head> heads;
+    transient private int runsWritten;
+
+    /**
+     * @param child the tuples to sort
+     * @param comparator the order to return them in
+     * @param memoryPages the memory the sort may use, in pages of
+     *     BufferPool.getPageSize(); at least 3, so that runs can be merged
+     *     two at a time
+     */
+    ExternalSort(DbIterator child, Comparator<Tuple> comparator, int memoryPages) {
+        this.child = child;
+        this.comparator = comparator;
+        this.memoryPages = Math.max(3, memoryPages);
+    }
+
+    /** The next tuple of a run being merged. */
+    private static final class Head {
+        final Tuple tuple;
+        final DbIterator run;
+        final int order;
+
+        Head(Tuple tuple, DbIterator run, int order) {
+            this.tuple = tuple;
+            this.run = run;
+            this.order = order;
+        }
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        sort();
+        super.open();
+    }
+
+    private void sort() throws DbException, TransactionAbortedException {
+        TupleDesc td = child.getTupleDesc();
+        long bytes = (long) memoryPages * BufferPool.getPageSize();
+        int budget = (int) Math.max(1, Math.min(Integer.MAX_VALUE, bytes / td.getSize()));
+        runs = new ArrayList<TupleFile>();
+        sorted = null;
+        runsWritten = 0;
+        ArrayList<Tuple> buf = new ArrayList<Tuple>();
+        try {
+            while (child.hasNext()) {
+                buf.add(child.next());
+                if (buf.size() == budget) {
+                    runs.add(writeRun(buf));
+                    buf.clear();
+                }
+            }
+            if (runs.isEmpty()) {
+                Collections.sort(buf, comparator);
+                sorted = buf;
+                index = 0;
+                return;
+            }
+            if (!buf.isEmpty())
+                runs.add(writeRun(buf));
+            buf = null;
+
+            // each run being merged needs a page of buffer; merging
+            // neighboring runs keeps the runs in input order
+            int fanIn = memoryPages - 1;
+            while (runs.size() > fanIn) {
+                ArrayList<TupleFile> next = new ArrayList<TupleFile>();
+                for (int i = 0; i < runs.size(); i += fanIn) {
+                    List<TupleFile> group = runs.subList(i, Math.min(runs.size(), i + fanIn));
+                    if (group.size() == 1) {
+                        next.add(group.get(0));
+                        continue;
+                    }
+                    TupleFile merged = new TupleFile(td);
+                    startMerge(group);
+                    Tuple t;
+                    while ((t = nextMerged()) != null)
+                        merged.add(t);
+                    closeMerge();
+                    for (TupleFile f : group)
+                        f.delete();
+                    next.add(merged);
+                    runsWritten++;
+                }
+                runs = next;
+            }
+        } catch (IOException e) {
+            throw new DbException("cannot write sort run: " + e);
+        }
+        startMerge(runs);
+    }
+
+    private TupleFile writeRun(ArrayList<Tuple> buf) throws IOException {
+        Collections.sort(buf, comparator);
+        TupleFile run = new TupleFile(child.getTupleDesc());
+        for (Tuple t : buf)
+            run.add(t);
+        runsWritten++;
+        return run;
+    }
+
+    private void startMerge(List<TupleFile> files)
+            throws DbException, TransactionAbortedException {
+        heads = new PriorityQueue<Head>(Math.max(1, files.size()), new Comparator<Head>() {
+            public int compare(Head a, Head b) {
+                int c = comparator.compare(a.tuple, b.tuple);
+                // earlier runs hold earlier input: keeps the sort stable
+                return (c != 0) ? c : a.order - b.order;
+            }
+        });
+        for (int i = 0; i < files.size(); i++) {
+            DbIterator run = files.get(i).iterator();
+            run.open();
+            if (run.hasNext())
+                heads.add(new Head(run.next(), run, i));
+            else
+                run.close();
+        }
+    }
+
+    private Tuple nextMerged() throws DbException, TransactionAbortedException {
+        Head h = heads.poll();
+        if (h == null)
+            return null;
+        if (h.run.hasNext())
+            heads.add(new Head(h.run.next(), h.run, h.order));
+        else
+            h.run.close();
+        return h.tuple;
+    }
+
+    private void closeMerge() {
+        if (heads == null)
+            return;
+        for (Head h : heads)
+            h.run.close();
+        heads = null;
+    }
+
+    /**
+     * @return the number of runs written to disk by the last open(),
+     *     counting those of intermediate merges; 0 if the input fit in
+     *     memory
+     */
+    int getRunsWritten() {
+        return runsWritten;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (sorted != null)
+            return (index < sorted.size()) ? sorted.get(index++) : null;
+        if (heads == null)
+            return null;
+        return nextMerged();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (sorted != null) {
+            index = 0;
+            return;
+        }
+        closeMerge();
+        startMerge(runs);
+    }
+
+    public void close() {
+        super.close();
+        closeMerge();
+        if (runs != null) {
+            for (TupleFile f : runs)
+                f.delete();
+        }
+        runs = null;
+        sorted = null;
+        child.close();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child = children[0];
+    }
+}
@@ -0,0 +1,121 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * FreeSpaceMap remembers which pages of a HeapFile may have an empty slot,
+ * so an insert can go straight to a candidate page instead of fetching
+ * every page of the table until it finds room.
+ * <p>
+ * The map is conservative: a page marked free may turn out to be full (the
+ * inserter then marks it full and moves on), but a page marked full never
+ * has free slots unless a delete forgot to report it. It is saved in a
+ * side file next to the table (<tt>table.dat.fsm</tt>) when the table is
+ * closed. A side file that is missing, was written for a different number
+ * of pages, or is older than the table file is ignored, and every page
+ * starts out as a candidate.
+ *
+ * @see HeapFile#insertTuple
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+
+    private static final int MAGIC = 0x46534d31; // "FSM1"
+
+    private final File file;
+    private final BitSet free = new BitSet();
+    private int numPages;
+    private boolean dirty = false;
+
+    private FreeSpaceMap(File file, int numPages) {
+        this.file = file;
+        this.numPages = numPages;
+    }
+
+    /**
+     * Returns the side file holding the free-space map of a table file.
+     */
+    public static File sideFile(File tableFile) {
+        return new File(tableFile.getPath() + ".fsm");
+    }
+
+    /**
+     * Loads the free-space map of a table file that currently has numPages
+     * pages, or builds a conservative one if no usable side file exists.
+     */
+    public static FreeSpaceMap load(File tableFile, int numPages) {
+        File side = sideFile(tableFile);
+        FreeSpaceMap fsm = new FreeSpaceMap(side, numPages);
+        if (side.exists() && side.lastModified() >= tableFile.lastModified()) {
+            try {
+                DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(new FileInputStream(side)));
+                try {
+                    if (in.readInt() == MAGIC && in.readInt() == numPages) {
+                        long[] words = new long[in.readInt()];
+                        for (int i = 0; i < words.length; i++)
+                            words[i] = in.readLong();
+                        fsm.free.or(BitSet.valueOf(words));
+                        return fsm;
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                // unreadable side file: fall back to the conservative map
+            }
+        }
+        fsm.free.set(0, numPages);
+        fsm.dirty = true;
+        return fsm;
+    }
+
+    /**
+     * @return the first page at or after pgNo that may have a free slot, or
+     *     -1 if there is none
+     */
+    public synchronized int nextCandidate(int pgNo) {
+        int next = free.nextSetBit(pgNo);
+        return (next >= numPages) ? -1 : next;
+    }
+
+    /**
+     * Records whether page pgNo has a free slot. Pages past the current end
+     * of the map extend it.
+     */
+    public synchronized void setFree(int pgNo, boolean hasFree) {
+        if (pgNo >= numPages)
+            numPages = pgNo + 1;
+        if (free.get(pgNo) != hasFree) {
+            free.set(pgNo, hasFree);
+            dirty = true;
+        }
+    }
+
+    /** @return the number of pages covered by this map */
+    public synchronized int numPages() {
+        return numPages;
+    }
+
+    /**
+     * Writes the map to its side file if it changed since it was loaded.
+     */
+    public synchronized void save() throws IOException {
+        if (!dirty)
+            return;
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            long[] words = free.toLongArray();
+            out.writeInt(MAGIC);
+            out.writeInt(numPages);
+            out.writeInt(words.length);
+            for (long w : words)
+                out.writeLong(w);
+        } finally {
+            out.close();
+        }
+        dirty = false;
+    }
+}
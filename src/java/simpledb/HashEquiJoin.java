@@ -1,18 +1,67 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The HashEquiJoin operator implements the relational equi-join with a
+ * hybrid hash join. child1 is the build side: as much of it as fits in
+ * the join's memory is kept in a hash table, and the rest is partitioned
+ * to temporary files on its join field. child2 is streamed against the
+ * hash table once, and its tuples of spilled partitions are partitioned
+ * the same way; then each pair of spilled partitions is joined. The I/O is
+ * about three times the size of the inputs, whatever the build side size.
  */
 public class HashEquiJoin extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /**
+     * Default memory for the build side hash table, in pages; set it with
+     * the system property simpledb.HashEquiJoin.memoryPages.
+     */
+    public static final int DEFAULT_MEMORY_PAGES =
+        Integer.getInteger("simpledb.HashEquiJoin.memoryPages", 256);
+
+    /** Most partitions the inputs are split into. */
+    static final int MAX_PARTITIONS = 64;
+
+    /**
+     * Deepest level to which a spilled partition that is still too big
+     * is partitioned again; at this level it is joined in chunks instead,
+     * since only many equal keys can make it that big.
+     */
+    static final int MAX_LEVEL = 3;
+
     private JoinPredicate pred;
     private DbIterator child1, child2;
     private TupleDesc comboTD;
-    transient private Tuple t1 = null;
+    private int memoryPages;
+    private final int level;
     transient private Tuple t2 = null;
+    transient private Iterator<Tuple> listIt = null;
+
+    // build side: the partitions in memory and the build and probe files
+    // of those that were spilled
+    transient private int numPartitions;
+    transient private int budget;
+    transient private ArrayList<TupleHashTable> tables;
+    transient private TupleFile[] buildFiles;
+    transient private TupleFile[] probeFiles;
+    transient private boolean spilled;
+
+    // the join of the spilled partition being read
+    transient private boolean firstPass;
+    transient private int part;
+    transient private DbIterator probe;
+    transient private DbIterator build;
+    transient private TupleHashTable table;
+    transient private HashEquiJoin nested;
+    transient private TupleFile curBuild;
+    transient private TupleFile curProbe;
+
+    transient private int spilledPartitions;
+    transient private long spilledBytes;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -26,12 +75,41 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, DEFAULT_MEMORY_PAGES, 0);
+    }
+
+    HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+                 int memoryPages, int level) {
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.level = level;
+        setMemoryPages(memoryPages);
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
+    /**
+     * Sets the memory the join may use for the build side hash table; the
+     * rest of child1 is partitioned to disk. Takes effect at the next
+     * open().
+     *
+     * @param memoryPages the memory in pages of BufferPool.getPageSize()
+     */
+    public void setMemoryPages(int memoryPages) {
+        if (memoryPages < 1)
+            throw new IllegalArgumentException("join needs at least one page of memory");
+        this.memoryPages = memoryPages;
+    }
+
+    public int getMemoryPages() {
+        return memoryPages;
+    }
+
+    /** @return the algorithm this operator runs a join with */
+    public JoinOptimizer.JoinAlgorithm getAlgorithm() {
+        return JoinOptimizer.JoinAlgorithm.HASH;
+    }
+
     public JoinPredicate getJoinPredicate() {
         return pred;
     }
@@ -50,57 +128,255 @@ public class HashEquiJoin extends Operator {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
     
-    HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
-    public final static int MAP_SIZE = 20000;
-
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
-        map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
-            ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
-            if (list == null) {
-                list = new ArrayList<Tuple>();
-                map.put(t1.getField(pred.getField1()), list);
+    /**
+     * Builds the hash table for the join: reads child1 once, hashing each
+     * tuple on its join field into one of numPartitions partitions, one
+     * per page of memory up to MAX_PARTITIONS. All partitions start in
+     * memory; whenever more than budget tuples are in memory, the largest
+     * partition still in memory is written to a TupleFile, and its later
+     * tuples go straight to that file.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+        long bytes = (long) memoryPages * BufferPool.getPageSize();
+        budget = (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+                bytes / child1.getTupleDesc().getSize()));
+        numPartitions = Math.max(2, Math.min(MAX_PARTITIONS, memoryPages));
+        tables = new ArrayList<TupleHashTable>(numPartitions);
+        for (int i = 0; i < numPartitions; i++)
+            tables.add(newTable());
+        buildFiles = new TupleFile[numPartitions];
+        probeFiles = new TupleFile[numPartitions];
+        spilled = false;
+
+        int[] counts = new int[numPartitions];
+        int resident = 0;
+        try {
+            while (child1.hasNext()) {
+                Tuple t1 = child1.next();
+                Field key = t1.getField(pred.getField1());
+                int p = partition(key);
+                counts[p]++;
+                if (buildFiles[p] != null) {
+                    buildFiles[p].add(t1);
+                    continue;
+                }
+                tables.get(p).add(key, t1);
+                if (++resident > budget)
+                    resident -= spillLargest(counts);
+            }
+        } catch (IOException e) {
+            throw new DbException("cannot spill join input: " + e);
+        }
+        probe = child2;
+        firstPass = true;
+        part = 0;
+    }
+
+    /**
+     * Writes the largest partition that is in memory to its build file.
+     * @return the number of tuples written
+     */
+    private int spillLargest(int[] counts) throws IOException {
+        int victim = -1;
+        for (int p = 0; p < numPartitions; p++) {
+            if (buildFiles[p] == null && (victim < 0 || counts[p] > counts[victim]))
+                victim = p;
+        }
+        TupleFile f = new TupleFile(child1.getTupleDesc());
+        tables.get(victim).writeTo(f);
+        buildFiles[victim] = f;
+        tables.set(victim, null);
+        spilled = true;
+        spilledPartitions++;
+        return counts[victim];
+    }
+
+    private TupleHashTable newTable() {
+        return new TupleHashTable(child1.getTupleDesc().getFieldType(pred.getField1()));
+    }
+
+    /**
+     * @return the partition of a join key. The hash is seeded with the
+     *     level, so that a partition that is partitioned again spreads
+     *     over the new partitions.
+     */
+    private int partition(Field key) {
+        int h = key.hashCode() + level * 0x9E3779B9;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return (h & Integer.MAX_VALUE) % numPartitions;
+    }
+
+    /**
+     * Moves on to the next spilled partition that has tuples on both
+     * sides. A partition that fits in memory is loaded and probed with its
+     * probe file; a bigger one is joined by a nested HashEquiJoin one level
+     * down, or, at MAX_LEVEL, in chunks of budget build tuples.
+     *
+     * @return false if there are no more partitions to join
+     */
+    private boolean nextPartition() throws DbException, TransactionAbortedException {
+        if (firstPass) {
+            firstPass = false;
+            // keep the table for rewind() if it holds the whole build side
+            if (spilled)
+                tables = null;
+        }
+        finishPartition();
+        while (part < numPartitions) {
+            TupleFile b = buildFiles[part];
+            TupleFile pr = probeFiles[part];
+            part++;
+            if (b == null)
+                continue;
+            if (pr == null) {
+                b.delete();
+                continue;
             }
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
+            curBuild = b;
+            curProbe = pr;
+            spilledBytes += b.getBytes() + pr.getBytes();
+            if (b.size() > budget && level < MAX_LEVEL) {
+                nested = new HashEquiJoin(pred, b.iterator(), pr.iterator(),
+                                          memoryPages, level + 1);
+                nested.open();
+            } else {
+                build = b.iterator();
+                build.open();
+                probe = pr.iterator();
+                probe.open();
+                loadChunk();
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /** Closes and deletes the files of the partition that was joined. */
+    private void finishPartition() {
+        if (nested != null) {
+            spilledPartitions += nested.getNumSpilledPartitions();
+            spilledBytes += nested.getSpilledBytes();
+            nested.close();
+            nested = null;
+        }
+        if (build != null) {
+            build.close();
+            build = null;
+        }
+        if (probe != null && probe != child2)
+            probe.close();
+        probe = null;
+        table = null;
+        if (curBuild != null) {
+            curBuild.delete();
+            curProbe.delete();
+            curBuild = null;
+            curProbe = null;
         }
-        return cnt > 0;
+    }
 
+    /** Loads the next budget tuples of the build file into table. */
+    private void loadChunk() throws DbException, TransactionAbortedException {
+        table = newTable();
+        for (int n = 0; n < budget && build.hasNext(); n++) {
+            Tuple t1 = build.next();
+            table.add(t1.getField(pred.getField1()), t1);
+        }
     }
 
+    /** Closes the partition being joined and deletes all spill files. */
+    private void release() {
+        finishPartition();
+        listIt = null;
+        t2 = null;
+        if (buildFiles != null) {
+            for (int p = 0; p < numPartitions; p++) {
+                if (buildFiles[p] != null)
+                    buildFiles[p].delete();
+                if (probeFiles[p] != null)
+                    probeFiles[p].delete();
+            }
+        }
+        buildFiles = null;
+        probeFiles = null;
+        tables = null;
+    }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        super.open();
+        spilledPartitions = 0;
+        spilledBytes = 0;
+        build();
     }
 
     public void close() {
         super.close();
+        release();
         child2.close();
         child1.close();
-        this.t1=null;
-        this.t2=null;
-        this.listIt=null;
-        this.map.clear();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        if (tables != null && !spilled) {
+            // the whole build side is still in memory
+            finishPartition();
+            listIt = null;
+            child2.rewind();
+            probe = child2;
+            firstPass = true;
+            return;
+        }
+        release();
         child1.rewind();
         child2.rewind();
+        build();
     }
 
-    transient Iterator<Tuple> listIt = null;
+    /**
+     * @return the number of partitions written to disk since the join was
+     *     opened, counting those of nested joins
+     */
+    public int getNumSpilledPartitions() {
+        return spilledPartitions;
+    }
+
+    /**
+     * @return the number of bytes written to disk since the join was
+     *     opened; each is also read back once
+     */
+    public long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        int td1n = t1.getTupleDesc().numFields();
+        int td2n = t2.getTupleDesc().numFields();
+
+        // set fields in combined tuple
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < td2n; i++)
+            t.setField(td1n + i, t2.getField(i));
+        return t;
+    }
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
      * more tuples. Logically, this is the next tuple in r1 cross r2 that
-     * satisfies the join predicate. There are many possible implementations;
-     * the simplest is a nested loops join.
+     * satisfies the join predicate.
+     * <p>
+     * The first pass streams child2 against the partitions that stayed in
+     * memory and writes its tuples of spilled partitions to their probe
+     * files. Then each spilled partition is joined on its own. Every input
+     * tuple is thus read once and, if it is spilled, written and read once
+     * more.
      * <p>
      * Note that the tuples returned from this particular implementation of Join
      * are simply the concatenation of joining tuples from the left and right
@@ -114,50 +390,45 @@ public class HashEquiJoin extends Operator {
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
-    private Tuple processList() throws TransactionAbortedException, DbException {
-        t1 = listIt.next();
-
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
-
-        // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
-        return t;
-
-    }
-
-
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
-        }
-
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
-
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
-                continue;
-            listIt = l.iterator();
-
-            return processList();
+        try {
+            while (true) {
+                if (listIt != null && listIt.hasNext())
+                    return merge(listIt.next(), t2);
+                listIt = null;
 
-        }
+                if (nested != null) {
+                    if (nested.hasNext())
+                        return nested.next();
+                } else if (probe != null && probe.hasNext()) {
+                    t2 = probe.next();
+                    Field key = t2.getField(pred.getField2());
+                    TupleHashTable m = table;
+                    if (firstPass) {
+                        int p = partition(key);
+                        if (buildFiles[p] != null) {
+                            if (probeFiles[p] == null)
+                                probeFiles[p] = new TupleFile(child2.getTupleDesc());
+                            probeFiles[p].add(t2);
+                            continue;
+                        }
+                        m = tables.get(p);
+                    }
+                    listIt = m.get(key);
+                    continue;
+                } else if (build != null && build.hasNext()) {
+                    // the partition is too big for memory: next chunk
+                    loadChunk();
+                    probe.rewind();
+                    continue;
+                }
 
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+                if (!nextPartition())
+                    return null;
+            }
+        } catch (IOException e) {
+            throw new DbException("cannot spill join input: " + e);
         }
-
-        return null;
     }
 
     @Override
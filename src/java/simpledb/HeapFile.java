@@ -1,6 +1,8 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -10,12 +12,23 @@ import java.util.*;
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
  * 
+ * <p>
+ * Pages are read and written with positional I/O on a single FileChannel
+ * that stays open until {@link #close} is called (the Catalog does this
+ * when it is cleared); a closed HeapFile reopens its channel on the next
+ * access.
+ * <p>
+ * Inserts look for room through the table's {@link FreeSpaceMap}, which
+ * is saved next to the table file when the file is closed.
+ * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
-public class HeapFile implements DbFile {
+public class HeapFile implements DbFile, Closeable {
         private File f;
         private TupleDesc td;
+        private FileChannel channel;
+        private FreeSpaceMap fsm;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -67,20 +80,17 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
-        int off = pid.pageNumber() * BufferPool.PAGE_SIZE;
+        long off = (long) pid.pageNumber() * BufferPool.PAGE_SIZE;
         byte[] data = new byte[BufferPool.PAGE_SIZE];
         try {
-                RandomAccessFile raf = new RandomAccessFile(this.f, "r");
-                raf.seek(off);
-
-                for (int i = 0; i < BufferPool.PAGE_SIZE; i++) {
-                        data[i] = raf.readByte();
+                ByteBuffer buf = ByteBuffer.wrap(data);
+                FileChannel ch = getChannel();
+                while (buf.hasRemaining()) {
+                        if (ch.read(buf, off + buf.position()) < 0)
+                                throw new IllegalArgumentException("page " + pid.pageNumber()
+                                        + " does not exist in " + f);
                 }
-
-                raf.close();
                 return new HeapPage((HeapPageId)pid, data);
-        } catch (FileNotFoundException e) {
-                throw new RuntimeException(e);
         } catch (IOException e) {
         	    throw new RuntimeException(e);
         }
@@ -90,15 +100,69 @@ public class HeapFile implements DbFile {
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
-        RandomAccessFile file = null;
-        byte[] bytes = page.getPageData();
-        try {
-                file = new RandomAccessFile(getFile(), "rw");
-                file.seek(page.getId().pageNumber() * BufferPool.PAGE_SIZE);
-                file.write(bytes);
-                file.close();
-        } catch (FileNotFoundException e) {
-                e.printStackTrace();
+        writePageData(page.getId().pageNumber(), page.getPageData());
+    }
+
+    /**
+     * Writes pages with consecutive page numbers, in order, with a single
+     * write.
+     */
+    void writePages(List<Page> pages) throws IOException {
+        if (pages.size() == 1) {
+            writePage(pages.get(0));
+            return;
+        }
+        int pageSize = BufferPool.getPageSize();
+        byte[] bytes = new byte[pages.size() * pageSize];
+        int first = pages.get(0).getId().pageNumber();
+        for (int i = 0; i < pages.size(); i++) {
+            if (pages.get(i).getId().pageNumber() != first + i)
+                throw new IllegalArgumentException("pages are not consecutive");
+            System.arraycopy(pages.get(i).getPageData(), 0, bytes, i * pageSize, pageSize);
+        }
+        writePageData(first, bytes);
+    }
+
+    /**
+     * Writes one page image at the position of page pgNo.
+     */
+    private void writePageData(int pgNo, byte[] bytes) throws IOException {
+        long off = (long) pgNo * BufferPool.PAGE_SIZE;
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        FileChannel ch = getChannel();
+        while (buf.hasRemaining())
+                ch.write(buf, off + buf.position());
+    }
+
+    /**
+     * Returns the open channel of the backing file, opening it if needed.
+     * The file is opened read-write if possible and read-only otherwise.
+     */
+    private synchronized FileChannel getChannel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+                RandomAccessFile raf;
+                try {
+                        raf = new RandomAccessFile(f, "rw");
+                } catch (FileNotFoundException e) {
+                        raf = new RandomAccessFile(f, "r");
+                }
+                channel = raf.getChannel();
+        }
+        return channel;
+    }
+
+    /**
+     * Closes the channel of the backing file. Pages already written are
+     * not forced to disk; the file is reopened on the next access.
+     */
+    public synchronized void close() throws IOException {
+        if (fsm != null) {
+                fsm.save();
+                fsm = null;
+        }
+        if (channel != null) {
+                channel.close();
+                channel = null;
         }
     }
 
@@ -122,34 +186,72 @@ public class HeapFile implements DbFile {
         }
 
         ArrayList<Page> pages = new ArrayList<Page>();
+        FreeSpaceMap fsm = getFreeSpaceMap();
 
-        //build list of pages
-        for (int i = 0; i < this.numPages(); i++) {
-                PageId pid = new HeapPageId(getId(), i);
-                HeapPage page = (HeapPage) pool.getPage(tid, pid, Permissions.READ_WRITE);
-                if (page.getNumEmptySlots() != 0) {
-                        page.insertTuple(t);
+        //try the pages the free-space map says may have room
+        int pgNo = fsm.nextCandidate(0);
+        while (pgNo >= 0) {
+                PageId pid = new HeapPageId(getId(), pgNo);
+                boolean locked = pool.holdsLock(tid, pid);
+                HeapPage page = insertInto(pool, tid, pid, t);
+                if (page != null) {
                         pages.add(page);
-                        break;
+                        fsm.setFree(pgNo, page.getNumEmptySlots() != 0);
+                        return pages;
                 }
+                fsm.setFree(pgNo, false);
+                //we only looked at the page, so don't keep it locked
+                if (!locked)
+                        pool.releasePage(tid, pid);
+                pgNo = fsm.nextCandidate(pgNo + 1);
         }
-        //if there are no pages, create page data
-        if (pages.isEmpty()) {
-                PageId pid = new HeapPageId(getId(), numPages());
-                try {
-                        byte[] b = HeapPage.createEmptyPageData();
-                        RandomAccessFile file = new RandomAccessFile(getFile(), "rw");
-                        file.seek(pid.pageNumber() * BufferPool.PAGE_SIZE);
-                        file.write(b);
-                        file.close();
-                } catch (FileNotFoundException e) {
-                        e.printStackTrace();
-                }
-                HeapPage page = (HeapPage) pool.getPage(tid, pid, Permissions.READ_WRITE);
+
+        //if there are no pages with room, append an empty page
+        PageId pid = appendEmptyPage();
+        HeapPage page = insertInto(pool, tid, pid, t);
+        if (page == null)
+                throw new DbException("new page " + pid + " is full");
+        pages.add(page);
+        fsm.setFree(pid.pageNumber(), page.getNumEmptySlots() != 0);
+        return pages;
+    }
+
+    /**
+     * Inserts t into page pid if it has room, with the page pinned in the
+     * pool while it changes.
+     * @return the page, or null if it is full
+     */
+    private HeapPage insertInto(BufferPool pool, TransactionId tid, PageId pid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        HeapPage page = (HeapPage) pool.pinPage(tid, pid, Permissions.READ_WRITE);
+        try {
+                if (page.getNumEmptySlots() == 0)
+                        return null;
                 page.insertTuple(t);
-                pages.add(page);
+                page.markDirty(true, tid);
+                return page;
+        } finally {
+                pool.unpinPage(pid);
         }
-        return pages;
+    }
+
+    /**
+     * Writes an empty page at the end of the file.
+     * @return the id of the new page
+     */
+    private synchronized PageId appendEmptyPage() throws IOException {
+        PageId pid = new HeapPageId(getId(), numPages());
+        writePageData(pid.pageNumber(), HeapPage.createEmptyPageData());
+        return pid;
+    }
+
+    /**
+     * Returns the free-space map of this table, loading it on first use.
+     */
+    synchronized FreeSpaceMap getFreeSpaceMap() {
+        if (fsm == null)
+                fsm = FreeSpaceMap.load(f, numPages());
+        return fsm;
     }
 
     // see DbFile.java for javadocs
@@ -162,8 +264,14 @@ public class HeapFile implements DbFile {
         BufferPool pool = Database.getBufferPool();
         PageId pid = t.getRecordId().getPageId();
 
-        HeapPage page = (HeapPage) pool.getPage(tid, pid, Permissions.READ_WRITE);
-        page.deleteTuple(t);
+        HeapPage page = (HeapPage) pool.pinPage(tid, pid, Permissions.READ_WRITE);
+        try {
+                page.deleteTuple(t);
+                page.markDirty(true, tid);
+        } finally {
+                pool.unpinPage(pid);
+        }
+        getFreeSpaceMap().setFree(pid.pageNumber(), true);
         ArrayList<Page> retList = new ArrayList<Page>();
         //add deleted page to return list
         retList.add(page);
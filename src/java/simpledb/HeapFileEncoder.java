@@ -2,6 +2,7 @@ package simpledb;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -9,6 +10,9 @@ import java.util.ArrayList;
  * pages of binary data in the appropriate format for simpledb heap pages
  * Pages are padded out to a specified length, and written consecutive in a
  * data file.
+ * <p>
+ * For large text files, {@link BulkLoader} does the same conversion on
+ * several threads.
  */
 
 public class HeapFileEncoder {
@@ -29,26 +33,32 @@ public class HeapFileEncoder {
    * @throws IOException if the temporary/output file can't be opened
    */
   public static void convert(ArrayList<ArrayList<Integer>> tuples, File outFile, int npagebytes, int numFields) throws IOException {
-      File tempInput = File.createTempFile("tempTable", ".txt");
-      tempInput.deleteOnExit();
-      BufferedWriter bw = new BufferedWriter(new FileWriter(tempInput));
+      Type[] ts = new Type[numFields];
+      Arrays.fill(ts, Type.INT_TYPE);
+      TupleDesc td = new TupleDesc(ts);
+      BulkLoader.PageEncoder enc = new BulkLoader.PageEncoder(td, npagebytes,
+              tuples.size() / BulkLoader.PageEncoder.slotsPerPage(td, npagebytes) + 1);
+      // encode the pages directly instead of going through a text file
       for (ArrayList<Integer> tuple : tuples) {
-          int writtenFields = 0;
+          if (tuple.size() > numFields) {
+              throw new RuntimeException("Tuple has more than " + numFields + " fields: (" +
+                      Utility.listToString(tuple) + ")");
+          }
+          int off = enc.nextSlot();
           for (Integer field : tuple) {
-              writtenFields++;
-              if (writtenFields > numFields) {
-                  throw new RuntimeException("Tuple has more than " + numFields + " fields: (" +
-                          Utility.listToString(tuple) + ")");
-              }
-              bw.write(String.valueOf(field));
-              if (writtenFields < numFields) {
-                  bw.write(',');
-              }
+              enc.getBuffer().putInt(off, field);
+              off += Type.INT_TYPE.getLen();
           }
-          bw.write('\n');
       }
-      bw.close();
-      convert(tempInput, outFile, npagebytes, numFields);
+      FileOutputStream os = new FileOutputStream(outFile);
+      try {
+          if (enc.getNumPages() == 0)
+              os.write(new byte[npagebytes]);
+          else
+              os.write(enc.getPages(), 0, enc.getNumPages() * npagebytes);
+      } finally {
+          os.close();
+      }
   }
 
       public static void convert(File inFile, File outFile, int npagebytes,
@@ -20,6 +20,8 @@ public class HeapFileIterator implements DbFileIterator {
 	BufferPool pool;
 	Iterator<Tuple> pageIterator;
 	boolean open;
+	// ring of private frames for scans over large tables, null otherwise
+	BufferAccessStrategy strategy;
 
 	/**
 	 * Create a new HeapFileIterator for a given DbFile and TransactionId
@@ -45,6 +47,7 @@ public class HeapFileIterator implements DbFileIterator {
 		open = false;
 		currentPage = null;
 		pageIterator = null;
+		strategy = null;
 
 	}
 
@@ -69,7 +72,7 @@ public class HeapFileIterator implements DbFileIterator {
 				return false;
 			}
 			currentPage = (HeapPage) pool.getPage(this.tid, new HeapPageId(file
-					.getId(), currentPageNumber), Permissions.READ_ONLY);
+					.getId(), currentPageNumber), Permissions.READ_ONLY, strategy);
 			pageIterator = currentPage.iterator();
 			return pageIterator.hasNext();
 
@@ -104,9 +107,13 @@ public class HeapFileIterator implements DbFileIterator {
 		if (open == true)
 			return;
 
+		// large tables are scanned through a small ring of frames so they
+		// don't flush the rest of the buffer pool
+		strategy = pool.getScanStrategy(numPages);
+
 		// was closed earlier so re-read current page
 		currentPage = (HeapPage) pool.getPage(this.tid, new HeapPageId(file
-				.getId(), currentPageNumber), Permissions.READ_ONLY);
+				.getId(), currentPageNumber), Permissions.READ_ONLY, strategy);
 		pageIterator = currentPage.iterator();
 		open = true;
 
@@ -126,7 +133,7 @@ public class HeapFileIterator implements DbFileIterator {
 		// iterator is open so rewind to page 0!
 		currentPageNumber = 0;
 		currentPage = (HeapPage) pool.getPage(this.tid, new HeapPageId(file
-				.getId(), currentPageNumber), Permissions.READ_ONLY);
+				.getId(), currentPageNumber), Permissions.READ_ONLY, strategy);
 		pageIterator = currentPage.iterator();
 
 	}
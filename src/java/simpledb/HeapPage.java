@@ -1,12 +1,20 @@
 package simpledb;
 
 import java.util.*;
-import java.math.BigInteger;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A page is not thread-safe. A page in the BufferPool is changed
+ * (insertTuple, deleteTuple) only while it is pinned with
+ * {@link BufferPool#pinPage}; the pool logs it, writes it and calls
+ * setBeforeImage only under the frame latch once no one has it pinned.
+ * Pinning and unpinning take that latch as well, so a change always sees
+ * the image and before image the last setBeforeImage left, and
+ * setBeforeImage never shares an image a change is still writing to.
  *
  * @see HeapFile
  * @see BufferPool
@@ -14,14 +22,37 @@ import java.io.*;
  */
 public class HeapPage implements Page {
 
+    /**
+     * Whether tuples are decoded lazily from the page image (the default):
+     * a slot becomes a Tuple only when it is read, and a field only when it
+     * is asked for. Start the JVM with -Dsimpledb.HeapPage.lazy=false to
+     * decode every tuple when the page is read instead.
+     */
+    public static final boolean LAZY_DECODING =
+        !"false".equals(System.getProperty("simpledb.HeapPage.lazy"));
+
     private final HeapPageId pid;
     private final TupleDesc td;
-    private final byte header[];
+    // the header as a bitmap, slot i being bit i%64 of word i/64
+    private final long used[];
+    private final int headerSize;
+    private int numEmptySlots;
     private final Tuple tuples[];
     private final int numSlots;
 
-    private byte[] oldData;
-    private final Byte oldDataLock=new Byte((byte)0);
+    // page image this page was read from; never written to
+    private final ByteBuffer data;
+    // private copy of the page image once the page has been modified, kept
+    // up to date by insertTuple/deleteTuple; null while data is current.
+    // Like imageShared, only changed by the pinning thread or under the
+    // frame latch with the page unpinned (see the class comment).
+    private byte[] image;
+    private ByteBuffer imageBuf;
+    // the before image refers to image, so copy it before the next change
+    private boolean imageShared;
+
+    private ByteBuffer oldData;
+    private final Object oldDataLock = new Object();
 
     private boolean dirty;
     private TransactionId dirtytid;
@@ -43,28 +74,52 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage straight from a buffer holding the page image, such
+     * as a slice of a memory-mapped table file, without copying the image
+     * into a byte array first. The layout is the one described in
+     * {@link #HeapPage(HeapPageId, byte[])}, starting at index 0 of the
+     * buffer; the buffer's position is ignored.
+     * <p>
+     * The page keeps decoding tuples from the buffer (see
+     * {@link #LAZY_DECODING}) and uses it as its before image, so the
+     * caller must not modify the buffer afterwards. Changes to the page go
+     * to a private copy of the image made on the first change.
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
+        this.data = data.isReadOnly() ? data : data.asReadOnlyBuffer();
+
+        // read the header into the slot bitmap; header byte k holds
+        // slots 8k..8k+7, lowest bit first, so it is byte k%8 of word k/8
+        headerSize = getHeaderSize();
+        used = new long[(numSlots + 63) >>> 6];
+        for (int k=0; k<headerSize; k++)
+            used[k >>> 3] |= (data.get(k) & 0xffL) << ((k & 7) << 3);
+        // ignore any stray bits past the last slot
+        if ((numSlots & 63) != 0)
+            used[used.length - 1] &= (1L << numSlots) - 1;
+        int usedSlots = 0;
+        for (long w : used)
+            usedSlots += Long.bitCount(w);
+        numEmptySlots = numSlots - usedSlots;
         
         tuples = new Tuple[numSlots];
-        try{
+        if (!LAZY_DECODING) {
             // allocate and read the actual records of this page
             for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+                tuples[i] = readTuple(i);
         }
-        dis.close();
 
-        setBeforeImage();
+        synchronized(oldDataLock)
+        {
+            oldData = this.data;
+        }
     }
 
     /** Retrieve the number of tuples on this page.
@@ -90,7 +145,7 @@ public class HeapPage implements Page {
         -- used by recovery */
     public HeapPage getBeforeImage(){
         try {
-            byte[] oldDataRef = null;
+            ByteBuffer oldDataRef = null;
             synchronized(oldDataLock)
             {
                 oldDataRef = oldData;
@@ -104,10 +159,21 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * Makes the current contents the before image. The before image shares
+     * the page image; the next change to the page copies it first. Must
+     * not be called while a change is under way, i.e. while the page is
+     * pinned in the BufferPool.
+     */
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        if (image == null) {
+            oldData = data;
+        } else {
+            oldData = imageBuf.asReadOnlyBuffer();
+            imageShared = true;
+        }
         }
     }
 
@@ -121,39 +187,83 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Suck up the tuple in slot slotId of the page image.
+     * @return the tuple, or null if the slot is empty
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
+    private Tuple readTuple(int slotId) {
+        if (!isSlotUsed(slotId))
             return null;
-        }
 
         // read fields in the tuple
         Tuple t = new Tuple(td);
         RecordId rid = new RecordId(pid, slotId);
         t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+        ByteBuffer in = currentImage();
+        int off = slotOffset(slotId);
+        for (int j=0; j<td.numFields(); j++) {
+            Type type = td.getFieldType(j);
+            t.setField(j, type.parse(in, off));
+            off += type.getLen();
         }
 
         return t;
     }
 
+    /**
+     * Returns the tuple in a slot that is or was used, creating it on first
+     * access as a tuple that decodes its fields from the page image.
+     */
+    private Tuple getTuple(int slotId) {
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            t = new Tuple(td, currentImage(), slotOffset(slotId));
+            t.setRecordId(new RecordId(pid, slotId));
+            tuples[slotId] = t;
+        }
+        return t;
+    }
+
+    /** @return the offset of slot slotId in the page image */
+    private int slotOffset(int slotId) {
+        return headerSize + slotId * td.getSize();
+    }
+
+    /** @return the buffer holding the current contents of this page */
+    private ByteBuffer currentImage() {
+        return (image == null) ? data : imageBuf;
+    }
+
+    /**
+     * Returns the page image for an in-place change, first copying it if
+     * the page has not been changed yet or the before image shares it.
+     */
+    private ByteBuffer writableImage() {
+        if (image == null || imageShared) {
+            byte[] copy = new byte[BufferPool.getPageSize()];
+            if (image != null) {
+                System.arraycopy(image, 0, copy, 0, copy.length);
+            } else {
+                ByteBuffer in = data.duplicate();
+                in.clear();
+                in.get(copy, 0, Math.min(copy.length, in.remaining()));
+            }
+            image = copy;
+            imageBuf = ByteBuffer.wrap(copy);
+            imageShared = false;
+        }
+        return imageBuf;
+    }
+
+    /**
+     * Makes the cached tuple of a slot independent of the page image before
+     * the slot's bytes are overwritten.
+     */
+    private void detachTuple(int slotId) {
+        Tuple t = tuples[slotId];
+        if (t != null)
+            t.decodeAll();
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -161,69 +271,21 @@ public class HeapPage implements Page {
      * The invariant here is that it should be possible to pass the byte
      * array generated by getPageData to the HeapPage constructor and
      * have it produce an identical HeapPage object.
+     * <p>
+     * The page image is kept up to date as tuples are inserted and
+     * deleted, so this is a single copy of it.
      *
      * @see #HeapPage
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        if (image != null)
+            return image.clone();
+        byte[] copy = new byte[BufferPool.getPageSize()];
+        ByteBuffer in = data.duplicate();
+        in.clear();
+        in.get(copy, 0, Math.min(copy.length, in.remaining()));
+        return copy;
     }
 
     /**
@@ -253,8 +315,14 @@ public class HeapPage implements Page {
         if (!isSlotUsed(t.getRecordId().tupleno()) || !t.getRecordId().getPageId().equals(pid)) {
                 throw new DbException("Tuple is not in the page");
         }
-        //unmark slot and set to null
-        markSlotUsed(t.getRecordId().tupleno(), false);
+        //unmark slot and clear its bytes
+        int slot = t.getRecordId().tupleno();
+        ByteBuffer out = writableImage();
+        detachTuple(slot);
+        int off = slotOffset(slot);
+        for (int i = 0; i < td.getSize(); i++)
+            out.put(off + i, (byte) 0);
+        markSlotUsed(slot, false);
         t.setRecordId(new RecordId(null, 0));
     }
 
@@ -271,17 +339,33 @@ public class HeapPage implements Page {
         if (getNumEmptySlots() == 0 || !td.equals(t.getTupleDesc())) {
                 throw new DbException("Page is full or tuple is not compatible");
         }
-        for (int i = 0; i < numSlots; i++) {
-                //if slot isn't used
-                if (!isSlotUsed(i)) {
-                        RecordId newRecord = new RecordId(this.pid, 1);
-                        //mark slot used and set the record
-                        markSlotUsed(i, true);
-                        t.setRecordId(newRecord);
-                        tuples[i] = t;
-                        break;
+        int i = firstEmptySlot();
+        //write the tuple into the page image
+        ByteBuffer out = writableImage();
+        detachTuple(i);
+        int off = slotOffset(i);
+        for (int j = 0; j < td.numFields(); j++) {
+                Type type = td.getFieldType(j);
+                type.serialize(t.getField(j), out, off);
+                off += type.getLen();
+        }
+        //mark slot used and set the record
+        markSlotUsed(i, true);
+        t.setRecordId(new RecordId(this.pid, i));
+        tuples[i] = t;
+    }
+
+    /**
+     * @return the lowest empty slot, or -1 if the page is full
+     */
+    private int firstEmptySlot() {
+        for (int w = 0; w < used.length; w++) {
+                if (used[w] != -1L) {
+                        int i = (w << 6) + Long.numberOfTrailingZeros(~used[w]);
+                        return (i < numSlots) ? i : -1;
                 }
         }
+        return -1;
     }
 
     /**
@@ -310,62 +394,37 @@ public class HeapPage implements Page {
      * Returns the number of empty slots on this page.
      */
     public int getNumEmptySlots() {
-        // some code goes here
-        int bitCounter = 0;
-        int emptySlots = 0;
-        
-        //check the byte in the header
-        for(int i = 0; i < header.length; i++)
-        {
-        	byte[] byteToCheck = new byte[] {header[i]};
-        	BigInteger bi = new BigInteger(byteToCheck);
-        	
-        	//check the bits in the byte
-        	//8 represents the number of bits
-        	for(int k = 0; k < 8; k++)
-        	{
-        		if(bitCounter < numSlots && !bi.testBit(k))
-        		{
-        			emptySlots++;
-        			bitCounter++;
-        		}
-        	}
-        }
-        return emptySlots;
+        return numEmptySlots;
     }
 
     /**
      * Returns true if associated slot on this page is filled.
      */
     public boolean isSlotUsed(int i) {
-        // some code goes here
-        if(i < 0 || i > this.numSlots) {
+        if(i < 0 || i >= this.numSlots) {
         	//invalid index
         	throw new IllegalArgumentException("Slot checked is out of bound");
         }
-        
-        //index of byte in header
-        int byteIndex = (int)Math.floor(i/8.0);
-        int bitIndex = i % 8;
-        byte byteWithSlot = header[byteIndex];
-        byte[] b = new byte[] { byteWithSlot }; 
-        
-        BigInteger bi = new BigInteger(b);
-        return bi.testBit(bitIndex);
+        return (used[i >>> 6] & (1L << i)) != 0;
     }
 
     /**
      * Abstraction to fill or clear a slot on this page.
      */
     private void markSlotUsed(int i, boolean value) {
-        // some code goes here
-        // not necessary for lab1
-        
+        long bit = 1L << i;
+        if (((used[i >>> 6] & bit) != 0) == value)
+                return;
         if (value) {
-                header[i/8] |= (byte)(1 << i % 8);
+                used[i >>> 6] |= bit;
+                numEmptySlots--;
         } else {
-                header[i/8] &= (byte) ~(1 << i % 8);
+                used[i >>> 6] &= ~bit;
+                numEmptySlots++;
         }
+        //write the header byte holding the slot back to the page image
+        int k = i >>> 3;
+        writableImage().put(k, (byte) (used[k >>> 3] >>> ((k & 7) << 3)));
     }
 
     /**
@@ -374,38 +433,32 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-        List<Tuple> filledSlots = new ArrayList<Tuple>();
-        for(int i = 0; i < tuples.length; i++)
-        {
-        	if(isSlotUsed(i))
-        	{
-        		filledSlots.add(tuples[i]);
-        	}
-        }
-        return new HeapPageTupleIterator<Tuple>(filledSlots);
+        return new HeapPageTupleIterator();
     }
     
-    private class HeapPageTupleIterator<Tuple> implements Iterator<Tuple>
+    /**
+     * Iterates over the slots that were in use when the iterator was
+     * created; tuples are created as the iterator reaches them.
+     */
+    private class HeapPageTupleIterator implements Iterator<Tuple>
     {
-    	//Tuples in the heap page
-    	private List<Tuple> filledSlots;
-    	private Iterator<Tuple> i;
-    	
-    	public HeapPageTupleIterator(List<Tuple> filledSlots)
-    	{
-    		this.filledSlots = filledSlots;
-    		i = filledSlots.iterator();
-    	}
+    	//slots in use at creation time
+    	private final BitSet used = BitSet.valueOf(HeapPage.this.used);
+    	private int next = used.nextSetBit(0);
     	
     	@Override
     	public boolean hasNext()
     	{
-    		return i.hasNext();
+    		return next >= 0;
     	}
     	@Override
     	public Tuple next()
     	{
-    		return i.next();
+    		if (next < 0)
+    			throw new NoSuchElementException();
+    		Tuple t = getTuple(next);
+    		next = used.nextSetBit(next + 1);
+    		return t;
     	}
     	@Override
     	public void remove()
@@ -414,4 +467,3 @@ public class HeapPage implements Page {
     	}
     }
 }
-
@@ -0,0 +1,135 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * IntHashTable is a hash table keyed on primitive ints, for operators that
+ * hash on an INT_TYPE column. Each key added gets a dense id, 0 for the
+ * first, 1 for the next and so on, and the entry for an id holds a fixed
+ * number of int columns that the caller uses for its own state, such as a
+ * running sum and count or the head of a list of tuples.
+ * <p>
+ * Everything is kept in flat int arrays: an open-addressing table with
+ * linear probing that holds the keys next to their ids, and the keys and
+ * columns by id. Nothing is boxed and there is no object per entry, so a
+ * lookup touches one or two cache lines and an entry costs a few ints.
+ *
+ * @see TupleHashTable
+ * @see IntegerAggregator
+ */
+class IntHashTable {
+
+    /** The table is grown once it is this full. */
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final int columns;
+
+    // slot i holds key slotKeys[i] with id slotIds[i] - 1; 0 is empty
+    private int[] slotKeys;
+    private int[] slotIds;
+    private int mask;
+
+    private int[] keys;
+    private int[] values;
+    private int size = 0;
+
+    /**
+     * Creates an empty table.
+     * @param columns the number of int columns of each entry
+     * @param expected the number of keys to make room for
+     */
+    IntHashTable(int columns, int expected) {
+        this.columns = columns;
+        int slots = 16;
+        while (slots * LOAD_FACTOR < expected)
+            slots *= 2;
+        slotKeys = new int[slots];
+        slotIds = new int[slots];
+        mask = slots - 1;
+        int n = Math.max(expected, 8);
+        keys = new int[n];
+        values = new int[n * columns];
+    }
+
+    /** Creates an empty table with room for a few keys. */
+    IntHashTable(int columns) {
+        this(columns, 8);
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /** @return the id of key, or -1 if it was not added */
+    int find(int key) {
+        int i = hash(key) & mask;
+        while (slotIds[i] != 0) {
+            if (slotKeys[i] == key)
+                return slotIds[i] - 1;
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Adds key if it is not in the table yet; its columns start at 0.
+     * @return the id of key, which is the old size() if it was added
+     */
+    int add(int key) {
+        int i = hash(key) & mask;
+        while (slotIds[i] != 0) {
+            if (slotKeys[i] == key)
+                return slotIds[i] - 1;
+            i = (i + 1) & mask;
+        }
+        int id = size++;
+        slotKeys[i] = key;
+        slotIds[i] = id + 1;
+        if (id == keys.length) {
+            keys = Arrays.copyOf(keys, id * 2);
+            values = Arrays.copyOf(values, id * 2 * columns);
+        }
+        keys[id] = key;
+        if (size > slotIds.length * LOAD_FACTOR)
+            grow();
+        return id;
+    }
+
+    private void grow() {
+        int[] oldKeys = slotKeys;
+        int[] oldIds = slotIds;
+        slotKeys = new int[oldKeys.length * 2];
+        slotIds = new int[oldIds.length * 2];
+        mask = slotIds.length - 1;
+        for (int j = 0; j < oldIds.length; j++) {
+            if (oldIds[j] == 0)
+                continue;
+            int i = hash(oldKeys[j]) & mask;
+            while (slotIds[i] != 0)
+                i = (i + 1) & mask;
+            slotKeys[i] = oldKeys[j];
+            slotIds[i] = oldIds[j];
+        }
+    }
+
+    /** @return the number of keys added */
+    int size() {
+        return size;
+    }
+
+    /** @return the key with the given id */
+    int keyAt(int id) {
+        return keys[id];
+    }
+
+    /** @return the value of column of the entry with the given id */
+    int get(int id, int column) {
+        return values[id * columns + column];
+    }
+
+    /** Sets column of the entry with the given id to value. */
+    void set(int id, int column, int value) {
+        values[id * columns + column] = value;
+    }
+}
@@ -17,6 +17,11 @@ public class IntegerAggregator implements Aggregator {
     //count of aggregate (for AVG and COUNT)
     private Map<Object, Integer> aggregatesCount;
 
+    //groups of an INT_TYPE group-by field, with their aggregate and count
+    private IntHashTable intGroups = null;
+    private static final int AGG_COLUMN = 0;
+    private static final int COUNT_COLUMN = 1;
+
     //Field for no grouping
     private IntField no_grouping;
     //count for no grouping
@@ -79,10 +84,11 @@ public class IntegerAggregator implements Aggregator {
 
         if (gbfield != NO_GROUPING) {
                 if (gbfieldtype == Type.INT_TYPE) {
-                        groupByField = new Integer(((IntField)tup.getField(gbfield)).getValue());
-                } else if (gbfieldtype == Type.STRING_TYPE) {
-                        groupByField = ((StringField) tup.getField(gbfield)).getValue();
+                        mergeIntGroup(((IntField) tup.getField(gbfield)).getValue(),
+                                      ((IntField) tup.getField(afield)).getValue());
+                        return;
                 }
+                groupByField = ((StringField) tup.getField(gbfield)).getValue();
 
                 int val = ((IntField) tup.getField(afield)).getValue();
                 Integer aggregate_value = aggregates.get(groupByField);
@@ -159,6 +165,41 @@ public class IntegerAggregator implements Aggregator {
 
     }
 
+    /**
+     * Merges val into the group of an INT_TYPE group-by value. The groups
+     * live in an IntHashTable rather than the maps, so that a group costs
+     * a few ints instead of boxed keys, values and map entries.
+     */
+    private void mergeIntGroup(int group, int val) {
+        if (intGroups == null)
+            intGroups = new IntHashTable(2);
+        int n = intGroups.size();
+        int g = intGroups.add(group);
+        int groupCount = intGroups.get(g, COUNT_COLUMN) + 1;
+        int agg = intGroups.get(g, AGG_COLUMN);
+        switch (what) {
+        case MIN:
+            if (g == n || val < agg)
+                agg = val;
+            break;
+        case MAX:
+            if (g == n || val > agg)
+                agg = val;
+            break;
+        case SUM:
+        case AVG:
+            agg += val;
+            break;
+        case COUNT:
+            agg = groupCount;
+            break;
+        default:
+            break;
+        }
+        intGroups.set(g, AGG_COLUMN, agg);
+        intGroups.set(g, COUNT_COLUMN, groupCount);
+    }
+
     //creates list of tuples that store the results of the specified operator
     private ArrayList<Tuple> createTupleList() {
             ArrayList<Tuple> tupleList = new ArrayList<Tuple>();
@@ -177,6 +218,15 @@ public class IntegerAggregator implements Aggregator {
                     TupleDesc td = new TupleDesc(new Type[] { gbfieldtype, Type.INT_TYPE},
                                     new String[] {gbfield_name, aggregate_name});
                     this.tupleDesc = td;
+                    for (int g = 0; intGroups != null && g < intGroups.size(); g++) {
+                            int aggVal = intGroups.get(g, AGG_COLUMN);
+                            if (what == Aggregator.Op.AVG)
+                                    aggVal /= intGroups.get(g, COUNT_COLUMN);
+                            Tuple tuple = new Tuple(tupleDesc);
+                            tuple.setField(0, new IntField(intGroups.keyAt(g)));
+                            tuple.setField(1, new IntField(aggVal));
+                            tupleList.add(tuple);
+                    }
                     for (Map.Entry<Object, Integer> entry : aggregates.entrySet()) {
                             Tuple tuple = new Tuple(tupleDesc);
                             int aggVal = 0;
@@ -198,11 +248,7 @@ public class IntegerAggregator implements Aggregator {
                                                      break;
                                     }
                             }
-                            if (gbfieldtype == Type.INT_TYPE) {
-                                    tuple.setField(0, new IntField((Integer) entry.getKey()));
-                            } else if (gbfieldtype == Type.STRING_TYPE) {
-                                    tuple.setField(0, new StringField((String)entry.getKey(), Type.STRING_TYPE.getLen()));
-                            }
+                            tuple.setField(0, new StringField((String)entry.getKey(), Type.STRING_TYPE.getLen()));
                             tuple.setField(1, new IntField(aggVal));
                             tupleList.add(tuple);
                     }
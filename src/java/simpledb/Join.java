@@ -3,16 +3,38 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The Join operator implements the relational join operation with a block
+ * nested loop: it reads child1 a block at a time, as many tuples as fit in
+ * its memory, and scans child2 once per block. For an equality predicate
+ * the block is hashed on its join field, so each child2 tuple costs a
+ * lookup rather than a comparison with every tuple of the block.
  */
 public class Join extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /**
+     * Default memory for a block of child1 tuples, in pages; set it with
+     * the system property simpledb.Join.memoryPages.
+     */
+    public static final int DEFAULT_MEMORY_PAGES =
+        Integer.getInteger("simpledb.Join.memoryPages", 64);
+
     private JoinPredicate p;
     private DbIterator child1;
     private DbIterator child2;
-    //Tuple from last iteration
-    private Tuple prevCh1Tuple = null;
+    private TupleDesc comboTD;
+    private int memoryPages = DEFAULT_MEMORY_PAGES;
+
+    // the block of child1 tuples, hashed for equality
+    transient private ArrayList<Tuple> block = null;
+    transient private TupleHashTable blockTable = null;
+    transient private boolean innerFresh;
+    transient private int blocks;
+    // the current child2 tuple and where its matches in the block are
+    transient private Tuple t2 = null;
+    transient private int blockIndex;
+    transient private Iterator<Tuple> matches = null;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -30,6 +52,42 @@ public class Join extends Operator {
         this.p = p;
         this.child1 = child1;
         this.child2 = child2;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * Sets the memory for a block of child1 tuples; child2 is scanned once
+     * per block. Takes effect at the next open() or rewind().
+     *
+     * @param memoryPages the memory in pages of BufferPool.getPageSize()
+     */
+    public void setMemoryPages(int memoryPages) {
+        if (memoryPages < 1)
+            throw new IllegalArgumentException("join needs at least one page of memory");
+        this.memoryPages = memoryPages;
+    }
+
+    public int getMemoryPages() {
+        return memoryPages;
+    }
+
+    /**
+     * @return the number of child1 tuples that fit in a block of
+     *     memoryPages pages
+     */
+    static int blockTuples(TupleDesc td, int memoryPages) {
+        long bytes = (long) memoryPages * BufferPool.getPageSize();
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, bytes / td.getSize()));
+    }
+
+    /** @return the number of blocks, and so scans of child2, since open() */
+    int getNumBlocks() {
+        return blocks;
+    }
+
+    /** @return the algorithm this operator runs a join with */
+    public JoinOptimizer.JoinAlgorithm getAlgorithm() {
+        return JoinOptimizer.JoinAlgorithm.BLOCK_NESTED_LOOP;
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -67,7 +125,7 @@ public class Join extends Operator {
     public TupleDesc getTupleDesc() {
         // some code goes here
         //return null;
-        return TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        return comboTD;
     }
 
     public void open() throws DbException, NoSuchElementException,
@@ -76,6 +134,16 @@ public class Join extends Operator {
         child1.open();
         child2.open();
         super.open();
+        reset();
+    }
+
+    private void reset() {
+        block = new ArrayList<Tuple>();
+        blockTable = null;
+        innerFresh = true;
+        blocks = 0;
+        t2 = null;
+        matches = null;
     }
 
     public void close() {
@@ -83,12 +151,17 @@ public class Join extends Operator {
         child1.close();
         child2.close();
         super.close();
+        block = null;
+        blockTable = null;
+        t2 = null;
+        matches = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
         child1.rewind();
         child2.rewind();
+        reset();
     }
 
     /**
@@ -110,43 +183,71 @@ public class Join extends Operator {
      * @see JoinPredicate#filter
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        // some code goes here
-        //return null;
-        //loop through child 1 tuples
-        while (child1.hasNext() || prevCh1Tuple != null) {
-                if (prevCh1Tuple != null) {
-                        //loop through child 2 tuples
-                        while (child2.hasNext()) {
-                                Tuple child2Tuple = child2.next();
-                                //if the predicate applies to the two tuples
-                                if (p.filter(prevCh1Tuple, child2Tuple)) {
-                                        //create a tuple that merges the two
-                                        Tuple merged = new Tuple(getTupleDesc());
-                                        int child1_numfields = prevCh1Tuple.getTupleDesc().numFields();
-                                        int child2_numfields =  child2Tuple.getTupleDesc().numFields();
-                                        //set the fields for the first child
-                                        for (int i = 0; i < child1_numfields; i++) {
-                                                merged.setField(i, prevCh1Tuple.getField(i));
-                                        }
-                                        //set the fields for the second child after
-                                        for (int i = 0; i < child2_numfields; i++) {
-                                                merged.setField(i+child1_numfields, child2Tuple.getField(i));
-                                        }
-                                        //return the merged tuple
-                                        return merged;
-                                }
-                        }
-                        //if run out of child2 tuples, rewind so we can check next child1 tuple
-                        child2.rewind();
-                }                
-                //set child 1 to the next child
-                if (child1.hasNext()) {
-                       prevCh1Tuple = child1.next(); 
+        while (true) {
+            if (t2 != null) {
+                if (blockTable != null) {
+                    if (matches != null && matches.hasNext())
+                        return merge(matches.next(), t2);
                 } else {
-                        break;
+                    while (blockIndex < block.size()) {
+                        Tuple t1 = block.get(blockIndex++);
+                        if (p.filter(t1, t2))
+                            return merge(t1, t2);
+                    }
                 }
-        }        
-        return null;
+                t2 = null;
+            }
+            if (!block.isEmpty() && child2.hasNext()) {
+                t2 = child2.next();
+                blockIndex = 0;
+                if (blockTable != null)
+                    matches = blockTable.get(t2.getField(p.getField2()));
+                continue;
+            }
+            if (!loadBlock())
+                return null;
+        }
+    }
+
+    /**
+     * Reads the next block of child1 tuples and rewinds child2 for it.
+     * @return false if child1 is exhausted
+     */
+    private boolean loadBlock() throws TransactionAbortedException, DbException {
+        TupleDesc td1 = child1.getTupleDesc();
+        int max = blockTuples(td1, memoryPages);
+        block.clear();
+        blockTable = (p.getOperator() == Predicate.Op.EQUALS)
+            ? new TupleHashTable(td1.getFieldType(p.getField1())) : null;
+        while (block.size() < max && child1.hasNext()) {
+            Tuple t1 = child1.next();
+            block.add(t1);
+            if (blockTable != null)
+                blockTable.add(t1.getField(p.getField1()), t1);
+        }
+        if (block.isEmpty())
+            return false;
+        if (!innerFresh)
+            child2.rewind();
+        innerFresh = false;
+        blocks++;
+        return true;
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        //create a tuple that merges the two
+        Tuple merged = new Tuple(comboTD);
+        int child1_numfields = t1.getTupleDesc().numFields();
+        int child2_numfields = t2.getTupleDesc().numFields();
+        //set the fields for the first child
+        for (int i = 0; i < child1_numfields; i++) {
+                merged.setField(i, t1.getField(i));
+        }
+        //set the fields for the second child after
+        for (int i = 0; i < child2_numfields; i++) {
+                merged.setField(i+child1_numfields, t2.getField(i));
+        }
+        return merged;
     }
 
     @Override
@@ -161,6 +262,7 @@ public class Join extends Operator {
         // some code goes here
         child1 = children[0];
         child2 = children[1];
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
 }
@@ -27,6 +27,54 @@ public class JoinOptimizer {
         this.joins = joins;
     }
 
+    /** The physical algorithms the optimizer chooses between for a join. */
+    public static enum JoinAlgorithm {
+        /**
+         * A {@link Join}, which scans the inner input once per block of the
+         * outer input; a plain nested loop when the outer input fits in one.
+         */
+        BLOCK_NESTED_LOOP("block nested loop"),
+        /** A {@link HashEquiJoin}; equality only. */
+        HASH("hash"),
+        /** A {@link SortMergeJoin}; equality and band predicates. */
+        SORT_MERGE("sort-merge");
+
+        private final String name;
+
+        private JoinAlgorithm(String name) {
+            this.name = name;
+        }
+
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * The memory each join may use, in pages, which its cost is estimated
+     * with and the operator chosen for it is given; set it with the system
+     * property simpledb.JoinOptimizer.memoryPages.
+     */
+    public static final int DEFAULT_MEMORY_PAGES =
+        Integer.getInteger("simpledb.JoinOptimizer.memoryPages", 256);
+
+    /** The fraction of pairs of tuples a range predicate is taken to match. */
+    static final double RANGE_SELECTIVITY = 0.3;
+
+    /** The width assumed for the tuples of a table that is not in the plan. */
+    private static final int DEFAULT_TUPLE_WIDTH = 64;
+
+    /**
+     * Return an iterator for computing a given logical join when nothing
+     * is known about the size of its inputs.
+     *
+     * @see #instantiateJoin(LogicalJoinNode, DbIterator, DbIterator, int, int)
+     */
+    public static DbIterator instantiateJoin(LogicalJoinNode lj,
+            DbIterator plan1, DbIterator plan2) throws ParsingException {
+        return instantiateJoin(lj, plan1, plan2, -1, -1);
+    }
+
     /**
      * Return best iterator for computing a given logical join, given the
      * specified statistics, and the provided left and right subplans. Note that
@@ -41,9 +89,14 @@ public class JoinOptimizer {
      *            The left join node's child
      * @param plan2
      *            The right join node's child
+     * @param card1
+     *            Estimated cardinality of plan1, or -1 if unknown
+     * @param card2
+     *            Estimated cardinality of plan2, or -1 if unknown
      */
     public static DbIterator instantiateJoin(LogicalJoinNode lj,
-            DbIterator plan1, DbIterator plan2) throws ParsingException {
+            DbIterator plan1, DbIterator plan2, int card1, int card2)
+            throws ParsingException {
 
         int t1id = 0, t2id = 0;
         DbIterator j;
@@ -68,7 +121,31 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        // the algorithm orderJoins chose, or the cheapest for the given sizes
+        JoinAlgorithm a = lj.algorithm;
+        if (a == null && card1 >= 0 && card2 >= 0
+                && !(lj instanceof LogicalSubplanJoinNode)) {
+            int width1 = plan1.getTupleDesc().getSize();
+            int width2 = plan2.getTupleDesc().getSize();
+            a = chooseJoinAlgorithm(lj.p, card1, card2,
+                    pages(card1, width1) * TableStats.IOCOSTPERPAGE,
+                    pages(card2, width2) * TableStats.IOCOSTPERPAGE,
+                    width1, width2, DEFAULT_MEMORY_PAGES);
+        }
+
+        if (a == JoinAlgorithm.HASH) {
+            HashEquiJoin hj = new HashEquiJoin(p, plan1, plan2);
+            hj.setMemoryPages(DEFAULT_MEMORY_PAGES);
+            j = hj;
+        } else if (a == JoinAlgorithm.SORT_MERGE) {
+            SortMergeJoin smj = new SortMergeJoin(p, plan1, plan2);
+            smj.setMemoryPages(DEFAULT_MEMORY_PAGES);
+            j = smj;
+        } else {
+            Join nlj = new Join(p,plan1,plan2);
+            nlj.setMemoryPages(DEFAULT_MEMORY_PAGES);
+            j = nlj;
+        }
 
         return j;
 
@@ -102,19 +179,138 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2,
+                tupleWidth(j.t1Alias), tupleWidth(j.t2Alias));
+    }
+
+    /**
+     * Estimate the cost of a join whose inputs have tuples of width1 and
+     * width2 bytes, run with the cheapest algorithm for it.
+     *
+     * @see #chooseJoinAlgorithm
+     */
+    private double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, int width1, int width2) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Project 3.
             return card1 + cost1 + cost2;
         } else {
-            // some code goes here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic nested-loops
-            // join.
-            
-            return cost1 + ((double) card1 * cost2) + ((double) card1 * card2);
-            //return -1.0;
+            JoinAlgorithm a = chooseJoinAlgorithm(j.p, card1, card2, cost1,
+                    cost2, width1, width2, DEFAULT_MEMORY_PAGES);
+            return estimateJoinCost(a, j.p, card1, card2, cost1, cost2,
+                    width1, width2, DEFAULT_MEMORY_PAGES);
+        }
+    }
+
+    /**
+     * Return the cheapest algorithm for a join. The block nested loop works
+     * for any predicate and comes first when costs tie, since it keeps
+     * nothing but a block of the outer input in memory.
+     *
+     * @param op
+     *            the join predicate
+     * @param card1
+     *            estimated cardinality of the outer input
+     * @param card2
+     *            estimated cardinality of the inner input
+     * @param cost1
+     *            estimated cost of one scan of the outer input
+     * @param cost2
+     *            estimated cost of one scan of the inner input
+     * @param width1
+     *            bytes in a tuple of the outer input
+     * @param width2
+     *            bytes in a tuple of the inner input
+     * @param memoryPages
+     *            the memory the join may use, in pages
+     */
+    static JoinAlgorithm chooseJoinAlgorithm(Predicate.Op op, int card1,
+            int card2, double cost1, double cost2, int width1, int width2,
+            int memoryPages) {
+        JoinAlgorithm best = null;
+        double bestCost = Double.MAX_VALUE;
+        for (JoinAlgorithm a : JoinAlgorithm.values()) {
+            if ((a == JoinAlgorithm.HASH && op != Predicate.Op.EQUALS)
+                    || (a == JoinAlgorithm.SORT_MERGE && !SortMergeJoin.supports(op)))
+                continue;
+            double cost = estimateJoinCost(a, op, card1, card2, cost1, cost2,
+                    width1, width2, memoryPages);
+            if (cost < bestCost) {
+                best = a;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Estimate the cost of a join run with algorithm a. As for the scan
+     * costs, a predicate evaluation, hash or comparison costs 1; a page
+     * written to a temporary file and read back costs twice
+     * {@link TableStats#IOCOSTPERPAGE}.
+     *
+     * @see #chooseJoinAlgorithm
+     */
+    static double estimateJoinCost(JoinAlgorithm a, Predicate.Op op,
+            int card1, int card2, double cost1, double cost2, int width1,
+            int width2, int memoryPages) {
+        double c1 = card1, c2 = card2;
+        boolean equality = op == Predicate.Op.EQUALS;
+        switch (a) {
+        case BLOCK_NESTED_LOOP: {
+            // the inner input is scanned once per block; for equality each
+            // block is hashed and each inner tuple looked up
+            double blocks = Math.max(1, Math.ceil(c1 / memoryTuples(width1, memoryPages)));
+            double cpu = equality ? c1 + blocks * c2 : c1 * c2;
+            return cost1 + blocks * cost2 + cpu;
         }
+        case HASH: {
+            // the fraction of both inputs that does not fit is partitioned
+            // to disk and read back
+            double spilled = Math.max(0, 1 - memoryTuples(width1, memoryPages) / c1);
+            return cost1 + cost2 + (1 + spilled) * (c1 + c2)
+                + spilled * spillCost(pages(c1, width1) + pages(c2, width2));
+        }
+        case SORT_MERGE: {
+            double merge = equality ? c1 + c2 : c1 + c2 + RANGE_SELECTIVITY * c1 * c2;
+            return cost1 + cost2 + sortCost(c1, width1, memoryPages / 2)
+                + sortCost(c2, width2, memoryPages / 2) + merge;
+        }
+        default:
+            throw new IllegalArgumentException("unknown join algorithm " + a);
+        }
+    }
+
+    /** @return the number of tuples of width bytes that fit in memoryPages */
+    private static double memoryTuples(int width, int memoryPages) {
+        return Math.max(1.0, (double) memoryPages * BufferPool.getPageSize()
+                / Math.max(1, width));
+    }
+
+    /** @return the number of pages card tuples of width bytes fill */
+    private static double pages(double card, int width) {
+        return Math.ceil(card * Math.max(1, width) / BufferPool.getPageSize());
+    }
+
+    /** @return the cost of writing pages to a temporary file and reading them back */
+    private static double spillCost(double pages) {
+        return 2 * pages * TableStats.IOCOSTPERPAGE;
+    }
+
+    /**
+     * @return the cost of an {@link ExternalSort} of card tuples of width
+     *     bytes in memoryPages: the comparisons, and a write and read of
+     *     every tuple per pass over runs that do not fit in memory
+     */
+    private static double sortCost(double card, int width, int memoryPages) {
+        memoryPages = Math.max(3, memoryPages);
+        double cpu = card * Math.log(Math.max(2, card)) / Math.log(2);
+        double runs = Math.ceil(card / memoryTuples(width, memoryPages));
+        if (runs <= 1)
+            return cpu;
+        double passes = Math.ceil(Math.log(runs) / Math.log(memoryPages - 1));
+        return cpu + Math.max(1, passes) * spillCost(pages(card, width));
     }
 
     /**
@@ -180,7 +376,7 @@ public class JoinOptimizer {
                         }
                 }
         } else {
-                int estCard = (int)(card1 * card2 * 0.3);
+                int estCard = (int)(card1 * card2 * RANGE_SELECTIVITY);
                 int maxCard = 0;
                 if (card1 > card2) {
                         maxCard = card1;
@@ -290,6 +486,9 @@ public class JoinOptimizer {
     	if (explain) {
     		printJoins(joins, mincostjoin, stats, filterSelectivities);
     	}
+    	// a query over one table has no joins to order
+    	if (joins.isEmpty())
+    		return joins;
     	return mincostjoin.getOrder(new HashSet<LogicalJoinNode>(joins));
     }
 
@@ -354,6 +553,7 @@ public class JoinOptimizer {
 
         double t1cost, t2cost;
         int t1card, t2card;
+        int t1width, t2width;
         boolean leftPkey, rightPkey;
 
         if (news.isEmpty()) { // base case -- both are base relations
@@ -362,6 +562,7 @@ public class JoinOptimizer {
             t1card = stats.get(table1Name).estimateTableCardinality(
                     filterSelectivities.get(j.t1Alias));
             leftPkey = isPkey(j.t1Alias, j.f1PureName);
+            t1width = tupleWidth(j.t1Alias);
 
             t2cost = table2Alias == null ? 0 : stats.get(table2Name)
                     .estimateScanCost();
@@ -370,6 +571,7 @@ public class JoinOptimizer {
                             filterSelectivities.get(j.t2Alias));
             rightPkey = table2Alias == null ? false : isPkey(table2Alias,
                     j.f2PureName);
+            t2width = table2Alias == null ? 0 : tupleWidth(table2Alias);
         } else {
             // news is not empty -- figure best way to join j to news
             prevBest = pc.getOrder(news);
@@ -390,6 +592,7 @@ public class JoinOptimizer {
                 // subtree is
                 t1card = bestCard;
                 leftPkey = hasPkey(prevBest);
+                t1width = planWidth(prevBest);
 
                 t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
                         .estimateScanCost();
@@ -398,6 +601,7 @@ public class JoinOptimizer {
                                 filterSelectivities.get(j.t2Alias));
                 rightPkey = j.t2Alias == null ? false : isPkey(j.t2Alias,
                         j.f2PureName);
+                t2width = j.t2Alias == null ? 0 : tupleWidth(j.t2Alias);
             } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevbest
                                                         // (both
                 // shouldn't be)
@@ -406,11 +610,13 @@ public class JoinOptimizer {
                 // subtree is
                 t2card = bestCard;
                 rightPkey = hasPkey(prevBest);
+                t2width = planWidth(prevBest);
 
                 t1cost = stats.get(table1Name).estimateScanCost();
                 t1card = stats.get(table1Name).estimateTableCardinality(
                         filterSelectivities.get(j.t1Alias));
                 leftPkey = isPkey(j.t1Alias, j.f1PureName);
+                t1width = tupleWidth(j.t1Alias);
 
             } else {
                 // don't consider this plan if one of j.t1 or j.t2
@@ -420,11 +626,14 @@ public class JoinOptimizer {
         }
 
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost,
+                t1width, t2width);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
-        if (cost2 < cost1) {
+        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost,
+                t2width, t1width);
+        boolean swapped = cost2 < cost1;
+        if (swapped) {
             boolean tmp;
             j = j2;
             cost1 = cost2;
@@ -435,6 +644,19 @@ public class JoinOptimizer {
         if (cost1 >= bestCostSoFar)
             return null;
 
+        if (!(j instanceof LogicalSubplanJoinNode)) {
+            // record the algorithm on a node of this plan alone;
+            // joinToRemove is shared with every other plan
+            if (!swapped)
+                j = new LogicalJoinNode(j.t1Alias, j.t2Alias, j.f1PureName,
+                        j.f2PureName, j.p);
+            j.algorithm = swapped
+                ? chooseJoinAlgorithm(j.p, t2card, t1card, t2cost, t1cost,
+                        t2width, t1width, DEFAULT_MEMORY_PAGES)
+                : chooseJoinAlgorithm(j.p, t1card, t2card, t1cost, t2cost,
+                        t1width, t2width, DEFAULT_MEMORY_PAGES);
+        }
+
         CostCard cc = new CostCard();
 
         cc.card = estimateJoinCardinality(j, t1card, t2card, leftPkey,
@@ -458,6 +680,34 @@ public class JoinOptimizer {
         return false;
     }
 
+    /**
+     * Return the size in bytes of a tuple of the table with the specified
+     * alias, or {@link #DEFAULT_TUPLE_WIDTH} if it is not in the plan
+     */
+    private int tupleWidth(String tableAlias) {
+        Integer tid = tableAlias == null ? null : p.getTableId(tableAlias);
+        if (tid == null)
+            return DEFAULT_TUPLE_WIDTH;
+        return Database.getCatalog().getTupleDesc(tid).getSize();
+    }
+
+    /**
+     * Return the size in bytes of a tuple produced by the specified list
+     * of joins: the sum of the widths of the tables it joins
+     */
+    private int planWidth(Vector<LogicalJoinNode> joinlist) {
+        Set<String> aliases = new HashSet<String>();
+        for (LogicalJoinNode j : joinlist) {
+            aliases.add(j.t1Alias);
+            if (j.t2Alias != null)
+                aliases.add(j.t2Alias);
+        }
+        int width = 0;
+        for (String alias : aliases)
+            width += tupleWidth(alias);
+        return width;
+    }
+
     /**
      * Return true if field is a primary key of the specified table, false
      * otherwise
@@ -540,7 +790,9 @@ public class JoinOptimizer {
             // Double c = pc.getCost(pathSoFar);
             neither = true;
 
-            root = new DefaultMutableTreeNode("Join " + j + " (Cost ="
+            root = new DefaultMutableTreeNode("Join " + j
+                    + (j.algorithm == null ? "" : " by " + j.algorithm)
+                    + " (Cost ="
                     + pc.getCost(pathSoFar) + ", card = "
                     + pc.getCard(pathSoFar) + ")");
             DefaultMutableTreeNode n = m.get(j.t1Alias);
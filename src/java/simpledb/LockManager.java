@@ -0,0 +1,241 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * LockManager grants page-level shared and exclusive locks to
+ * transactions for the BufferPool. A transaction holding the only shared
+ * lock on a page may upgrade it to an exclusive lock.
+ * <p>
+ * The lock table is split into stripes by page, each with its own monitor,
+ * so transactions locking different pages never wait for each other and
+ * an uncontended request only touches one stripe. A request that has to
+ * wait records which transactions it waits for in a waits-for graph; if
+ * that closes a cycle, the requester is chosen as the victim and gets a
+ * TransactionAbortedException. Only waiting requests touch the graph.
+ *
+ * @see BufferPool#getPage
+ * @Threadsafe
+ */
+public class LockManager {
+
+    /** Number of stripes of the lock table. */
+    static final int NUM_STRIPES = 64;
+
+    /**
+     * How long a waiting request sleeps before it checks its lock again,
+     * in milliseconds; releases wake it up earlier.
+     */
+    static final long WAIT_MS = 50;
+
+    /** The lock state of one page. */
+    private static class LockState {
+        // transactions holding a shared lock
+        final Set<TransactionId> shared = new HashSet<TransactionId>();
+        // the transaction holding the exclusive lock, or null
+        TransactionId exclusive;
+
+        boolean isFree() {
+            return exclusive == null && shared.isEmpty();
+        }
+    }
+
+    private static class Stripe {
+        final HashMap<PageId, LockState> locks = new HashMap<PageId, LockState>();
+    }
+
+    private final Stripe[] stripes = new Stripe[NUM_STRIPES];
+
+    // pages each transaction holds a lock on
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> held =
+        new ConcurrentHashMap<TransactionId, Set<PageId>>();
+
+    // waits-for graph: each waiting transaction and the holders it waits
+    // for; guarded by itself
+    private final HashMap<TransactionId, Set<TransactionId>> waitsFor =
+        new HashMap<TransactionId, Set<TransactionId>>();
+
+    public LockManager() {
+        for (int i = 0; i < stripes.length; i++)
+            stripes[i] = new Stripe();
+    }
+
+    private Stripe stripeOf(PageId pid) {
+        int h = pid.hashCode();
+        h ^= (h >>> 16);
+        return stripes[(h & 0x7fffffff) % stripes.length];
+    }
+
+    /**
+     * Acquires a lock on pid for tid, blocking until it can be granted.
+     * Returns at once if tid already holds a lock at least as strong.
+     *
+     * @param tid the transaction requesting the lock
+     * @param pid the page to lock
+     * @param perm READ_ONLY for a shared lock, READ_WRITE for an exclusive
+     *     one
+     * @throws TransactionAbortedException if waiting for the lock would
+     *     deadlock, or the thread is interrupted while waiting
+     */
+    public void acquire(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        boolean exclusive = (perm == Permissions.READ_WRITE);
+        Stripe stripe = stripeOf(pid);
+        synchronized (stripe) {
+            while (true) {
+                LockState s = stripe.locks.get(pid);
+                if (s == null) {
+                    s = new LockState();
+                    stripe.locks.put(pid, s);
+                }
+                if (tryGrant(s, tid, exclusive)) {
+                    stopWaiting(tid);
+                    heldBy(tid).add(pid);
+                    return;
+                }
+
+                Set<TransactionId> blockers = new HashSet<TransactionId>(s.shared);
+                if (s.exclusive != null)
+                    blockers.add(s.exclusive);
+                blockers.remove(tid);
+                if (s.isFree())
+                    stripe.locks.remove(pid);
+                waitFor(tid, blockers);
+                try {
+                    stripe.wait(WAIT_MS);
+                } catch (InterruptedException e) {
+                    stopWaiting(tid);
+                    Thread.currentThread().interrupt();
+                    throw new TransactionAbortedException();
+                }
+            }
+        }
+    }
+
+    /** Grants the lock if it is compatible with the current holders. */
+    private static boolean tryGrant(LockState s, TransactionId tid, boolean exclusive) {
+        if (s.exclusive != null)
+            return s.exclusive.equals(tid);
+        if (!exclusive) {
+            s.shared.add(tid);
+            return true;
+        }
+        // exclusive: free, or an upgrade of the only shared lock
+        if (s.shared.isEmpty() || (s.shared.size() == 1 && s.shared.contains(tid))) {
+            s.shared.remove(tid);
+            s.exclusive = tid;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records that tid waits for blockers, aborting tid if one of them
+     * (transitively) waits for tid.
+     */
+    private void waitFor(TransactionId tid, Set<TransactionId> blockers)
+            throws TransactionAbortedException {
+        synchronized (waitsFor) {
+            waitsFor.put(tid, blockers);
+            Set<TransactionId> seen = new HashSet<TransactionId>();
+            ArrayDeque<TransactionId> todo = new ArrayDeque<TransactionId>(blockers);
+            while (!todo.isEmpty()) {
+                TransactionId t = todo.poll();
+                if (t.equals(tid)) {
+                    waitsFor.remove(tid);
+                    throw new TransactionAbortedException();
+                }
+                if (seen.add(t)) {
+                    Set<TransactionId> next = waitsFor.get(t);
+                    if (next != null)
+                        todo.addAll(next);
+                }
+            }
+        }
+    }
+
+    private void stopWaiting(TransactionId tid) {
+        synchronized (waitsFor) {
+            waitsFor.remove(tid);
+        }
+    }
+
+    private Set<PageId> heldBy(TransactionId tid) {
+        Set<PageId> pages = held.get(tid);
+        if (pages == null) {
+            pages = Collections.newSetFromMap(new ConcurrentHashMap<PageId, Boolean>());
+            Set<PageId> old = held.putIfAbsent(tid, pages);
+            if (old != null)
+                pages = old;
+        }
+        return pages;
+    }
+
+    /**
+     * Releases the lock tid holds on pid, if any.
+     */
+    public void release(TransactionId tid, PageId pid) {
+        Set<PageId> pages = held.get(tid);
+        if (pages != null)
+            pages.remove(pid);
+        unlock(tid, pid);
+    }
+
+    private void unlock(TransactionId tid, PageId pid) {
+        Stripe stripe = stripeOf(pid);
+        synchronized (stripe) {
+            LockState s = stripe.locks.get(pid);
+            if (s == null)
+                return;
+            if (tid.equals(s.exclusive))
+                s.exclusive = null;
+            s.shared.remove(tid);
+            if (s.isFree())
+                stripe.locks.remove(pid);
+            stripe.notifyAll();
+        }
+    }
+
+    /**
+     * Releases every lock held by tid.
+     */
+    public void releaseAll(TransactionId tid) {
+        stopWaiting(tid);
+        Set<PageId> pages = held.remove(tid);
+        if (pages == null)
+            return;
+        for (PageId pid : pages)
+            unlock(tid, pid);
+    }
+
+    /** @return true if tid holds any locks */
+    public boolean isActive(TransactionId tid) {
+        return held.containsKey(tid);
+    }
+
+    /** @return true if tid holds a shared or exclusive lock on pid */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        Set<PageId> pages = held.get(tid);
+        return pages != null && pages.contains(pid);
+    }
+
+    /** @return true if tid holds the exclusive lock on pid */
+    public boolean holdsExclusive(TransactionId tid, PageId pid) {
+        Stripe stripe = stripeOf(pid);
+        synchronized (stripe) {
+            LockState s = stripe.locks.get(pid);
+            return s != null && tid.equals(s.exclusive);
+        }
+    }
+
+    /**
+     * @return the pages tid holds a lock on; the set may change while it
+     *     is iterated
+     */
+    public Set<PageId> getLockedPages(TransactionId tid) {
+        Set<PageId> pages = held.get(tid);
+        return (pages == null) ? Collections.<PageId>emptySet()
+            : Collections.unmodifiableSet(pages);
+    }
+}
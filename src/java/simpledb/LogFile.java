@@ -3,7 +3,8 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
-import java.lang.reflect.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -15,35 +16,32 @@ two-phase locking discipline are followed.  <p>
 <p>
 
 Many of the methods here are synchronized (to prevent concurrent log
-writes from happening); many of the methods in BufferPool are also
-synchronized (for similar reasons.)  Problem is that BufferPool writes
-log records (on page flushed) and the log file flushes BufferPool
-pages (on checkpoints and recovery.)  This can lead to deadlock.  For
-that reason, any LogFile operation that needs to access the BufferPool
-must not be declared synchronized and must begin with a block like:
-
-<p>
-<pre>
-    synchronized (Database.getBufferPool()) {
-       synchronized (this) {
-
-       ..
-
-       }
-    }
-</pre>
+writes from happening).  BufferPool latches a page's frame while it
+writes the log record for that page (on page flush and on commit), and
+the log file flushes and discards BufferPool pages (on checkpoints,
+rollback and recovery.)  This can lead to deadlock.  For that reason,
+any LogFile operation that needs to access the BufferPool must not be
+declared synchronized and must not touch BufferPool pages while it holds
+the monitor of this LogFile: it reads or writes the log in a
+<tt>synchronized (this)</tt> block and calls the BufferPool outside it.
 */
 
 /**
-<p> The format of the log file is as follows:
+<p> The format of the log is as follows:
 
 <ul>
 
-<li> The first long integer of the file represents the offset of the
+<li> The log file itself holds a single long integer, the offset of the
 last written checkpoint, or -1 if there are no checkpoints
 
-<li> All additional data in the log consists of log records.  Log
-records are variable length.
+<li> The log records are kept in segment files next to the log file,
+named after it with the offset of their first record appended (as in
+<tt>log.0000000000000000</tt>).  Offsets count from the start of the first
+segment ever written and do not change when old segments are deleted.
+A segment is closed once it holds segmentSize bytes; records never
+span segments.
+
+<li> Log records are variable length.
 
 <li> Each log record begins with an integer type and a long integer
 transaction id.
@@ -56,16 +54,22 @@ CHECKPOINT
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
-<li>UPDATE RECORDS consist of two entries, a before image and an
-after image.  These images are serialized Page objects, and can be
-accessed with the LogFile.readPageData() and LogFile.writePageData()
-methods.  See LogFile.print() for an example.
+<li>UPDATE RECORDS consist of an integer length followed by that many
+bytes holding a serialized PageDelta: the page id and the byte ranges in
+which the after image of the page differs from its before image, with
+the before and after bytes of each range.  Each delta is relative to the
+state of the page the previous UPDATE record for it left it in.
 
 <li> CHECKPOINT records consist of active transactions at the time
-the checkpoint was taken and their first log record on disk.  The format
-of the record is an integer count of the number of transactions, as well
-as a long integer transaction id and a long integer first record offset
-for each active transaction.
+the checkpoint was taken and their first log record on disk, followed
+by the dirty page table.  The format of the record is an integer count
+of the number of transactions, as well as a long integer transaction id
+and a long integer first record offset for each active transaction;
+then the long integer offset the checkpoint began at, an integer count
+of dirty pages, and an integer table id, an integer page number and
+the long integer offset of the first change not on disk for each dirty
+page.  Updates of pages not in the table that were logged before the
+checkpoint began are on disk.
 
 </ul>
 
@@ -74,7 +78,11 @@ for each active transaction.
 public class LogFile {
 
     final File logFile;
-    private RandomAccessFile raf;
+    private RandomAccessFile control; // the log file: last checkpoint
+    private RandomAccessFile raf; // the last segment
+    private long segStart; // offset of the first record of raf
+    // segment files by the offset of their first record
+    private final TreeMap<Long, File> segments = new TreeMap<Long, File>();
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -88,11 +96,57 @@ public class LogFile {
     final static int LONG_SIZE = 8;
 
     long currentOffset = -1;//protected by this
+
+    /**
+     * Default size of a log segment in bytes; set it with the system
+     * property simpledb.LogFile.segmentSize.
+     */
+    public static final long DEFAULT_SEGMENT_SIZE =
+        Long.getLong("simpledb.LogFile.segmentSize", 16L << 20);
+
+    private long segmentSize = DEFAULT_SEGMENT_SIZE; // protected by this
+
+    /** Size at which the log buffer is written out to the file. */
+    static final int LOG_BUFFER_SIZE = 64 * 1024;
+
+    // records appended since the last flushBuffer(); they belong at
+    // flushedEnd in the file. Protected by this
+    private final LogBuffer buffer = new LogBuffer(LOG_BUFFER_SIZE);
+    private final DataOutputStream out = new DataOutputStream(buffer);
+    private long flushedEnd = -1;
+    // offset the last checkpoint written here began at, or -1
+    private long checkpointBegin = -1;
+    private long bytesFlushed = 0;
 //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
 
     HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
 
+    /**
+     * Default group commit window in milliseconds; set it with the system
+     * property simpledb.LogFile.groupCommitWindow. A negative value (the
+     * default) turns group commit off.
+     * @see #setGroupCommitWindow
+     */
+    public static final long DEFAULT_GROUP_COMMIT_WINDOW =
+        Long.getLong("simpledb.LogFile.groupCommitWindow", -1);
+
+    /** How long an idle group commit flusher lingers before it exits. */
+    static final long FLUSHER_IDLE_MS = 1000;
+
+    // group commit state, guarded by groupLock: committers wait for the
+    // batch that was open when they wrote their record to be forced
+    private final Object groupLock = new Object();
+    private volatile long groupCommitWindow = DEFAULT_GROUP_COMMIT_WINDOW;
+    private long openBatch = 1;
+    private long forcedBatch = 0;
+    private long failedBatch = 0;
+    private IOException batchError;
+    private int waitingCommits = 0;
+    private boolean flusherRunning = false;
+    private long commitCount = 0;
+    private long forceCount = 0;
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -106,8 +160,20 @@ public class LogFile {
     */
     public LogFile(File f) throws IOException {
 	this.logFile = f;
-        raf = new RandomAccessFile(f, "rw");
+        control = new RandomAccessFile(f, "rw");
         recoveryUndecided = true;
+        String prefix = f.getName() + ".";
+        File[] files = f.getAbsoluteFile().getParentFile().listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            String name = files[i].getName();
+            if (name.startsWith(prefix) && name.length() == prefix.length() + 16) {
+                try {
+                    segments.put(Long.parseLong(name.substring(prefix.length())), files[i]);
+                } catch (NumberFormatException e) {
+                    // not a segment
+                }
+            }
+        }
 
         // install shutdown hook to force cleanup on close
         // Runtime.getRuntime().addShutdownHook(new Thread() {
@@ -127,14 +193,91 @@ public class LogFile {
         totalRecords++;
         if(recoveryUndecided){
             recoveryUndecided = false;
-            raf.seek(0);
+            control.setLength(0);
+            control.seek(0);
+            control.writeLong(NO_CHECKPOINT_ID);
+            for (File seg : segments.values())
+                seg.delete();
+            segments.clear();
+            openSegment(0);
             raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            currentOffset = 0;
+            flushedEnd = currentOffset;
+        }
+    }
+
+    private File segmentFile(long start) {
+        return new File(logFile.getAbsoluteFile().getParentFile(),
+                        logFile.getName() + "." + String.format("%016d", start));
+    }
+
+    /** Makes the segment starting at start the one records go to. */
+    private void openSegment(long start) throws IOException {
+        if (raf != null)
+            raf.close();
+        File seg = segmentFile(start);
+        raf = new RandomAccessFile(seg, "rw");
+        segments.put(start, seg);
+        segStart = start;
+    }
+
+    /** Sets the size at which a segment is closed and a new one started. */
+    synchronized void setSegmentSize(long bytes) {
+        segmentSize = bytes;
+    }
+
+    /** @return the number of segment files the log consists of */
+    public synchronized int getNumSegments() {
+        return segments.size();
+    }
+
+    /** A ByteArrayOutputStream that can write itself to the log file. */
+    private static class LogBuffer extends ByteArrayOutputStream {
+        LogBuffer(int size) {
+            super(size);
+        }
+
+        void writeTo(RandomAccessFile raf) throws IOException {
+            raf.write(buf, 0, count);
         }
     }
 
+    // ends a record appended to the buffer with the offset it started at,
+    // and writes the buffer out once it is full
+    private void endRecord(long start) throws IOException {
+        out.writeLong(start);
+        currentOffset = flushedEnd + buffer.size();
+        if (buffer.size() >= LOG_BUFFER_SIZE)
+            flushBuffer();
+        if (currentOffset - segStart >= segmentSize) {
+            // the full segment goes to disk before the next is started,
+            // so force() only ever has to force the last one
+            flushBuffer();
+            raf.getChannel().force(true);
+            openSegment(currentOffset);
+        }
+    }
+
+    /**
+     * Writes the buffered records to the end of the log file. Reads of the
+     * file must flush first; they may leave the file pointer anywhere.
+     */
+    private synchronized void flushBuffer() throws IOException {
+        if (buffer.size() == 0)
+            return;
+        raf.seek(flushedEnd - segStart);
+        buffer.writeTo(raf);
+        flushedEnd += buffer.size();
+        bytesFlushed += buffer.size();
+        buffer.reset();
+    }
+
+    /** @return the number of log bytes written to the file by appends */
+    public synchronized long getBytesWritten() throws IOException {
+        flushBuffer();
+        return bytesFlushed;
+    }
+
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
@@ -144,27 +287,21 @@ public class LogFile {
         @param tid The aborting transaction.
     */
     public void logAbort(TransactionId tid) throws IOException {
-        // must have buffer pool lock before proceeding, since this
-        // calls rollback
-
-        synchronized (Database.getBufferPool()) {
-
-            synchronized(this) {
-                preAppend();
-                //Debug.log("ABORT");
-                //should we verify that this is a live transaction?
-
-                // must do this here, since rollback only works for
-                // live transactions (needs tidToFirstLogRecord)
-                rollback(tid);
-
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                force();
-                tidToFirstLogRecord.remove(tid.getId());
-            }
+        // must do this first, since rollback only works for
+        // live transactions (needs tidToFirstLogRecord); it touches
+        // BufferPool pages, so it runs without our lock
+        rollback(tid);
+
+        synchronized(this) {
+            preAppend();
+            //Debug.log("ABORT");
+            //should we verify that this is a live transaction?
+
+            out.writeInt(ABORT_RECORD);
+            out.writeLong(tid.getId());
+            endRecord(currentOffset);
+            force();
+            tidToFirstLogRecord.remove(tid.getId());
         }
     }
 
@@ -173,284 +310,444 @@ public class LogFile {
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
-
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    public void logCommit(TransactionId tid) throws IOException {
+        boolean group = groupCommitWindow >= 0;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            out.writeInt(COMMIT_RECORD);
+            out.writeLong(tid.getId());
+            endRecord(currentOffset);
+            if (!group) {
+                force();
+                forceCount++;
+            }
+            commitCount++;
+            tidToFirstLogRecord.remove(tid.getId());
+        }
+        if (group)
+            awaitGroupForce();
     }
 
-    /** Write an UPDATE record to disk for the specified tid and page
-        (with provided         before and after images.)
-        @param tid The transaction performing the write
-        @param before The before image of the page
-        @param after The after image of the page
-
-        @see simpledb.Page#getBeforeImage
-    */
-    public  synchronized void logWrite(TransactionId tid, Page before,
-                                       Page after)
-        throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
-        preAppend();
-        /* update record conists of
-
-           record type
-           transaction id
-           before page data (see writePageData)
-           after page data
-           start offset
-        */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
-
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-
-        Debug.log("WRITE OFFSET = " + currentOffset);
+    /**
+     * Sets the group commit window. With group commit on, logCommit does
+     * not force the log itself; it joins the current batch of commits and
+     * waits until a flusher thread has forced the log once for the whole
+     * batch. The flusher waits up to windowMs for more commits to join a
+     * batch before it forces it; commits arriving while a force is under
+     * way form the next batch either way.
+     *
+     * @param windowMs the window in milliseconds; 0 batches without
+     *     waiting, a negative value turns group commit off
+     */
+    public void setGroupCommitWindow(long windowMs) {
+        groupCommitWindow = windowMs;
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
-        PageId pid = p.getId();
-        int pageInfo[] = pid.serialize();
-
-        //page data is:
-        // page class name
-        // id class name
-        // id class bytes
-        // id class data
-        // page class bytes
-        // page class data
-
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
-
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
-
-        raf.writeInt(pageInfo.length);
-        for (int i = 0; i < pageInfo.length; i++) {
-            raf.writeInt(pageInfo[i]);
-        }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
-        //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
+    /** @return the group commit window, negative if group commit is off */
+    public long getGroupCommitWindow() {
+        return groupCommitWindow;
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
+    /** @return the number of commit records written */
+    public synchronized long getCommitCount() {
+        return commitCount;
+    }
 
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
+    /** @return the number of forces done to make commits durable */
+    public synchronized long getCommitForceCount() {
+        return forceCount;
+    }
 
+    /**
+     * Waits until the batch open now, which holds a commit record that was
+     * just written, has been forced to disk.
+     */
+    private void awaitGroupForce() throws IOException {
+        boolean interrupted = false;
         try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
-
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object idArgs[] = new Object[numIdArgs];
-            for (int i = 0; i<numIdArgs;i++) {
-                idArgs[i] = new Integer(raf.readInt());
+            synchronized (groupLock) {
+                long batch = openBatch;
+                waitingCommits++;
+                if (!flusherRunning) {
+                    flusherRunning = true;
+                    Thread t = new Thread(new Runnable() {
+                        public void run() {
+                            runFlusher();
+                        }
+                    }, "simpledb-group-commit");
+                    t.setDaemon(true);
+                    t.start();
+                }
+                groupLock.notifyAll();
+                while (forcedBatch < batch) {
+                    try {
+                        groupLock.wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (failedBatch == batch)
+                    throw new IOException("group commit force failed: " + batchError);
             }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
-
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
 
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+    /**
+     * Body of the group commit flusher: closes batches of waiting commits
+     * and forces the log once per batch. Exits after FLUSHER_IDLE_MS
+     * without commits; the next commit starts it again.
+     */
+    private void runFlusher() {
+        while (true) {
+            long batch;
+            try {
+                synchronized (groupLock) {
+                    long idleSince = System.currentTimeMillis();
+                    while (waitingCommits == 0) {
+                        long left = FLUSHER_IDLE_MS - (System.currentTimeMillis() - idleSince);
+                        if (left <= 0) {
+                            flusherRunning = false;
+                            return;
+                        }
+                        groupLock.wait(left);
+                    }
+                }
+                long window = groupCommitWindow;
+                if (window > 0)
+                    Thread.sleep(window);
+            } catch (InterruptedException e) {
+                // keep serving the committers that are waiting
+            }
 
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
+            synchronized (groupLock) {
+                batch = openBatch++;
+                waitingCommits = 0;
+            }
+            IOException error = null;
+            try {
+                synchronized (this) {
+                    force();
+                    forceCount++;
+                }
+            } catch (IOException e) {
+                error = e;
+            }
+            synchronized (groupLock) {
+                forcedBatch = batch;
+                if (error != null) {
+                    failedBatch = batch;
+                    batchError = error;
+                }
+                groupLock.notifyAll();
+            }
+        }
+    }
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+    /** Write an UPDATE record to the log for the specified tid and
+        page (with provided before and after images.)  The record holds
+        only the byte ranges in which the images differ.
+        The first UPDATE record of a transaction is preceded by its BEGIN
+        record, so a transaction that writes nothing logs nothing.
+        @param tid The transaction performing the write
+        @param before The before image of the page
+        @param after The after image of the page
+        @return the offset of the record
 
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException e){
-            e.printStackTrace();
-            throw new IOException();
-        } catch (InstantiationException e) {
-            e.printStackTrace();
-            throw new IOException();
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
-            throw new IOException();
-        } catch (InvocationTargetException e) {
-            e.printStackTrace();
-            throw new IOException();
+        @see simpledb.Page#getBeforeImage
+        @see PageDelta
+    */
+    public long logWrite(TransactionId tid, Page before, Page after)
+        throws IOException  {
+        // diff outside our lock; it only reads the two images
+        byte[] delta = PageDelta.diff(before, after).toBytes();
+        synchronized (this) {
+            if (!tidToFirstLogRecord.containsKey(tid.getId()))
+                writeBegin(tid);
+            preAppend();
+            /* update record consists of
+
+               record type
+               transaction id
+               delta length
+               delta (see PageDelta)
+               start offset
+            */
+            long start = currentOffset;
+            out.writeInt(UPDATE_RECORD);
+            out.writeLong(tid.getId());
+            out.writeInt(delta.length);
+            out.write(delta);
+            endRecord(start);
+
+            Debug.log("WRITE OFFSET = " + currentOffset);
+            return start;
         }
-        return newPage;
+    }
 
+    /**
+     * @return true if tid has log records but has not committed or
+     *     aborted yet
+     */
+    public synchronized boolean isActive(TransactionId tid) {
+        return tidToFirstLogRecord.containsKey(tid.getId());
     }
 
-    /** Write a BEGIN record for the specified transaction
+    /** Write a BEGIN record for the specified transaction. Transactions
+        need not call this: {@link #logWrite} writes the BEGIN record
+        before a transaction's first update.
         @param tid The transaction that is beginning
 
     */
+
     public synchronized  void logXactionBegin(TransactionId tid)
         throws IOException {
-        Debug.log("BEGIN");
         if(tidToFirstLogRecord.get(tid.getId()) != null){
             System.err.printf("logXactionBegin: already began this tid\n");
             throw new IOException("double logXactionBegin()");
         }
+        writeBegin(tid);
+    }
+
+    /** Appends the BEGIN record of tid; called holding this log's monitor. */
+    private void writeBegin(TransactionId tid) throws IOException {
+        Debug.log("BEGIN");
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        out.writeInt(BEGIN_RECORD);
+        out.writeLong(tid.getId());
+        endRecord(currentOffset);
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
+    /** Checkpoint the log and write a checkpoint record.
+        <p>
+        The checkpoint is fuzzy: it does not stop transactions or flush
+        the buffer pool. It records the active transactions and the dirty
+        page table, which BufferPool builds latching one frame at a time,
+        and it writes out only the pages whose changes were logged before
+        the previous checkpoint began, so that the log before it can go.
+        Recovery redoes from the oldest change of the dirty page table.
+    */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
-                }
+        BufferPool bp = Database.getBufferPool();
+        long previous;
+        synchronized (this) {
+            preAppend();
+            previous = checkpointBegin;
+        }
+        // writing pages logs the ones it steals, so it runs without our lock
+        if (previous >= 0)
+            bp.flushPagesLoggedBefore(previous);
+        long begin;
+        synchronized (this) {
+            begin = currentOffset;
+        }
+        // any page dirtied after this was logged after begin
+        Map<PageId, Long> dirty = bp.getDirtyPages();
+
+        synchronized (this) {
+            long startCpOffset = currentOffset;
+            out.writeInt(CHECKPOINT_RECORD);
+            out.writeLong(-1); //no tid , but leave space for convenience
+
+            //write list of outstanding transactions
+            out.writeInt(tidToFirstLogRecord.size());
+            for (Map.Entry<Long, Long> e : tidToFirstLogRecord.entrySet()) {
+                Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + e.getKey());
+                out.writeLong(e.getKey());
+                out.writeLong(e.getValue());
+            }
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+            //and the dirty page table
+            out.writeLong(begin);
+            out.writeInt(dirty.size());
+            for (Map.Entry<PageId, Long> e : dirty.entrySet()) {
+                out.writeInt(e.getKey().getTableId());
+                out.writeInt(e.getKey().pageNumber());
+                out.writeLong(e.getValue());
             }
+            endRecord(startCpOffset);
+            force();
+
+            //once the CP is on disk, make sure the CP location in the
+            // log file is updated
+            control.seek(0);
+            control.writeLong(startCpOffset);
+            control.getChannel().force(true);
+            checkpointBegin = begin;
         }
 
         logTruncate();
     }
 
     /** Truncate any unneeded portion of the log to reduce its space
-        consumption */
+        consumption.  Segments that end before both the oldest change
+        recovery would redo from the last checkpoint and the first record
+        of every active transaction are deleted; nothing is copied.
+    */
     public synchronized void logTruncate() throws IOException {
         preAppend();
-        raf.seek(0);
-        long cpLoc = raf.readLong();
+        control.seek(0);
+        long cpLoc = control.readLong();
+        if (cpLoc == NO_CHECKPOINT_ID)
+            return;
+
+        flushBuffer();
+        LogRecord cp = readCheckpoint(cpLoc);
+        long keep = cp.getRedoStart();
+        for (long first : tidToFirstLogRecord.values())
+            keep = Math.min(keep, first);
+
+        while (segments.size() > 1) {
+            long first = segments.firstKey();
+            if (segments.higherKey(first) > keep)
+                break;
+            Debug.log("TRUNCATING LOG SEGMENT " + first);
+            segments.remove(first).delete();
+        }
+    }
 
-        long minLogRecord = cpLoc;
+    /** A log record read back from the log. */
+    private static class LogRecord {
+        long lsn; // offset the record starts at
+        long end; // offset the next record starts at
+        int type;
+        long tid;
+        byte[] delta; // UPDATE
+        // CHECKPOINT
+        long[] tids, firsts;
+        long begin;
+        int[] dirtyTables, dirtyPages;
+        long[] recLsns;
+
+        PageDelta getDelta() throws IOException {
+            return PageDelta.read(new DataInputStream(new ByteArrayInputStream(delta)));
+        }
 
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
+        /** @return for a checkpoint, the offset redo has to start at */
+        long getRedoStart() {
+            long start = begin;
+            for (long lsn : recLsns)
+                start = Math.min(start, lsn);
+            return start;
+        }
+    }
 
-            if (cpType != CHECKPOINT_RECORD) {
-                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
-            }
+    /**
+     * Reads the log record by record from some offset on, across
+     * segments. The buffer has to be flushed first.
+     */
+    private class LogReader {
+        private long segment; // start of the segment being read
+        private DataInputStream in;
+        private long pos;
+
+        LogReader(long from) throws IOException {
+            Map.Entry<Long, File> e = segments.floorEntry(from);
+            if (e == null)
+                throw new IOException("log offset " + from + " was truncated");
+            open(e, from);
+        }
 
-            int numOutstanding = raf.readInt();
+        private void open(Map.Entry<Long, File> e, long from) throws IOException {
+            FileInputStream fin = new FileInputStream(e.getValue());
+            fin.getChannel().position(from - e.getKey());
+            in = new DataInputStream(new BufferedInputStream(fin, LOG_BUFFER_SIZE));
+            segment = e.getKey();
+            pos = from;
+        }
 
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
+        /**
+         * @return the next record, or null at the end of the log or at a
+         *     record the end of which did not reach the disk
+         */
+        LogRecord next() throws IOException {
+            while (true) {
+                LogRecord r = readRecord();
+                if (r != null) {
+                    pos = r.end;
+                    return r;
                 }
+                Map.Entry<Long, File> e = segments.higherEntry(segment);
+                if (e == null || e.getKey() != pos)
+                    return null;
+                in.close();
+                open(e, pos);
             }
         }
 
-        // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
-
-        raf.seek(minLogRecord);
-
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
+        private LogRecord readRecord() throws IOException {
+            LogRecord r = new LogRecord();
+            r.lsn = pos;
             try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
-
-                Debug.log("NEW START = " + newStart);
-
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
-
-                switch (type) {
+                r.type = in.readInt();
+                r.tid = in.readLong();
+                long length = INT_SIZE + LONG_SIZE;
+                switch (r.type) {
                 case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
-
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
+                    r.delta = new byte[in.readInt()];
+                    in.readFully(r.delta);
+                    length += INT_SIZE + r.delta.length;
                     break;
                 case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
+                    int n = in.readInt();
+                    r.tids = new long[n];
+                    r.firsts = new long[n];
+                    for (int i = 0; i < n; i++) {
+                        r.tids[i] = in.readLong();
+                        r.firsts[i] = in.readLong();
                     }
+                    r.begin = in.readLong();
+                    n = in.readInt();
+                    r.dirtyTables = new int[n];
+                    r.dirtyPages = new int[n];
+                    r.recLsns = new long[n];
+                    for (int i = 0; i < n; i++) {
+                        r.dirtyTables[i] = in.readInt();
+                        r.dirtyPages[i] = in.readInt();
+                        r.recLsns[i] = in.readLong();
+                    }
+                    length += INT_SIZE + r.tids.length * 2 * LONG_SIZE
+                        + LONG_SIZE + INT_SIZE + n * (2 * INT_SIZE + LONG_SIZE);
                     break;
+                case ABORT_RECORD:
+                case COMMIT_RECORD:
                 case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
                     break;
+                default:
+                    return null; // garbage after the last record
                 }
-
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
-
+                if (in.readLong() != r.lsn)
+                    return null;
+                r.end = r.lsn + length + LONG_SIZE;
+                return r;
             } catch (EOFException e) {
-                break;
+                return null;
             }
         }
 
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
-
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
+        void close() throws IOException {
+            in.close();
+        }
+    }
 
-        currentOffset = raf.getFilePointer();
-        //print();
+    private LogRecord readCheckpoint(long cpLoc) throws IOException {
+        LogReader reader = new LogReader(cpLoc);
+        try {
+            LogRecord cp = reader.next();
+            if (cp == null || cp.type != CHECKPOINT_RECORD)
+                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
+            return cp;
+        } finally {
+            reader.close();
+        }
     }
 
     /** Rollback the specified transaction, setting the state of any
@@ -458,44 +755,405 @@ public class LogFile {
         transaction semantics, this should not be called on
         transactions that have already committed (though this may not
         be enforced by this method.)
+        <p>
+        Each page starts out as the cached copy in the buffer pool, or
+        the copy on disk if it is not cached; the before bytes of the
+        transaction's deltas are put back newest first. The change is
+        logged as another update of tid (a compensation record), so
+        recovery can replay it; the caller logs the ABORT record.
 
         @param tid The transaction to rollback
     */
     public void rollback(TransactionId tid)
         throws NoSuchElementException, IOException {
-        synchronized (Database.getBufferPool()) {
-            synchronized(this) {
-                preAppend();
-                // some code goes here
+        // the deltas tid logged, by page, oldest first
+        LinkedHashMap<PageId, List<PageDelta>> deltas =
+            new LinkedHashMap<PageId, List<PageDelta>>();
+        synchronized(this) {
+            preAppend();
+            // some code goes here
+            Long first = tidToFirstLogRecord.get(tid.getId());
+            if (first == null)
+                return; // nothing of tid's reached the log
+            flushBuffer();
+            LogReader reader = new LogReader(first);
+            try {
+                LogRecord r;
+                while ((r = reader.next()) != null) {
+                    if (r.type != UPDATE_RECORD || r.tid != tid.getId())
+                        continue;
+                    PageDelta d = r.getDelta();
+                    PageId pid = d.getPageId();
+                    List<PageDelta> l = deltas.get(pid);
+                    if (l == null) {
+                        l = new ArrayList<PageDelta>();
+                        deltas.put(pid, l);
+                    }
+                    l.add(d);
+                }
+            } finally {
+                reader.close();
             }
         }
+
+        // put the pages back the way they were before tid, on disk and
+        // (by dropping the cached copies) in the buffer pool
+        BufferPool bp = Database.getBufferPool();
+        for (Map.Entry<PageId, List<PageDelta>> e : deltas.entrySet()) {
+            PageId pid = e.getKey();
+            List<PageDelta> l = e.getValue();
+            DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            Page cached = bp.getCachedPage(pid);
+            Page current = (cached != null) ? cached : file.readPage(pid);
+            byte[] data = current.getPageData();
+            for (int i = l.size() - 1; i >= 0; i--)
+                l.get(i).undo(data);
+            Page restored = l.get(0).newPage(data);
+            // compensation record, so that redo repeats the rollback
+            logWrite(tid, current, restored);
+            file.writePage(restored);
+            bp.discardPage(pid);
+        }
     }
 
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
     */
-    public synchronized void shutdown() {
+    public void shutdown() {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            synchronized (this) {
+                flushBuffer();
+                raf.close();
+                control.close();
+            }
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
         }
     }
 
+    /**
+     * Default number of threads recover() redoes pages on; set it with the
+     * system property simpledb.LogFile.recoveryThreads.
+     */
+    public static final int DEFAULT_RECOVERY_THREADS =
+        Integer.getInteger("simpledb.LogFile.recoveryThreads",
+                           Runtime.getRuntime().availableProcessors());
+
+    /** Redo reports its progress every this many pages. */
+    static final int PROGRESS_PAGES = 1000;
+
+    private volatile int recoveryThreads = DEFAULT_RECOVERY_THREADS;
+    private volatile RecoveryStats lastRecovery;
+
+    /** Sets the number of threads recover() redoes pages on. */
+    public void setRecoveryThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("need at least one thread");
+        recoveryThreads = threads;
+    }
+
+    /** What a call to recover() found in the log and how long it took. */
+    public static class RecoveryStats {
+        long records, pages, losers;
+        long analysisMillis, redoMillis, undoMillis;
+
+        /** @return the number of log records analyzed */
+        public long getRecords() { return records; }
+        /** @return the number of pages redone */
+        public long getPages() { return pages; }
+        /** @return the number of transactions rolled back */
+        public long getLosers() { return losers; }
+        public long getAnalysisMillis() { return analysisMillis; }
+        public long getRedoMillis() { return redoMillis; }
+        public long getUndoMillis() { return undoMillis; }
+
+        public String toString() {
+            return "analysis " + records + " records in " + analysisMillis
+                + " ms, redo " + pages + " pages in " + redoMillis
+                + " ms, undo " + losers + " transactions in " + undoMillis + " ms";
+        }
+    }
+
+    /** @return the statistics of the last recover(), or null */
+    public RecoveryStats getLastRecovery() {
+        return lastRecovery;
+    }
+
+    /** An UPDATE record found by the analysis pass. */
+    private static class LoggedUpdate {
+        final long lsn; // offset of the record
+        final long tid;
+        final PageDelta delta;
+        // false if the checkpoint says the update is on disk
+        final boolean redo;
+
+        LoggedUpdate(long lsn, long tid, PageDelta delta, boolean redo) {
+            this.lsn = lsn;
+            this.tid = tid;
+            this.delta = delta;
+            this.redo = redo;
+        }
+    }
+
+    /** What the analysis pass learns from the log. */
+    private static class Analysis {
+        // updates by page, in log order
+        final LinkedHashMap<PageId, List<LoggedUpdate>> pages =
+            new LinkedHashMap<PageId, List<LoggedUpdate>>();
+        // transactions with neither a COMMIT nor an ABORT record
+        final Set<Long> losers = new LinkedHashSet<Long>();
+        long records = 0;
+        long end = 0; // end of the last complete record
+        long maxTid = -1;
+    }
+
     /** Recover the database system by ensuring that the updates of
         committed transactions are installed and that the
         updates of uncommitted transactions are not installed.
+        <p>
+        Recovery runs in three phases. Analysis reads the log from the
+        oldest change in the dirty page table of the last checkpoint (or
+        the first record of a transaction active at it) and collects the
+        updates of each page and the transactions that never finished.
+        Redo repeats history: every page is read from disk and the after
+        bytes of its updates are put back in log order, skipping the
+        updates the checkpoint says are on disk, on several threads with the pages partitioned by
+        PageId. Redo is idempotent, since an update carries the bytes it
+        leaves behind rather than an operation. Undo puts the before
+        bytes of the unfinished transactions back, newest first, logs
+        that as compensation records and aborts them. A record torn by
+        the crash at the end of the log is cut off.
+        <p>
+        recover() must be called before any transaction runs; it does
+        not stop other threads from using the BufferPool.
+
+        @see #getLastRecovery
     */
     public void recover() throws IOException {
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                recoveryUndecided = false;
-                // some code goes here
+        RecoveryStats stats = new RecoveryStats();
+        long start = System.currentTimeMillis();
+        Analysis a;
+        synchronized (this) {
+            recoveryUndecided = false;
+            a = analyze();
+            if (control.length() < LONG_SIZE) {
+                control.setLength(0);
+                control.seek(0);
+                control.writeLong(NO_CHECKPOINT_ID);
+            }
+            // cut off what the crash left after the last record
+            for (Long seg : new ArrayList<Long>(segments.tailMap(a.end, false).keySet()))
+                segments.remove(seg).delete();
+            openSegment(segments.isEmpty() ? a.end : segments.lastKey());
+            raf.setLength(a.end - segStart);
+            currentOffset = flushedEnd = a.end;
+            tidToFirstLogRecord.clear();
+            TransactionId.reserveIdsUpTo(a.maxTid);
+        }
+        stats.records = a.records;
+        stats.pages = a.pages.size();
+        stats.losers = a.losers.size();
+        stats.analysisMillis = System.currentTimeMillis() - start;
+        Debug.log("RECOVERY analysis: %d records, %d pages, %d unfinished transactions, %d ms",
+                  a.records, a.pages.size(), a.losers.size(), stats.analysisMillis);
+
+        start = System.currentTimeMillis();
+        Map<PageId, byte[]> loserPages = redo(a);
+        stats.redoMillis = System.currentTimeMillis() - start;
+        Debug.log("RECOVERY redo: %d pages, %d ms", a.pages.size(), stats.redoMillis);
+
+        start = System.currentTimeMillis();
+        undo(a, loserPages);
+        stats.undoMillis = System.currentTimeMillis() - start;
+        Debug.log("RECOVERY undo: %d transactions, %d ms", a.losers.size(), stats.undoMillis);
+        lastRecovery = stats;
+    }
+
+    /** Reads the log from where recovery has to start. */
+    private Analysis analyze() throws IOException {
+        Analysis a = new Analysis();
+        if (segments.isEmpty())
+            return a;
+        long start = segments.firstKey();
+        // updates before redoFrom are on disk unless their page is in
+        // the dirty page table, from its recLsn on
+        long redoFrom = start;
+        HashMap<PageId, Long> dirty = new HashMap<PageId, Long>();
+        control.seek(0);
+        long cpLoc = (control.length() < LONG_SIZE) ? NO_CHECKPOINT_ID : control.readLong();
+        if (cpLoc != NO_CHECKPOINT_ID) {
+            LogRecord cp = readCheckpoint(cpLoc);
+            redoFrom = cp.begin;
+            start = cp.getRedoStart();
+            for (int i = 0; i < cp.tids.length; i++) {
+                a.losers.add(cp.tids[i]);
+                start = Math.min(start, cp.firsts[i]);
+            }
+            for (int i = 0; i < cp.recLsns.length; i++)
+                dirty.put(new HeapPageId(cp.dirtyTables[i], cp.dirtyPages[i]), cp.recLsns[i]);
+        }
+        a.end = start;
+
+        LogReader reader = new LogReader(start);
+        try {
+            LogRecord r;
+            while ((r = reader.next()) != null) {
+                switch (r.type) {
+                case UPDATE_RECORD:
+                    PageDelta d = r.getDelta();
+                    PageId pid = d.getPageId();
+                    Long recLsn = dirty.get(new HeapPageId(pid.getTableId(), pid.pageNumber()));
+                    boolean redo = r.lsn >= redoFrom || (recLsn != null && r.lsn >= recLsn);
+                    List<LoggedUpdate> l = a.pages.get(pid);
+                    if (l == null) {
+                        l = new ArrayList<LoggedUpdate>();
+                        a.pages.put(pid, l);
+                    }
+                    l.add(new LoggedUpdate(r.lsn, r.tid, d, redo));
+                    a.losers.add(r.tid);
+                    break;
+                case BEGIN_RECORD:
+                    a.losers.add(r.tid);
+                    break;
+                case COMMIT_RECORD:
+                case ABORT_RECORD:
+                    a.losers.remove(r.tid);
+                    break;
+                }
+                a.maxTid = Math.max(a.maxTid, r.tid);
+                a.records++;
+                a.end = r.end;
             }
-         }
+        } finally {
+            reader.close();
+        }
+        return a;
+    }
+
+    /**
+     * Redoes every page of the analysis on recoveryThreads threads.
+     * @return the redone images of the pages unfinished transactions
+     *     updated; they are left to undo, the others are written out
+     */
+    private Map<PageId, byte[]> redo(final Analysis a) throws IOException {
+        final Map<PageId, byte[]> loserPages = new ConcurrentHashMap<PageId, byte[]>();
+        final int n = Math.max(1, Math.min(recoveryThreads, a.pages.size()));
+        final List<List<PageId>> parts = new ArrayList<List<PageId>>();
+        for (int i = 0; i < n; i++)
+            parts.add(new ArrayList<PageId>());
+        for (PageId pid : a.pages.keySet())
+            parts.get((pid.hashCode() & 0x7fffffff) % n).add(pid);
+
+        final AtomicLong done = new AtomicLong();
+        ExecutorService workers = Executors.newFixedThreadPool(n, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "simpledb-redo");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        try {
+            List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (final List<PageId> part : parts) {
+                results.add(workers.submit(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        for (PageId pid : part) {
+                            redoPage(pid, a, loserPages);
+                            long d = done.incrementAndGet();
+                            if (d % PROGRESS_PAGES == 0)
+                                Debug.log("RECOVERY redo: %d of %d pages", d, a.pages.size());
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> f : results) {
+                try {
+                    f.get();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("recovery interrupted");
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException)
+                        throw (IOException) e.getCause();
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+        return loserPages;
+    }
+
+    private void redoPage(PageId pid, Analysis a, Map<PageId, byte[]> loserPages)
+            throws IOException {
+        List<LoggedUpdate> updates = a.pages.get(pid);
+        PageDelta first = updates.get(0).delta;
+        boolean loser = a.losers.contains(updates.get(updates.size() - 1).tid);
+        boolean redo = false;
+        for (LoggedUpdate u : updates)
+            redo |= u.redo;
+        if (!redo && !loser)
+            return; // on disk as of the checkpoint
+        DbFile file;
+        try {
+            file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        } catch (NoSuchElementException e) {
+            Debug.log("RECOVERY: skipping page of unknown table %d", pid.getTableId());
+            return;
+        }
+        byte[] data;
+        try {
+            data = file.readPage(pid).getPageData();
+        } catch (IllegalArgumentException e) {
+            // the page was appended, but did not reach the disk
+            data = new byte[first.getPageSize()];
+        }
+        for (LoggedUpdate u : updates) {
+            if (u.redo)
+                u.delta.redo(data);
+        }
+        if (loser) {
+            loserPages.put(pid, data);
+        } else {
+            file.writePage(first.newPage(data));
+            Database.getBufferPool().discardPage(pid);
+        }
+    }
+
+    /**
+     * Rolls back the unfinished transactions of the analysis, starting
+     * from the redone pages they updated.
+     */
+    private void undo(Analysis a, Map<PageId, byte[]> loserPages) throws IOException {
+        for (Map.Entry<PageId, byte[]> e : loserPages.entrySet()) {
+            PageId pid = e.getKey();
+            List<LoggedUpdate> updates = a.pages.get(pid);
+            // under strict two-phase locking, only the last writer of a
+            // page can be unfinished
+            long tid = updates.get(updates.size() - 1).tid;
+            byte[] data = e.getValue().clone();
+            for (int i = updates.size() - 1; i >= 0 && updates.get(i).tid == tid; i--)
+                updates.get(i).delta.undo(data);
+
+            PageDelta first = updates.get(0).delta;
+            Page restored = first.newPage(data);
+            logWrite(new TransactionId(tid), first.newPage(e.getValue()), restored);
+            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(restored);
+            Database.getBufferPool().discardPage(pid);
+        }
+        synchronized (this) {
+            for (long tid : a.losers) {
+                preAppend();
+                out.writeInt(ABORT_RECORD);
+                out.writeLong(tid);
+                endRecord(currentOffset);
+                tidToFirstLogRecord.remove(tid);
+            }
+            force();
+        }
     }
 
     /** Print out a human readable represenation of the log */
@@ -503,7 +1161,9 @@ public class LogFile {
         // some code goes here
     }
 
+    /** Writes the log buffer out and forces the log file to disk. */
     public  synchronized void force() throws IOException {
+        flushBuffer();
         raf.getChannel().force(true);
     }
 
@@ -35,6 +35,7 @@ public class LogicalPlan {
     private String aggField;
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
+    private int limit = -1;
     private String query;
 //    private Query owner;
 
@@ -81,6 +82,32 @@ public class LogicalPlan {
         return this.tableMap;
     }
 
+    /** @return true if field is the primary key of the table aliased as tableAlias */
+    private boolean isPkey(String tableAlias, String field) {
+        Integer id = getTableId(tableAlias);
+        return id != null && Database.getCatalog().getPrimaryKey(id).equals(field);
+    }
+
+    /**
+     * Estimates the cardinality of the subplan that name stands for
+     * while joins are being instantiated: that of the joins already built
+     * into it, or else that of its filtered base table.
+     *
+     * @return the estimate, or -1 if there are no stats to base it on
+     */
+    private int estimateSubplanCardinality(String name, Map<String,Integer> cardMap,
+            Map<String,TableStats> statsMap, Map<String,Double> filterSelectivities) {
+        Integer card = cardMap.get(name);
+        if (card != null)
+            return card;
+        Integer id = getTableId(name);
+        Double sel = filterSelectivities.get(name);
+        if (id == null || sel == null)
+            return -1;
+        TableStats s = statsMap.get(Database.getCatalog().getTableName(id));
+        return (s == null) ? -1 : s.estimateTableCardinality(sel);
+    }
+
     /** Add a new filter to the logical plan
      *   @param field The name of the over which the filter applies;
      *   this can be a fully qualified field (tablename.field or
@@ -216,6 +243,21 @@ public class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /** Add a LIMIT clause: return only the first n tuples of the ORDER BY.
+        @param n the number of tuples to return
+        @throws ParsingException if n is negative
+    */
+    public void setLimit(int n) throws ParsingException {
+        if (n < 0)
+            throw new ParsingException("Negative LIMIT " + n);
+        limit = n;
+    }
+
+    /** @return the count of the LIMIT clause, or -1 if there is none */
+    public int getLimit() {
+        return limit;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -348,6 +390,9 @@ public class LogicalPlan {
 
         joins = jo.orderJoins(statsMap,filterSelectivities,explain);
 
+        // estimated cardinalities of the joins built so far, by subplan
+        HashMap<String,Integer> cardMap = new HashMap<String,Integer>();
+
         Iterator<LogicalJoinNode> joinIt = joins.iterator();
         while (joinIt.hasNext()) {
             LogicalJoinNode lj = joinIt.next();
@@ -381,9 +426,21 @@ public class LogicalPlan {
             if (plan2 == null)
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
             
+            int card1 = estimateSubplanCardinality(t1name, cardMap, statsMap, filterSelectivities);
+            int card2 = isSubqueryJoin ? -1
+                : estimateSubplanCardinality(t2name, cardMap, statsMap, filterSelectivities);
+
             DbIterator j;
-            j = jo.instantiateJoin(lj,plan1,plan2);
+            j = jo.instantiateJoin(lj,plan1,plan2,card1,card2);
             subplanMap.put(t1name, j);
+            if (card1 >= 0 && card2 >= 0)
+                cardMap.put(t1name, JoinOptimizer.estimateTableJoinCardinality(lj.p,
+                        lj.t1Alias, lj.t2Alias, lj.f1PureName, lj.f2PureName,
+                        card1, card2, isPkey(lj.t1Alias, lj.f1PureName),
+                        isPkey(lj.t2Alias, lj.f2PureName), statsMap,
+                        getTableAliasToIdMapping()));
+            else
+                cardMap.put(t1name, -1);
 
             if (!isSubqueryJoin) {
                 subplanMap.remove(t2name);
@@ -474,8 +531,14 @@ public class LogicalPlan {
             node = aggNode;
         }
 
+        if (limit >= 0 && !hasOrderBy)
+            throw new ParsingException("LIMIT is only supported with ORDER BY");
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int oByIndex = node.getTupleDesc().fieldNameToIndex(oByField);
+            if (limit >= 0)
+                node = new TopN(oByIndex, oByAsc, limit, node);
+            else
+                node = new OrderBy(oByIndex, oByAsc, node);
         }
 
         return new Project(outFields, outTypes, node);
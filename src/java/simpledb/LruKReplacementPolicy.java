@@ -0,0 +1,135 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum). The policy remembers the
+ * times of the last K references to each page and evicts the resident page
+ * whose K-th most recent reference is the oldest. Pages referenced fewer
+ * than K times have an infinite backward K-distance and go first, oldest
+ * last reference first, so pages touched once by a scan are thrown out
+ * before pages with a history of repeated use.
+ * <p>
+ * Reference history is retained for a bounded number of pages that have
+ * left the pool, so a page that comes back quickly is recognized as hot.
+ */
+public class LruKReplacementPolicy extends AbstractReplacementPolicy {
+
+    /** Default number of references tracked per page. */
+    public static final int DEFAULT_K = 2;
+
+    private final int k;
+    private final int retainedHistory;
+    private long clock = 0;
+
+    /** Last K reference times of each resident page, most recent first. */
+    private final HashMap<PageId, long[]> resident = new HashMap<PageId, long[]>();
+
+    /** Reference times of recently evicted pages, oldest entry first. */
+    private final LinkedHashMap<PageId, long[]> evicted =
+        new LinkedHashMap<PageId, long[]>() {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<PageId, long[]> e) {
+                return size() > retainedHistory;
+            }
+        };
+
+    /**
+     * @param k the number of references to remember per page (at least 1;
+     *     K = 1 degenerates to plain LRU)
+     * @param retainedHistory how many evicted pages to keep history for
+     */
+    public LruKReplacementPolicy(int k, int retainedHistory) {
+        if (k < 1)
+            throw new IllegalArgumentException("K must be at least 1");
+        this.k = k;
+        this.retainedHistory = retainedHistory;
+    }
+
+    /** LRU-2 that keeps history for as many evicted pages as fit in the pool. */
+    public LruKReplacementPolicy(int numPages) {
+        this(DEFAULT_K, numPages);
+    }
+
+    protected void accessed(PageId pid) {
+        long[] history = resident.get(pid);
+        if (history == null) {
+            loaded(pid);
+            return;
+        }
+        reference(history);
+    }
+
+    protected void loaded(PageId pid) {
+        long[] history = resident.get(pid);
+        if (history == null) {
+            history = evicted.remove(pid);
+            if (history == null) {
+                history = new long[k];
+                Arrays.fill(history, -1);
+            }
+            resident.put(pid, history);
+        }
+        reference(history);
+    }
+
+    protected void restored(PageId pid) {
+        if (resident.containsKey(pid))
+            return;
+        long[] history = evicted.remove(pid);
+        if (history == null) {
+            history = new long[k];
+            Arrays.fill(history, -1);
+        }
+        resident.put(pid, history);
+    }
+
+    protected void removed(PageId pid) {
+        resident.remove(pid);
+    }
+
+    protected PageId victim() {
+        PageId victim = null;
+        long victimKth = Long.MAX_VALUE;
+        long victimLast = Long.MAX_VALUE;
+        for (Map.Entry<PageId, long[]> e : resident.entrySet()) {
+            long[] history = e.getValue();
+            long kth = history[k - 1];  // -1 (infinitely old) if < K references
+            long last = history[0];
+            if (kth < victimKth || (kth == victimKth && last < victimLast)) {
+                victim = e.getKey();
+                victimKth = kth;
+                victimLast = last;
+            }
+        }
+        if (victim != null) {
+            evicted.put(victim, resident.remove(victim));
+        }
+        return victim;
+    }
+
+    protected List<PageId> coldest(int n) {
+        ArrayList<Map.Entry<PageId, long[]>> entries =
+            new ArrayList<Map.Entry<PageId, long[]>>(resident.entrySet());
+        // same order as victim(): oldest K-th reference, then oldest last one
+        Collections.sort(entries, new Comparator<Map.Entry<PageId, long[]>>() {
+            public int compare(Map.Entry<PageId, long[]> a, Map.Entry<PageId, long[]> b) {
+                long[] ha = a.getValue();
+                long[] hb = b.getValue();
+                if (ha[k - 1] != hb[k - 1])
+                    return ha[k - 1] < hb[k - 1] ? -1 : 1;
+                return ha[0] < hb[0] ? -1 : (ha[0] == hb[0] ? 0 : 1);
+            }
+        });
+        ArrayList<PageId> pages = new ArrayList<PageId>(Math.min(n, entries.size()));
+        for (int i = 0; i < entries.size() && i < n; i++)
+            pages.add(entries.get(i).getKey());
+        return pages;
+    }
+
+    private void reference(long[] history) {
+        System.arraycopy(history, 0, history, 1, k - 1);
+        history[0] = clock++;
+    }
+}
@@ -0,0 +1,54 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Least-recently-used replacement: the victim is the resident page whose
+ * last access is the oldest. Simple and good for point lookups, but a single
+ * large scan can flush every hot page out of the pool.
+ */
+public class LruReplacementPolicy extends AbstractReplacementPolicy {
+
+    /** Resident pages, least recently used first. */
+    private final LinkedHashMap<PageId, Boolean> order =
+        new LinkedHashMap<PageId, Boolean>(16, 0.75f, true);
+
+    protected void accessed(PageId pid) {
+        if (order.get(pid) == null)
+            order.put(pid, Boolean.TRUE);
+    }
+
+    protected void loaded(PageId pid) {
+        order.put(pid, Boolean.TRUE);
+    }
+
+    protected void removed(PageId pid) {
+        order.remove(pid);
+    }
+
+    protected void restored(PageId pid) {
+        if (order.containsKey(pid))
+            return;
+        // back to the front, where the victim came from
+        LinkedHashMap<PageId, Boolean> rest = new LinkedHashMap<PageId, Boolean>(order);
+        order.clear();
+        order.put(pid, Boolean.TRUE);
+        order.putAll(rest);
+    }
+
+    protected PageId victim() {
+        Iterator<PageId> it = order.keySet().iterator();
+        if (!it.hasNext())
+            return null;
+        PageId pid = it.next();
+        it.remove();
+        return pid;
+    }
+
+    protected List<PageId> coldest(int n) {
+        ArrayList<PageId> pages = new ArrayList<PageId>(Math.min(n, order.size()));
+        for (Iterator<PageId> it = order.keySet().iterator(); it.hasNext() && pages.size() < n; )
+            pages.add(it.next());
+        return pages;
+    }
+}
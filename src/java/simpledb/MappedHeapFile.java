@@ -0,0 +1,122 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * MappedHeapFile is a read-only HeapFile that memory-maps its backing file
+ * and builds each HeapPage directly from a slice of the mapping. A page
+ * miss costs no read system call and no copy into a byte array, so tables
+ * that fit in the OS page cache are nearly free to page in. Meant for
+ * read-mostly tables such as bulk-loaded analytic data; select it for a
+ * table by ending its catalog line with <tt>mapped</tt>, e.g.
+ * <pre>
+ *     paperauths (paperid int, authorid int) mapped
+ * </pre>
+ * Inserts and deletes are rejected. If the file changes length (e.g. it
+ * was reloaded), it is mapped again on the next page read. Mappings are
+ * released by the garbage collector once the pages using them are gone;
+ * {@link #close} only drops this file's references to them.
+ *
+ * @see Catalog#loadSchema
+ */
+public class MappedHeapFile extends HeapFile {
+
+    /** Pages per mapped segment: one mapping may not exceed 2 GB. */
+    static final int SEGMENT_PAGES = (1 << 30) / BufferPool.PAGE_SIZE;
+
+    private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private long mappedLength = -1;
+
+    /**
+     * Constructs a memory-mapped heap file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this heap
+     *     file.
+     */
+    public MappedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        int pgNo = pid.pageNumber();
+        try {
+            MappedByteBuffer seg = getSegment(pgNo);
+            ByteBuffer page = seg.duplicate();
+            int off = (pgNo % SEGMENT_PAGES) * BufferPool.PAGE_SIZE;
+            page.position(off);
+            page.limit(off + BufferPool.PAGE_SIZE);
+            return new HeapPage((HeapPageId) pid, page.slice());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the mapped segment holding page pgNo, mapping the file (again)
+     * if it has not been mapped yet or has changed length since.
+     * @throws IllegalArgumentException if the page does not exist
+     */
+    private synchronized MappedByteBuffer getSegment(int pgNo) throws IOException {
+        long length = getFile().length();
+        if (pgNo < 0 || (long) (pgNo + 1) * BufferPool.PAGE_SIZE > length)
+            throw new IllegalArgumentException("page " + pgNo
+                    + " does not exist in " + getFile());
+        if (length != mappedLength) {
+            long segBytes = (long) SEGMENT_PAGES * BufferPool.PAGE_SIZE;
+            segments = new MappedByteBuffer[(int) ((length + segBytes - 1) / segBytes)];
+            mappedLength = length;
+        }
+        int s = pgNo / SEGMENT_PAGES;
+        if (segments[s] == null) {
+            long start = (long) s * SEGMENT_PAGES * BufferPool.PAGE_SIZE;
+            long size = Math.min((long) SEGMENT_PAGES * BufferPool.PAGE_SIZE,
+                    mappedLength - start);
+            RandomAccessFile raf = new RandomAccessFile(getFile(), "r");
+            try {
+                // the mapping stays valid after the channel is closed
+                segments[s] = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, start, size);
+            } finally {
+                raf.close();
+            }
+        }
+        return segments[s];
+    }
+
+    /**
+     * Memory-mapped tables are read-only.
+     * @throws IOException always
+     */
+    public void writePage(Page page) throws IOException {
+        throw new IOException("table " + getFile() + " is memory-mapped and read-only");
+    }
+
+    /**
+     * Memory-mapped tables are read-only.
+     * @throws DbException always
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        throw new DbException("table " + getFile() + " is memory-mapped and read-only");
+    }
+
+    /**
+     * Memory-mapped tables are read-only.
+     * @throws DbException always
+     */
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        throw new DbException("table " + getFile() + " is memory-mapped and read-only");
+    }
+
+    /** Drops the mappings of this file; they are recreated on the next read. */
+    public synchronized void close() throws IOException {
+        segments = new MappedByteBuffer[0];
+        mappedLength = -1;
+        super.close();
+    }
+}
@@ -3,18 +3,30 @@ package simpledb;
 import java.util.*;
 
 /**
- * OrderBy is an operator that implements a relational ORDER BY.
+ * OrderBy is an operator that implements a relational ORDER BY. The child
+ * is sorted with an {@link ExternalSort} within the operator's memory: if
+ * it does not fit, sorted runs are written to temporary files and merged
+ * as tuples are fetched, so the heap holds a bounded number of tuples
+ * however large the input is.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /**
+     * Default memory for the sort, in pages; set it with the system
+     * property simpledb.OrderBy.memoryPages.
+     */
+    public static final int DEFAULT_MEMORY_PAGES =
+        Integer.getInteger("simpledb.OrderBy.memoryPages", 256);
+
     private DbIterator child;
     private TupleDesc td;
-    private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
     private int orderByField;
     private String orderByFieldName;
-    private Iterator<Tuple> it;
     private boolean asc;
+    private int memoryPages = DEFAULT_MEMORY_PAGES;
+    transient private ExternalSort sort;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -49,28 +61,49 @@ public class OrderBy extends Operator {
 	return this.orderByFieldName;
     }
     
+    /**
+     * Sets the memory the sort may use; at least 3 pages are used, so that
+     * runs can be merged. Takes effect at the next open().
+     *
+     * @param memoryPages the memory in pages of BufferPool.getPageSize()
+     */
+    public void setMemoryPages(int memoryPages) {
+        if (memoryPages < 1)
+            throw new IllegalArgumentException("sort needs at least one page of memory");
+        this.memoryPages = memoryPages;
+    }
+
+    public int getMemoryPages() {
+        return memoryPages;
+    }
+
     public TupleDesc getTupleDesc() {
         return td;
     }
 
+    /** @return the number of sorted runs the last open() wrote to disk */
+    int getRunsWritten() {
+        return sort == null ? 0 : sort.getRunsWritten();
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
-        child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        sort = new ExternalSort(child, new TupleComparator(orderByField, asc),
+                                memoryPages);
+        sort.open();
         super.open();
     }
 
     public void close() {
         super.close();
-        it = null;
+        if (sort != null)
+            sort.close();
+        else
+            child.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        sort.rewind();
     }
 
     /**
@@ -82,8 +115,8 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        if (it != null && it.hasNext()) {
-            return it.next();
+        if (sort != null && sort.hasNext()) {
+            return sort.next();
         } else
             return null;
     }
@@ -99,25 +132,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
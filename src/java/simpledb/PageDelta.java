@@ -0,0 +1,223 @@
+package simpledb;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.Arrays;
+
+/**
+ * PageDelta is the change an UPDATE log record carries: the byte ranges in
+ * which the after image of a page differs from its before image, with the
+ * old and new bytes of each range. Applying the old bytes of a delta to a
+ * page undoes it; applying the new bytes redoes it.
+ * <p>
+ * Serialized, a delta is
+ * <ul>
+ * <li> a byte telling the page kind: HEAP_PAGE for a HeapPage with a
+ * HeapPageId, otherwise NAMED_PAGE followed by the page class name and
+ * the id class name as UTF strings
+ * <li> an integer count of id ints and the ints of PageId.serialize()
+ * <li> the integer page size
+ * <li> an integer count of ranges and, for each range, its integer offset
+ * and length followed by its before bytes and its after bytes
+ * </ul>
+ *
+ * @see LogFile#logWrite
+ */
+class PageDelta {
+
+    static final byte HEAP_PAGE = 0;
+    static final byte NAMED_PAGE = 1;
+
+    /**
+     * Ranges closer than this many bytes are merged; a separate range
+     * costs two ints of header.
+     */
+    static final int MERGE_GAP = 8;
+
+    private final String pageClass; // null for HEAP_PAGE
+    private final String idClass;
+    private final int[] idInts;
+    private final int pageSize;
+    private final int[] offsets;
+    private final byte[][] before;
+    private final byte[][] after;
+
+    private PageDelta(String pageClass, String idClass, int[] idInts, int pageSize,
+                      int[] offsets, byte[][] before, byte[][] after) {
+        this.pageClass = pageClass;
+        this.idClass = idClass;
+        this.idInts = idInts;
+        this.pageSize = pageSize;
+        this.offsets = offsets;
+        this.before = before;
+        this.after = after;
+    }
+
+    /**
+     * Computes the delta between two images of the same page.
+     */
+    static PageDelta diff(Page beforePage, Page afterPage) {
+        byte[] b = beforePage.getPageData();
+        byte[] a = afterPage.getPageData();
+        if (a.length != b.length)
+            throw new IllegalArgumentException("page images differ in size");
+
+        int[] starts = new int[8];
+        int[] ends = new int[8];
+        int n = 0;
+        int i = 0;
+        while (i < a.length) {
+            if (a[i] == b[i]) {
+                i++;
+                continue;
+            }
+            int start = i;
+            int end = i + 1;
+            // extend the range while the next difference is close enough
+            for (int j = end; j < a.length && j - end <= MERGE_GAP; j++) {
+                if (a[j] != b[j])
+                    end = j + 1;
+            }
+            if (n == starts.length) {
+                starts = Arrays.copyOf(starts, n * 2);
+                ends = Arrays.copyOf(ends, n * 2);
+            }
+            starts[n] = start;
+            ends[n] = end;
+            n++;
+            i = end;
+        }
+
+        int[] offsets = new int[n];
+        byte[][] before = new byte[n][];
+        byte[][] after = new byte[n][];
+        for (int r = 0; r < n; r++) {
+            offsets[r] = starts[r];
+            before[r] = Arrays.copyOfRange(b, starts[r], ends[r]);
+            after[r] = Arrays.copyOfRange(a, starts[r], ends[r]);
+        }
+
+        PageId pid = afterPage.getId();
+        boolean heap = (afterPage instanceof HeapPage) && (pid instanceof HeapPageId);
+        return new PageDelta(heap ? null : afterPage.getClass().getName(),
+                             heap ? null : pid.getClass().getName(),
+                             pid.serialize(), a.length, offsets, before, after);
+    }
+
+    /** @return the serialized delta */
+    byte[] toBytes() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            if (pageClass == null) {
+                out.writeByte(HEAP_PAGE);
+            } else {
+                out.writeByte(NAMED_PAGE);
+                out.writeUTF(pageClass);
+                out.writeUTF(idClass);
+            }
+            out.writeInt(idInts.length);
+            for (int v : idInts)
+                out.writeInt(v);
+            out.writeInt(pageSize);
+            out.writeInt(offsets.length);
+            for (int r = 0; r < offsets.length; r++) {
+                out.writeInt(offsets[r]);
+                out.writeInt(before[r].length);
+                out.write(before[r]);
+                out.write(after[r]);
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e); // cannot happen in memory
+        }
+    }
+
+    /** Reads a delta written by toBytes. */
+    static PageDelta read(DataInput in) throws IOException {
+        String pageClass = null;
+        String idClass = null;
+        byte kind = in.readByte();
+        if (kind == NAMED_PAGE) {
+            pageClass = in.readUTF();
+            idClass = in.readUTF();
+        } else if (kind != HEAP_PAGE) {
+            throw new IOException("bad page kind in update record: " + kind);
+        }
+        int[] idInts = new int[in.readInt()];
+        for (int i = 0; i < idInts.length; i++)
+            idInts[i] = in.readInt();
+        int pageSize = in.readInt();
+        int n = in.readInt();
+        int[] offsets = new int[n];
+        byte[][] before = new byte[n][];
+        byte[][] after = new byte[n][];
+        for (int r = 0; r < n; r++) {
+            offsets[r] = in.readInt();
+            int len = in.readInt();
+            before[r] = new byte[len];
+            in.readFully(before[r]);
+            after[r] = new byte[len];
+            in.readFully(after[r]);
+        }
+        return new PageDelta(pageClass, idClass, idInts, pageSize, offsets, before, after);
+    }
+
+    /** @return the size of the page */
+    int getPageSize() {
+        return pageSize;
+    }
+
+    /** @return the number of changed ranges */
+    int getNumRanges() {
+        return offsets.length;
+    }
+
+    /** @return the id of the page the delta changes */
+    PageId getPageId() throws IOException {
+        if (pageClass == null)
+            return new HeapPageId(idInts[0], idInts[1]);
+        try {
+            Constructor<?>[] idConsts = Class.forName(idClass).getDeclaredConstructors();
+            Object[] idArgs = new Object[idInts.length];
+            for (int i = 0; i < idInts.length; i++)
+                idArgs[i] = Integer.valueOf(idInts[i]);
+            return (PageId) idConsts[0].newInstance(idArgs);
+        } catch (Exception e) {
+            throw new IOException("cannot create page id " + idClass + ": " + e);
+        }
+    }
+
+    /** Puts the before bytes of every range into data. */
+    void undo(byte[] data) {
+        apply(data, before);
+    }
+
+    /** Puts the after bytes of every range into data. */
+    void redo(byte[] data) {
+        apply(data, after);
+    }
+
+    private void apply(byte[] data, byte[][] bytes) {
+        if (data.length != pageSize)
+            throw new IllegalArgumentException("page is " + data.length
+                    + " bytes, delta expects " + pageSize);
+        for (int r = 0; r < offsets.length; r++)
+            System.arraycopy(bytes[r], 0, data, offsets[r], bytes[r].length);
+    }
+
+    /** @return a page of the delta's kind holding data */
+    Page newPage(byte[] data) throws IOException {
+        PageId pid = getPageId();
+        if (pageClass == null)
+            return new HeapPage((HeapPageId) pid, data);
+        try {
+            Constructor<?> pageConst = Class.forName(pageClass)
+                .getDeclaredConstructor(pid.getClass(), byte[].class);
+            return (Page) pageConst.newInstance(pid, data);
+        } catch (Exception e) {
+            throw new IOException("cannot create page " + pageClass + ": " + e);
+        }
+    }
+}
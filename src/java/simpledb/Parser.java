@@ -4,6 +4,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -12,6 +14,67 @@ import jline.SimpleCompletor;
 public class Parser {
     static boolean explain = false;
 
+    /** A LIMIT clause at the end of a statement; Zql does not parse LIMIT. */
+    private static final Pattern LIMIT_CLAUSE = Pattern.compile(
+            "\\s+LIMIT\\s+(\\d+)\\s*$", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * @return the index of the ';' that ends the first statement in s,
+     *     skipping any inside string literals, or s.length() if there is none
+     */
+    static int statementEnd(String s) {
+        boolean quoted = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\'')
+                quoted = !quoted;
+            else if (c == ';' && !quoted)
+                return i;
+        }
+        return s.length();
+    }
+
+    /**
+     * @return a matcher positioned on the LIMIT clause that ends the first
+     *     statement in s, or null if that statement has none
+     */
+    private static Matcher limitClause(String s) {
+        String first = s.substring(0, statementEnd(s));
+        Matcher m = LIMIT_CLAUSE.matcher(first);
+        if (!m.find())
+            return null;
+        // an unclosed literal would swallow the clause
+        int quotes = 0;
+        for (int i = 0; i < m.start(); i++)
+            if (first.charAt(i) == '\'')
+                quotes++;
+        return (quotes % 2 == 0) ? m : null;
+    }
+
+    /**
+     * @return the count of the LIMIT clause that ends the first statement
+     *     in s, or -1 if it has none
+     */
+    static int parseLimit(String s) throws simpledb.ParsingException {
+        Matcher m = limitClause(s);
+        if (m == null)
+            return -1;
+        try {
+            return Integer.parseInt(m.group(1));
+        } catch (NumberFormatException e) {
+            throw new simpledb.ParsingException("LIMIT " + m.group(1)
+                    + " is too large");
+        }
+    }
+
+    /** @return s without the LIMIT clause found by {@link #parseLimit} */
+    static String removeLimit(String s) {
+        Matcher m = limitClause(s);
+        if (m == null)
+            return s;
+        return s.substring(0, m.start()) + s.substring(m.end());
+    }
+
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
             return Predicate.Op.EQUALS;
@@ -276,10 +339,22 @@ public class Parser {
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
+        return handleQueryStatement(s, tId, -1);
+    }
+
+    /**
+     * Plans and returns a query for s that returns its first limit tuples,
+     * or all of them if limit is -1.
+     */
+    public Query handleQueryStatement(ZQuery s, TransactionId tId, int limit)
+            throws TransactionAbortedException, DbException, IOException,
+            simpledb.ParsingException, Zql.ParseException {
         // and run it
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        if (limit >= 0)
+            lp.setLimit(limit);
         DbIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -466,12 +541,15 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        int limit = parseLimit(s);
+        ByteArrayInputStream bis = new ByteArrayInputStream(removeLimit(s).getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
                 LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                if (limit >= 0)
+                    lp.setLimit(limit);
                 return lp;
             }
         } catch (Zql.ParseException e) {
@@ -504,8 +582,21 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            // take off a LIMIT clause before Zql sees the statement
+            ByteArrayOutputStream text = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = is.read(buf)) > 0)
+                text.write(buf, 0, n);
+            String statement = text.toString("UTF-8");
+            int limit = parseLimit(statement);
+
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(
+                    removeLimit(statement).getBytes("UTF-8")));
             ZStatement s = p.readStatement();
+            if (limit >= 0 && !(s instanceof ZQuery))
+                throw new simpledb.ParsingException(
+                        "LIMIT is only supported in queries");
 
             Query query = null;
             if (s instanceof ZTransactStmt)
@@ -526,7 +617,7 @@ public class Parser {
                                 curtrans.getId());
                     else if (s instanceof ZQuery)
                         query = handleQueryStatement((ZQuery) s,
-                                curtrans.getId());
+                                curtrans.getId(), limit);
                     else {
                         System.out
                                 .println("Can't parse "
@@ -582,7 +673,7 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "limit" };
 
     public static void main(String argv[]) throws IOException {
 
@@ -599,6 +690,7 @@ public class Parser {
     static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
 
     protected void shutdown() {
+        Database.shutdown();
         System.out.println("Bye");
     }
 
@@ -0,0 +1,163 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Prefetcher watches the page requests a BufferPool receives and, once a
+ * transaction reads consecutive pages of a table, starts loading the next
+ * pages of that table in the background. A scan then finds the page it
+ * needs next already resident (or in flight) instead of stalling on a
+ * synchronous read for every page miss.
+ * <p>
+ * A stream is one transaction reading one table. A request for page n of
+ * a stream whose previous request was page n-1 counts as sequential and
+ * schedules pages up to n+depth that are neither resident nor already
+ * being loaded. Scans that use a ring ({@link BufferAccessStrategy}) read
+ * ahead at most ringSize-1 pages, so prefetched pages never push out
+ * pages the scan has not consumed yet.
+ *
+ * @see BufferPool#setPrefetcher
+ * @Threadsafe
+ */
+public class Prefetcher {
+
+    /**
+     * Default number of pages read ahead; set it with the system property
+     * simpledb.Prefetcher.depth (0 disables prefetching).
+     */
+    public static final int DEFAULT_DEPTH =
+        Integer.getInteger("simpledb.Prefetcher.depth", 4);
+
+    /**
+     * Number of threads of the shared default executor; set it with the
+     * system property simpledb.Prefetcher.threads.
+     */
+    public static final int DEFAULT_THREADS =
+        Integer.getInteger("simpledb.Prefetcher.threads", 2);
+
+    /** Streams tracked at once; the least recently used one is dropped. */
+    private static final int MAX_STREAMS = 64;
+
+    private static ExecutorService defaultExecutor;
+
+    private final int depth;
+    private final Executor executor;
+
+    /** Per stream: the last requested page and the furthest page scheduled. */
+    private final LinkedHashMap<Stream, int[]> streams =
+        new LinkedHashMap<Stream, int[]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<Stream, int[]> e) {
+                return size() > MAX_STREAMS;
+            }
+        };
+
+    /**
+     * Creates a prefetcher that reads depth pages ahead on the given executor.
+     *
+     * @param depth the number of pages to keep ahead of a sequential scan
+     * @param executor runs the background page loads
+     */
+    public Prefetcher(int depth, Executor executor) {
+        this.depth = depth;
+        this.executor = executor;
+    }
+
+    /**
+     * Creates a prefetcher that reads depth pages ahead on a daemon thread
+     * pool shared by all default prefetchers.
+     */
+    public Prefetcher(int depth) {
+        this(depth, getDefaultExecutor());
+    }
+
+    /** @return the number of pages read ahead of a sequential scan */
+    public int getDepth() {
+        return depth;
+    }
+
+    private static synchronized ExecutorService getDefaultExecutor() {
+        if (defaultExecutor == null) {
+            defaultExecutor = Executors.newFixedThreadPool(DEFAULT_THREADS,
+                new ThreadFactory() {
+                    private int count = 0;
+
+                    public synchronized Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "simpledb-prefetch-" + count++);
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        }
+        return defaultExecutor;
+    }
+
+    /**
+     * Called by the BufferPool for every page request. Schedules read-ahead
+     * if the request continues a sequential stream.
+     *
+     * @param pool the pool that received the request
+     * @param tid the requesting transaction
+     * @param pid the requested page
+     * @param strategy the ring of the requesting scan, or null
+     */
+    void pageRequested(BufferPool pool, TransactionId tid, PageId pid,
+            BufferAccessStrategy strategy) {
+        int ahead = depth;
+        if (strategy != null)
+            ahead = Math.min(ahead, strategy.getRingSize() - 1);
+        if (ahead <= 0)
+            return;
+
+        int pgNo = pid.pageNumber();
+        int from, to;
+        synchronized (this) {
+            Stream key = new Stream(tid, pid.getTableId());
+            int[] state = streams.get(key);
+            if (state == null || state[0] != pgNo - 1) {
+                // not (yet) sequential: start a new run at this page
+                streams.put(key, new int[] { pgNo, pgNo });
+                return;
+            }
+            state[0] = pgNo;
+            from = Math.max(pgNo + 1, state[1] + 1);
+            to = pgNo + ahead;
+            if (from > to)
+                return;
+            state[1] = to;
+        }
+
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        if (!(file instanceof HeapFile))
+            return;
+        to = Math.min(to, ((HeapFile) file).numPages() - 1);
+        for (int i = from; i <= to; i++)
+            pool.prefetchPage(new HeapPageId(pid.getTableId(), i), strategy, executor);
+    }
+
+    /** Identifies a sequential stream: one transaction reading one table. */
+    private static class Stream {
+        private final TransactionId tid;
+        private final int tableId;
+
+        Stream(TransactionId tid, int tableId) {
+            this.tid = tid;
+            this.tableId = tableId;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Stream))
+                return false;
+            Stream other = (Stream) o;
+            return tableId == other.tableId
+                && (tid == null ? other.tid == null
+                    : other.tid != null && tid.equals(other.tid));
+        }
+
+        public int hashCode() {
+            return 31 * tableId + (tid == null ? 0 : tid.hashCode());
+        }
+    }
+}
@@ -8,7 +8,6 @@ import simpledb.TupleDesc.TDItem;
 public class QueryPlanVisualizer {
 
     static final String JOIN = "⨝";
-    static final String HASH_JOIN = "⨝(hash)";
     static final String SELECT = "σ";
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
@@ -17,6 +16,31 @@ public class QueryPlanVisualizer {
     static final String GROUPBY = "g";
     static final String SPACE = "  ";
 
+    private static boolean isJoin(DbIterator o) {
+        return o instanceof Join || o instanceof HashEquiJoin
+            || o instanceof SortMergeJoin;
+    }
+
+    /** @return the symbol a join is drawn with, followed by its algorithm */
+    private static String joinLabel(DbIterator j) {
+        JoinOptimizer.JoinAlgorithm a;
+        if (j instanceof HashEquiJoin)
+            a = ((HashEquiJoin) j).getAlgorithm();
+        else if (j instanceof SortMergeJoin)
+            a = ((SortMergeJoin) j).getAlgorithm();
+        else
+            a = ((Join) j).getAlgorithm();
+        return JOIN + "(" + a + ")";
+    }
+
+    private static JoinPredicate joinPredicate(DbIterator j) {
+        if (j instanceof HashEquiJoin)
+            return ((HashEquiJoin) j).getJoinPredicate();
+        if (j instanceof SortMergeJoin)
+            return ((SortMergeJoin) j).getJoinPredicate();
+        return ((Join) j).getJoinPredicate();
+    }
+
     private int calculateQueryPlanTreeDepth(DbIterator root) {
         if (root == null)
             return 0;
@@ -26,7 +50,7 @@ public class QueryPlanVisualizer {
         Operator o = (Operator) root;
         DbIterator[] children = o.getChildren();
 
-        if (o instanceof Join || o instanceof HashEquiJoin) {
+        if (isJoin(o)) {
             int d1 = this.calculateQueryPlanTreeDepth(children[0]);
             int d2 = this.calculateQueryPlanTreeDepth(children[1]);
             return Math.max(d1, d2) + 3;
@@ -107,18 +131,18 @@ public class QueryPlanVisualizer {
             Operator plan = (Operator) queryPlan;
             DbIterator[] children = plan.getChildren();
 
-            if (plan instanceof Join) {
-                Join j = (Join) plan;
-                TupleDesc td = j.getTupleDesc();
-                JoinPredicate jp = j.getJoinPredicate();
+            if (isJoin(plan)) {
+                String label = joinLabel(plan);
+                TupleDesc td = plan.getTupleDesc();
+                JoinPredicate jp = joinPredicate(plan);
                 String field1 = td.getFieldName(jp.getField1());
                 String field2 = td.getFieldName(jp.getField2()
                         + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", JOIN,
-                        field1 + jp.getOperator() + field2,j.getEstimatedCardinality());
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", label,
+                        field1 + jp.getOperator() + field2,plan.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
-                if (JOIN.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = JOIN.length() / 2;
+                if (label.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = label.length() / 2;
 
                 SubTreeDescriptor left = this.buildTree(queryPlanDepth,
                         currentDepth + adjustDepth + 3, children[0],
@@ -128,35 +152,7 @@ public class QueryPlanVisualizer {
                         currentStartPosition + left.width + SPACE.length(), 0);
                 thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - JOIN.length() / 2;
-                thisNode.width = Math.max(
-                        left.width + right.width + SPACE.length(),
-                        thisNode.textStartPosition + thisNode.text.length()
-                                - currentStartPosition);
-                thisNode.leftChild = left;
-                thisNode.rightChild = right;
-                thisNode.height = currentDepth;
-            } else if (plan instanceof HashEquiJoin) {
-                HashEquiJoin j = (HashEquiJoin) plan;
-                JoinPredicate jp = j.getJoinPredicate();
-                TupleDesc td = j.getTupleDesc();
-                String field1 = td.getFieldName(jp.getField1());
-                String field2 = td.getFieldName(jp.getField2()
-                        + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", HASH_JOIN, field1
-                        + jp.getOperator() + field2,j.getEstimatedCardinality());
-                int upBarShift = parentUpperBarStartShift;
-                if (HASH_JOIN.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = HASH_JOIN.length() / 2;
-                SubTreeDescriptor left = this.buildTree(queryPlanDepth,
-                        currentDepth + 3 + adjustDepth, children[0],
-                        currentStartPosition, upBarShift);
-                SubTreeDescriptor right = this.buildTree(queryPlanDepth,
-                        currentDepth + 3 + adjustDepth, children[1],
-                        currentStartPosition + left.width + SPACE.length(), 0);
-                thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
-                thisNode.textStartPosition = thisNode.upBarPosition
-                        - HASH_JOIN.length() / 2;
+                        - label.length() / 2;
                 thisNode.width = Math.max(
                         left.width + right.width + SPACE.length(),
                         thisNode.textStartPosition + thisNode.text.length()
@@ -217,13 +213,19 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
-            } else if (plan instanceof OrderBy) {
-                OrderBy o = (OrderBy) plan;
+            } else if (plan instanceof OrderBy || plan instanceof TopN) {
+                String key;
+                if (plan instanceof TopN) {
+                    TopN o = (TopN) plan;
+                    key = children[0].getTupleDesc().getFieldName(
+                            o.getOrderByField()) + ",limit " + o.getLimit();
+                } else {
+                    key = children[0].getTupleDesc().getFieldName(
+                            ((OrderBy) plan).getOrderByField());
+                }
                 thisNode.text = String.format(
                         "%1$s(%2$s),card:%3$d",
-                        ORDERBY,
-                        children[0].getTupleDesc().getFieldName(
-                                o.getOrderByField()),o.getEstimatedCardinality());
+                        ORDERBY, key, plan.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
                 if (ORDERBY.length() / 2 > parentUpperBarStartShift)
                     upBarShift = ORDERBY.length() / 2;
@@ -0,0 +1,70 @@
+package simpledb;
+
+import java.util.List;
+
+/**
+ * ReplacementPolicy decides which resident page the BufferPool gives up when
+ * it needs a free frame. The BufferPool reports every hit, every page it
+ * loads from disk, and every page it drops for another reason (discard,
+ * rollback); the policy answers with a victim when asked.
+ * <p>
+ * Each policy also keeps hit/miss/eviction counters, so that the policies
+ * can be compared under the same workload.
+ *
+ * @see BufferPool#BufferPool(int, ReplacementPolicy)
+ * @Threadsafe
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Record a hit: the page was already resident when it was requested.
+     */
+    public void pageAccessed(PageId pid);
+
+    /**
+     * Record a miss: the page was just read from disk into a free frame.
+     */
+    public void pageLoaded(PageId pid);
+
+    /**
+     * Forget a resident page that left the pool without being picked as a
+     * victim (e.g. it was discarded). Unknown pages are ignored.
+     */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Track again a victim returned by chooseVictim that could not be
+     * evicted after all (e.g. writing it failed). The page keeps the place
+     * and history it had; this is neither a hit nor a miss, and it takes
+     * back the eviction.
+     */
+    public void pageRestored(PageId pid);
+
+    /**
+     * Pick a resident page to evict and stop tracking it.
+     *
+     * @return the victim, or null if no page is being tracked
+     */
+    public PageId chooseVictim();
+
+    /**
+     * Peek at the pages the policy would pick next, without evicting or
+     * touching them.
+     *
+     * @param n the number of pages wanted
+     * @return up to n resident pages, the next victim first
+     */
+    public List<PageId> coldestPages(int n);
+
+    /** @return the number of requests served from a resident page */
+    public long getHitCount();
+
+    /** @return the number of requests that had to read the page from disk */
+    public long getMissCount();
+
+    /** @return the number of victims handed out by chooseVictim */
+    public long getEvictionCount();
+
+    /** Set the hit, miss and eviction counters back to zero. */
+    public void resetCounters();
+}
@@ -43,8 +43,8 @@ public class SimpleDb {
                     fieldSeparator=args[4].charAt(0);
             }
 
-            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
-                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
+            new BulkLoader(new TupleDesc(ts), fieldSeparator, BulkLoader.DEFAULT_THREADS)
+                .convert(sourceTxtFile, targetDatFile);
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
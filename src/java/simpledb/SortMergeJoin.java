@@ -0,0 +1,358 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * The SortMergeJoin operator implements the relational join for equality
+ * and band predicates (<, <=, >, >=) by merging its children sorted on
+ * their join fields. A child that is already ordered on its join field,
+ * such as an ascending OrderBy, is used as it is; any other child is sorted
+ * with an external sort within the join's memory.
+ * <p>
+ * For equality, the two sorted inputs are read once, side by side, and
+ * only the run of child2 tuples with the current key is kept in memory.
+ * For a band predicate, the tuples that one tuple of the outer side joins
+ * with are a prefix of the other, sorted side: for > and >= the outer side
+ * is child1, for < and <= it is child2. The prefix only grows from one
+ * outer tuple to the next, so the inner side is read once: the prefix read
+ * so far is kept, in memory up to half the join's memory and in a
+ * temporary file past that, and each outer tuple reads it back from there
+ * before it extends it. The work is proportional to the size of the output.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Default memory for sorting the children, in pages; set it with the
+     * system property simpledb.SortMergeJoin.memoryPages.
+     */
+    public static final int DEFAULT_MEMORY_PAGES =
+        Integer.getInteger("simpledb.SortMergeJoin.memoryPages", 256);
+
+    private JoinPredicate pred;
+    private DbIterator child1, child2;
+    private TupleDesc comboTD;
+    private int memoryPages = DEFAULT_MEMORY_PAGES;
+
+    // the children in join field order
+    transient private DbIterator left, right;
+    transient private int numSorts;
+
+    // equality: the current child1 tuple, the child2 tuples with its key
+    // and the first child2 tuple past them
+    transient private Tuple t1;
+    transient private ArrayList<Tuple> group;
+    transient private Field groupKey;
+    transient private int groupIndex;
+    transient private Tuple lookahead;
+
+    // band: the current outer tuple, which joins with a prefix of inner;
+    // the prefix read so far is in prefix and then in prefixFile, and
+    // innerNext is the inner tuple after it
+    transient private boolean leftOuter;
+    transient private DbIterator outer, inner;
+    transient private Tuple outerTuple;
+    transient private ArrayList<Tuple> prefix;
+    transient private int prefixMemory;
+    transient private int prefixIndex;
+    transient private TupleFile prefixFile;
+    transient private DbIterator prefixReader;
+    transient private Tuple innerNext;
+
+    /**
+     * Constructor. Accepts to children to join and the predicate to join them
+     * on
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator must
+     *            be one that {@link #supports} accepts
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        if (!supports(p.getOperator()))
+            throw new IllegalArgumentException("sort-merge join cannot join on "
+                    + p.getOperator());
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return true if a sort-merge join can evaluate op: equality and the
+     *     four ordering comparisons, but not LIKE or NOT_EQUALS
+     */
+    public static boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS
+            || op == Predicate.Op.LESS_THAN || op == Predicate.Op.LESS_THAN_OR_EQ
+            || op == Predicate.Op.GREATER_THAN || op == Predicate.Op.GREATER_THAN_OR_EQ;
+    }
+
+    /**
+     * @return true if it is known that it returns its tuples in ascending
+     *     order of field, so that they need not be sorted again
+     */
+    public static boolean isOrderedOn(DbIterator it, int field) {
+        if (it instanceof OrderBy) {
+            OrderBy o = (OrderBy) it;
+            return o.isASC() && o.getOrderByField() == field;
+        }
+        if (it instanceof Filter)
+            return isOrderedOn(((Filter) it).getChildren()[0], field);
+        if (it instanceof SortMergeJoin) {
+            // the output follows the outer side
+            SortMergeJoin j = (SortMergeJoin) it;
+            Predicate.Op op = j.pred.getOperator();
+            int field2 = j.child1.getTupleDesc().numFields() + j.pred.getField2();
+            if (op == Predicate.Op.EQUALS)
+                return field == j.pred.getField1() || field == field2;
+            if (op == Predicate.Op.GREATER_THAN || op == Predicate.Op.GREATER_THAN_OR_EQ)
+                return field == j.pred.getField1();
+            return field == field2;
+        }
+        return false;
+    }
+
+    /**
+     * Sets the memory the join may use to sort its children, split between
+     * the two. Takes effect at the next open().
+     *
+     * @param memoryPages the memory in pages of BufferPool.getPageSize()
+     */
+    public void setMemoryPages(int memoryPages) {
+        if (memoryPages < 1)
+            throw new IllegalArgumentException("join needs at least one page of memory");
+        this.memoryPages = memoryPages;
+    }
+
+    public int getMemoryPages() {
+        return memoryPages;
+    }
+
+    /** @return the algorithm this operator runs a join with */
+    public JoinOptimizer.JoinAlgorithm getAlgorithm() {
+        return JoinOptimizer.JoinAlgorithm.SORT_MERGE;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    /** @return the number of children the last open() had to sort */
+    int getNumSorts() {
+        return numSorts;
+    }
+
+    private DbIterator sortedOn(DbIterator child, int field) {
+        if (isOrderedOn(child, field))
+            return child;
+        numSorts++;
+        return new ExternalSort(child, new TupleComparator(field, true),
+                                Math.max(3, memoryPages / 2));
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        numSorts = 0;
+        left = sortedOn(child1, pred.getField1());
+        right = sortedOn(child2, pred.getField2());
+        left.open();
+        right.open();
+        super.open();
+        reset();
+    }
+
+    private void reset() throws DbException, TransactionAbortedException {
+        t1 = null;
+        group = new ArrayList<Tuple>();
+        groupKey = null;
+        groupIndex = 0;
+        lookahead = null;
+
+        Predicate.Op op = pred.getOperator();
+        if (op == Predicate.Op.EQUALS)
+            return;
+        leftOuter = op == Predicate.Op.GREATER_THAN || op == Predicate.Op.GREATER_THAN_OR_EQ;
+        outer = leftOuter ? left : right;
+        inner = leftOuter ? right : left;
+        outerTuple = null;
+        prefix = new ArrayList<Tuple>();
+        prefixMemory = Join.blockTuples(inner.getTupleDesc(), Math.max(1, memoryPages / 2));
+        prefixIndex = 0;
+        deletePrefixFile();
+        innerNext = inner.hasNext() ? inner.next() : null;
+    }
+
+    private void deletePrefixFile() {
+        if (prefixFile != null) {
+            prefixReader.close();
+            prefixFile.delete();
+            prefixFile = null;
+            prefixReader = null;
+        }
+    }
+
+    public void close() {
+        super.close();
+        (left != null ? left : child1).close();
+        (right != null ? right : child2).close();
+        left = null;
+        right = null;
+        outer = null;
+        inner = null;
+        group = null;
+        prefix = null;
+        deletePrefixFile();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        left.rewind();
+        right.rewind();
+        reset();
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        int td1n = t1.getTupleDesc().numFields();
+        int td2n = t2.getTupleDesc().numFields();
+
+        // set fields in combined tuple
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < td2n; i++)
+            t.setField(td1n + i, t2.getField(i));
+        return t;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. The tuples come in the order of the join field of child1
+     * for equality and for > and >=, and of child2 for < and <=.
+     * <p>
+     * As for Join, the tuples returned are the concatenation of joining
+     * tuples from the left and right relation.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (pred.getOperator() == Predicate.Op.EQUALS)
+            return nextEqual();
+        return nextBand();
+    }
+
+    private Tuple nextEqual() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (t1 != null && groupIndex < group.size())
+                return merge(t1, group.get(groupIndex++));
+            if (!left.hasNext())
+                return null;
+            t1 = left.next();
+            groupIndex = 0;
+            Field key = t1.getField(pred.getField1());
+            if (groupKey != null && key.compare(Predicate.Op.EQUALS, groupKey))
+                continue;
+
+            // advance child2 to the run of tuples with the new key
+            group.clear();
+            groupKey = null;
+            while (lookahead != null || right.hasNext()) {
+                Tuple r = (lookahead != null) ? lookahead : right.next();
+                lookahead = null;
+                Field rk = r.getField(pred.getField2());
+                if (rk.compare(Predicate.Op.LESS_THAN, key))
+                    continue;
+                if (!rk.compare(Predicate.Op.EQUALS, key)) {
+                    lookahead = r;
+                    break;
+                }
+                group.add(r);
+            }
+            if (!group.isEmpty())
+                groupKey = key;
+        }
+    }
+
+    private boolean matches(Tuple o, Tuple i) {
+        return leftOuter ? pred.filter(o, i) : pred.filter(i, o);
+    }
+
+    private Tuple band(Tuple i) {
+        return leftOuter ? merge(outerTuple, i) : merge(i, outerTuple);
+    }
+
+    /** Adds i, the inner tuple after the prefix, to the prefix. */
+    private void extendPrefix(Tuple i) throws DbException {
+        if (prefix.size() < prefixMemory) {
+            prefix.add(i);
+            return;
+        }
+        try {
+            if (prefixFile == null) {
+                prefixFile = new TupleFile(inner.getTupleDesc());
+                prefixReader = prefixFile.iterator();
+            }
+            prefixFile.add(i);
+        } catch (IOException e) {
+            throw new DbException("cannot spill sort-merge join prefix: " + e);
+        }
+    }
+
+    private Tuple nextBand() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (outerTuple != null) {
+                // the prefix the previous outer tuples joined with ...
+                if (prefixIndex < prefix.size())
+                    return band(prefix.get(prefixIndex++));
+                if (prefixReader != null && prefixReader.hasNext())
+                    return band(prefixReader.next());
+                // ... and the inner tuples this one adds to it
+                if (innerNext != null && matches(outerTuple, innerNext)) {
+                    Tuple i = innerNext;
+                    extendPrefix(i);
+                    // not to be read back for this outer tuple
+                    prefixIndex = prefix.size();
+                    innerNext = inner.hasNext() ? inner.next() : null;
+                    return band(i);
+                }
+                outerTuple = null;
+            }
+            if (prefix.isEmpty() && innerNext == null)
+                return null;
+            if (!outer.hasNext())
+                return null;
+            outerTuple = outer.next();
+            prefixIndex = 0;
+            if (prefixReader != null)
+                prefixReader.rewind();
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
@@ -1,5 +1,6 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 import java.util.Iterator;
 import java.util.Map;
@@ -171,6 +172,31 @@ public class TableStats {
                 dbIter.close();
         }
 
+        //release the read locks taken by the scans
+        try {
+                Database.getBufferPool().transactionComplete(tid);
+        } catch (IOException e) {
+                e.printStackTrace();
+        }
+    }
+
+    /**
+     * Create a TableStats object from statistics gathered elsewhere, e.g.
+     * while a table was bulk loaded.
+     *
+     * @param file the table the statistics describe
+     * @param ioCostPerPage the cost per page of IO
+     * @param numTuples the number of tuples in the table
+     * @param histograms the histogram of each column by field name: an
+     *            IntHistogram for int columns, a StringHistogram otherwise
+     * @see BulkLoader#load
+     */
+    TableStats(DbFile file, int ioCostPerPage, int numTuples, Map<String, Object> histograms) {
+        this.ioCostPerPage = ioCostPerPage;
+        this.tableid = file.getId();
+        this.dbFile = file;
+        this.numTuples = numTuples;
+        this.histograms = histograms;
     }
 
     /**
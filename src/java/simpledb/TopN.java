@@ -0,0 +1,157 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN is an operator that implements ORDER BY ... LIMIT n: it returns the
+ * first n tuples of its child in the order of one field, as an OrderBy
+ * followed by a cut-off would, without sorting the whole child.
+ * <p>
+ * open() reads the child once and keeps the best n tuples seen so far in a
+ * bounded priority queue whose head is the worst of them; a new tuple only
+ * goes in if it beats the head, which it then replaces. That takes
+ * O(input * log n) time and holds at most n tuples. Tuples that compare equal
+ * are returned in the order the child returned them, as OrderBy does.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator child;
+    private TupleDesc td;
+    private int orderByField;
+    private String orderByFieldName;
+    private boolean asc;
+    private int limit;
+
+    // the best tuples, in order
+    transient private ArrayList<Tuple> top;
+    transient private int index;
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param limit
+     *            the number of tuples to return, at least 0.
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int orderbyField, boolean asc, int limit, DbIterator child) {
+        if (limit < 0)
+            throw new IllegalArgumentException("negative limit " + limit);
+        this.child = child;
+        td = child.getTupleDesc();
+        this.orderByField = orderbyField;
+        this.orderByFieldName = td.getFieldName(orderbyField);
+        this.asc = asc;
+        this.limit = limit;
+    }
+
+    public boolean isASC() {
+        return asc;
+    }
+
+    public int getOrderByField() {
+        return orderByField;
+    }
+
+    public String getOrderFieldName() {
+        return orderByFieldName;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** A tuple in the queue, with its position in the child's output. */
+    private static final class Entry {
+        final Tuple tuple;
+        final long order;
+
+        Entry(Tuple tuple, long order) {
+            this.tuple = tuple;
+            this.order = order;
+        }
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        select();
+        super.open();
+    }
+
+    private void select() throws DbException, TransactionAbortedException {
+        final TupleComparator comparator = new TupleComparator(orderByField, asc);
+        // worst first: the later of two equal tuples is the worse one
+        Comparator<Entry> worstFirst = new Comparator<Entry>() {
+            public int compare(Entry a, Entry b) {
+                int c = comparator.compare(b.tuple, a.tuple);
+                if (c != 0)
+                    return c;
+                return (a.order < b.order) ? 1 : (a.order > b.order) ? -1 : 0;
+            }
+        };
+        PriorityQueue<Entry> heap =
+            new PriorityQueue<Entry>(Math.max(1, Math.min(limit, 1024)), worstFirst);
+        long order = 0;
+        while (limit > 0 && child.hasNext()) {
+            Tuple t = child.next();
+            if (heap.size() < limit)
+                heap.add(new Entry(t, order));
+            else if (comparator.compare(t, heap.peek().tuple) < 0) {
+                heap.poll();
+                heap.add(new Entry(t, order));
+            }
+            order++;
+        }
+
+        top = new ArrayList<Tuple>(heap.size());
+        while (!heap.isEmpty())
+            top.add(heap.poll().tuple);
+        Collections.reverse(top);
+        index = 0;
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        top = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        index = 0;
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the first limit tuples
+     * from the child operator in order
+     *
+     * @return The next tuple in the ordering, or null if there are no more
+     *         tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (top != null && index < top.size())
+            return top.get(index++);
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+}
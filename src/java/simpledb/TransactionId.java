@@ -17,12 +17,29 @@ public class TransactionId implements Serializable {
         myid = counter.getAndIncrement();
     }
 
+    /** The transaction with the given id, as it was logged. */
+    TransactionId(long id) {
+        myid = id;
+    }
+
+    /**
+     * Makes sure new transactions get ids above id, e.g. above those
+     * found in the log after a restart.
+     */
+    static void reserveIdsUpTo(long id) {
+        long next;
+        while ((next = counter.get()) <= id) {
+            if (counter.compareAndSet(next, id + 1))
+                break;
+        }
+    }
+
     public long getId() {
         return myid;
     }
 
     public boolean equals(Object tid) {
-        return ((TransactionId) tid).myid == myid;
+        return (tid instanceof TransactionId) && ((TransactionId) tid).myid == myid;
     }
 
     public int hashCode() {
@@ -1,22 +1,31 @@
 package simpledb;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.List;
-import java.util.ArrayList;
 
 /**
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * A tuple read from a page may instead be backed by the page image; its
+ * fields are then decoded from the image the first time they are asked
+ * for, so operators that look at few columns allocate few Fields.
  */
 public class Tuple implements Serializable {
 
     private static final long serialVersionUID = 1L;
     private TupleDesc td;
-    private List<Field> fields;
+    private Field[] fields;
     private RecordId rid = null;
 
+    // page image this tuple decodes its unset fields from, if any
+    private transient ByteBuffer source;
+    private transient TupleDesc sourceTd;
+    private transient int sourceOffset;
+
     /**
      * Create a new tuple with the specified schema (type).
      * 
@@ -27,10 +36,19 @@ public class Tuple implements Serializable {
     public Tuple(TupleDesc td) {
         // some code goes here
         this.td = td;
-        fields = new ArrayList<Field>();
-        for (int i = 0; i < td.numFields(); i++) {
-                fields.add(null);
-        }
+        fields = new Field[td.numFields()];
+    }
+
+    /**
+     * Create a tuple whose fields are decoded lazily from a serialized tuple
+     * of schema td stored in source at the given offset. The buffer is not
+     * copied; its contents must not change while the tuple is in use.
+     */
+    Tuple(TupleDesc td, ByteBuffer source, int offset) {
+        this(td);
+        this.source = source;
+        this.sourceTd = td;
+        this.sourceOffset = offset;
     }
 
     /**
@@ -71,7 +89,7 @@ public class Tuple implements Serializable {
      */
     public void setField(int i, Field f) {
         // some code goes here
-        fields.set(i, f);
+        fields[i] = f;
     }
 
     /**
@@ -82,7 +100,29 @@ public class Tuple implements Serializable {
      */
     public Field getField(int i) {
         // some code goes here
-        return fields.get(i);
+        Field f = fields[i];
+        if (f == null && source != null) {
+            f = sourceTd.getFieldType(i).parse(source, sourceOffset + sourceTd.getFieldOffset(i));
+            fields[i] = f;
+        }
+        return f;
+    }
+
+    /**
+     * Decodes every field that has not been decoded yet, after which the
+     * tuple no longer depends on the buffer it was read from.
+     */
+    void decodeAll() {
+        if (source != null) {
+            for (int i = 0; i < fields.length; i++)
+                getField(i);
+            source = null;
+        }
+    }
+
+    private void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException {
+        decodeAll();
+        out.defaultWriteObject();
     }
 
     /**
@@ -96,8 +136,8 @@ public class Tuple implements Serializable {
     public String toString() {
         // some code goes here
         String outStr = new String();
-        for (int i = 0; i < fields.size(); i++) {
-                outStr += fields.get(i).toString();
+        for (int i = 0; i < fields.length; i++) {
+                outStr += getField(i).toString();
                 outStr += '\t';
         }
         outStr += '\n';
@@ -111,7 +151,8 @@ public class Tuple implements Serializable {
     public Iterator<Field> fields()
     {
         // some code goes here
-        return fields.iterator();
+        decodeAll();
+        return Arrays.asList(fields).iterator();
     }
     
     /**
@@ -182,14 +182,40 @@ public class TupleDesc implements Serializable, Iterable<TupleDesc.TDItem> {
      */
     public int getSize() {
         // some code goes here
-    	int numBytes=0;
-    	
-    	for (TDItem td : m_tdItems) {
-    		numBytes += td.fieldType.getLen();
-    	}
-        return numBytes;
+        int[] offsets = getFieldOffsets();
+        return offsets[offsets.length - 1];
     }
 
+    /**
+     * @return the offset (in bytes) of the ith field from the start of a
+     *         serialized tuple of this TupleDesc.
+     * @param i
+     *            index of the field. It must be a valid index.
+     * @throws NoSuchElementException
+     *             if i is not a valid field reference.
+     */
+    public int getFieldOffset(int i) throws NoSuchElementException {
+        checkElementExists(i);
+        return getFieldOffsets()[i];
+    }
+
+    /**
+     * Byte offsets of every field, followed by the tuple size. A TupleDesc
+     * never changes, so they are computed once.
+     */
+    private int[] getFieldOffsets() {
+        int[] offsets = m_offsets;
+        if (offsets == null) {
+            offsets = new int[m_tdItems.size() + 1];
+            for (int i = 0; i < m_tdItems.size(); i++)
+                offsets[i + 1] = offsets[i] + m_tdItems.elementAt(i).fieldType.getLen();
+            m_offsets = offsets;
+        }
+        return offsets;
+    }
+
+    private transient volatile int[] m_offsets;
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
@@ -0,0 +1,161 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * TupleFile is a temporary file of tuples that operators spill to when
+ * their input does not fit in memory. Tuples are appended with add() and
+ * read back, in the order they were added, through iterator(). The file
+ * is written and read sequentially through page-sized buffers, and is
+ * removed by delete(). Files that are never deleted, say because the
+ * process exits in the middle of a query, are removed when the JVM exits.
+ * <p>
+ * Tuples are stored as their fields, serialized the way a HeapPage stores
+ * them; record ids are not kept.
+ */
+class TupleFile {
+
+    // the files not deleted yet, removed by a shutdown hook; unlike
+    // File.deleteOnExit(), a file leaves the set when it is deleted
+    private static final Set<File> live = new HashSet<File>();
+    private static boolean hookAdded = false;
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int size = 0;
+
+    /** Creates an empty temporary file for tuples of td. */
+    TupleFile(TupleDesc td) throws IOException {
+        this.td = td;
+        this.file = File.createTempFile("simpledb", ".tup");
+        register(file);
+        this.out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file), BufferPool.getPageSize()));
+    }
+
+    private static synchronized void register(File f) {
+        if (!hookAdded) {
+            Runtime.getRuntime().addShutdownHook(new Thread("simpledb-tuplefiles") {
+                public void run() {
+                    synchronized (TupleFile.class) {
+                        for (File f : live)
+                            f.delete();
+                        live.clear();
+                    }
+                }
+            });
+            hookAdded = true;
+        }
+        live.add(f);
+    }
+
+    private static synchronized void unregister(File f) {
+        live.remove(f);
+    }
+
+    /** @return the number of temporary files created and not deleted yet */
+    static synchronized int getNumLiveFiles() {
+        return live.size();
+    }
+
+    /** Appends t, which must match the TupleDesc of the file. */
+    void add(Tuple t) throws IOException {
+        if (out == null)
+            throw new IllegalStateException("tuple file is deleted");
+        for (int i = 0; i < td.numFields(); i++)
+            t.getField(i).serialize(out);
+        size++;
+    }
+
+    /** @return the number of tuples added */
+    int size() {
+        return size;
+    }
+
+    /** @return the number of bytes the tuples take on disk */
+    long getBytes() {
+        return (long) size * td.getSize();
+    }
+
+    /**
+     * @return an iterator over the tuples added so far. Tuples added
+     *     after it is opened may not be seen by it until it is rewound.
+     */
+    DbIterator iterator() {
+        return new Reader();
+    }
+
+    /** Removes the file; the TupleFile can no longer be used. */
+    void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // the file is going away
+            }
+            out = null;
+        }
+        file.delete();
+        unregister(file);
+    }
+
+    private class Reader implements DbIterator {
+        private static final long serialVersionUID = 1L;
+        private transient DataInputStream in = null;
+        private int left = 0;
+
+        public void open() throws DbException {
+            if (out == null)
+                throw new DbException("tuple file is deleted");
+            try {
+                out.flush();
+                in = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(file), BufferPool.getPageSize()));
+            } catch (IOException e) {
+                throw new DbException("cannot read tuple file: " + e);
+            }
+            left = size;
+        }
+
+        public boolean hasNext() {
+            return in != null && left > 0;
+        }
+
+        public Tuple next() throws DbException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++)
+                    t.setField(i, td.getFieldType(i).parse(in));
+            } catch (ParseException e) {
+                throw new DbException("cannot read tuple file: " + e);
+            }
+            left--;
+            return t;
+        }
+
+        public void rewind() throws DbException {
+            close();
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // nothing was written through it
+                }
+                in = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * TupleHashTable holds tuples by a join key, for operators that probe
+ * them with the keys of other tuples. INT_TYPE keys are kept in an
+ * IntHashTable whose entries hold the first and last of the tuples with
+ * the key, which are chained through a flat array; other keys go in a
+ * HashMap of lists. Tuples with the same key come back in the order they
+ * were added.
+ *
+ * @see HashEquiJoin
+ * @see Join
+ */
+class TupleHashTable {
+    private static final int HEAD = 0;
+    private static final int TAIL = 1;
+
+    private final IntHashTable ints;
+    private final HashMap<Field, ArrayList<Tuple>> map;
+    private final ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    // chain[i] is the index of the next tuple with the key of tuple i
+    private int[] chain = new int[16];
+
+    TupleHashTable(Type keyType) {
+        if (keyType == Type.INT_TYPE) {
+            ints = new IntHashTable(2);
+            map = null;
+        } else {
+            ints = null;
+            map = new HashMap<Field, ArrayList<Tuple>>();
+        }
+    }
+
+    void add(Field key, Tuple t) {
+        if (ints == null) {
+            ArrayList<Tuple> list = map.get(key);
+            if (list == null) {
+                list = new ArrayList<Tuple>();
+                map.put(key, list);
+            }
+            list.add(t);
+            return;
+        }
+        int i = tuples.size();
+        tuples.add(t);
+        if (i == chain.length)
+            chain = Arrays.copyOf(chain, i * 2);
+        chain[i] = -1;
+        int n = ints.size();
+        int id = ints.add(((IntField) key).getValue());
+        if (id == n)
+            ints.set(id, HEAD, i);
+        else
+            chain[ints.get(id, TAIL)] = i;
+        ints.set(id, TAIL, i);
+    }
+
+    /** @return the tuples with the given key, or null if there are none */
+    Iterator<Tuple> get(Field key) {
+        if (ints == null) {
+            ArrayList<Tuple> list = map.get(key);
+            return (list == null) ? null : list.iterator();
+        }
+        if (!(key instanceof IntField))
+            return null;
+        int id = ints.find(((IntField) key).getValue());
+        if (id < 0)
+            return null;
+        final int head = ints.get(id, HEAD);
+        return new Iterator<Tuple>() {
+            private int i = head;
+
+            public boolean hasNext() {
+                return i >= 0;
+            }
+
+            public Tuple next() {
+                if (i < 0)
+                    throw new NoSuchElementException();
+                Tuple t = tuples.get(i);
+                i = chain[i];
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /** Appends all the tuples to f. */
+    void writeTo(TupleFile f) throws IOException {
+        if (ints != null) {
+            for (Tuple t : tuples)
+                f.add(t);
+            return;
+        }
+        for (ArrayList<Tuple> list : map.values()) {
+            for (Tuple t : list)
+                f.add(t);
+        }
+    }
+}
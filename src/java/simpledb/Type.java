@@ -2,6 +2,7 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +25,16 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            return new IntField(buf.getInt(offset));
+        }
+
+        @Override
+        public void serialize(Field f, ByteBuffer buf, int offset) {
+            buf.putInt(offset, ((IntField) f).getValue());
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -35,13 +46,37 @@ public enum Type implements Serializable {
             try {
                 int strLen = dis.readInt();
                 byte bs[] = new byte[strLen];
-                dis.read(bs);
+                dis.readFully(bs);
                 dis.skipBytes(STRING_LEN-strLen);
                 return new StringField(new String(bs), STRING_LEN);
             } catch (IOException e) {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            int strLen = Math.min(buf.getInt(offset), STRING_LEN);
+            byte bs[] = new byte[strLen];
+            ByteBuffer in = buf.duplicate();
+            in.position(offset + 4);
+            in.get(bs);
+            return new StringField(new String(bs), STRING_LEN);
+        }
+
+        @Override
+        public void serialize(Field f, ByteBuffer buf, int offset) {
+            // same bytes as StringField.serialize: length, low byte of
+            // each char, zero padding
+            String s = ((StringField) f).getValue();
+            int len = Math.min(s.length(), STRING_LEN);
+            buf.putInt(offset, len);
+            offset += 4;
+            for (int i = 0; i < len; i++)
+                buf.put(offset + i, (byte) s.charAt(i));
+            for (int i = len; i < STRING_LEN; i++)
+                buf.put(offset + i, (byte) 0);
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -60,4 +95,23 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from buf at the given absolute offset. The buffer's position is
+   *   not used or changed, so several threads may parse from one buffer.
+   * @param buf The buffer to read from, e.g. a page image
+   * @param offset The index of the first byte of the field in buf
+   */
+    public abstract Field parse(ByteBuffer buf, int offset);
+
+  /**
+   * Writes f, which must be of this type, into buf at the given absolute
+   * offset, in the format read by {@link #parse(ByteBuffer, int)}. Exactly
+   * getLen() bytes are written and the buffer's position is not changed.
+   * @param f The field to write
+   * @param buf The buffer to write to, e.g. a page image
+   * @param offset The index in buf of the first byte to write
+   */
+    public abstract void serialize(Field f, ByteBuffer buf, int offset);
+
 }
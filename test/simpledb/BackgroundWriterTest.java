@@ -0,0 +1,144 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BackgroundWriterTest extends SimpleDbTestBase {
+    private HeapFile table;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        table = SystemTestUtil.createRandomHeapFile(2, 504 * 20, null, null);
+        bp = Database.resetBufferPool(10);
+        bp.setPrefetcher(null);
+    }
+
+    private HeapPage page(TransactionId tid, int pgNo) throws Exception {
+        return (HeapPage) bp.getPage(tid, new HeapPageId(table.getId(), pgNo),
+                Permissions.READ_WRITE);
+    }
+
+    private HeapPage onDisk(int pgNo) {
+        return (HeapPage) table.readPage(new HeapPageId(table.getId(), pgNo));
+    }
+
+    /** Deletes the first tuple of pages [from, to) in one transaction. */
+    private TransactionId dirty(int from, int to, boolean commit) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int pg = from; pg < to; pg++)
+            bp.deleteTuple(tid, page(tid, pg).iterator().next());
+        if (commit)
+            bp.transactionComplete(tid, true);
+        return tid;
+    }
+
+    /** Adjacent committed pages go to disk in one write. */
+    @Test public void coalesces() throws Exception {
+        dirty(0, 8, true);
+        assertEquals(2, bp.getNumCleanFrames());
+
+        BackgroundWriter w = new BackgroundWriter(bp, 1.0, 100, 64);
+        assertEquals(8, w.writeRound());
+        assertEquals(1, w.getWriteCount());
+        assertEquals(10, bp.getNumCleanFrames());
+        for (int pg = 0; pg < 8; pg++)
+            assertEquals(1, onDisk(pg).getNumEmptySlots());
+
+        // nothing left to do
+        assertEquals(0, w.writeRound());
+        assertEquals(2, w.getRoundCount());
+        assertEquals(1, w.getActiveRoundCount());
+    }
+
+    /** Pages of a running transaction stay in the pool. */
+    @Test public void skipsRunning() throws Exception {
+        dirty(0, 3, true);
+        TransactionId running = dirty(5, 8, false);
+
+        BackgroundWriter w = new BackgroundWriter(bp, 1.0, 100, 64);
+        assertEquals(3, w.writeRound());
+        for (int pg = 5; pg < 8; pg++) {
+            assertEquals(0, onDisk(pg).getNumEmptySlots());
+            assertEquals(running, page(running, pg).isDirty());
+        }
+        assertNull(page(running, 0).isDirty());
+        bp.transactionComplete(running, true);
+    }
+
+    /** A round writes no more than maxPages, and no more than needed. */
+    @Test public void rateLimited() throws Exception {
+        dirty(0, 8, true);
+        BackgroundWriter w = new BackgroundWriter(bp, 1.0, 100, 3);
+        assertEquals(3, w.writeRound());
+        assertEquals(5, bp.getNumCleanFrames());
+
+        w.setMaxPages(64);
+        w.setCleanFraction(0.6);
+        assertEquals(1, w.writeRound());
+        assertEquals(6, bp.getNumCleanFrames());
+    }
+
+    /** The thread keeps writing until the target is met. */
+    @Test public void runsInBackground() throws Exception {
+        dirty(0, 10, true);
+        BackgroundWriter w = new BackgroundWriter(bp, 0.5, 5, 2);
+        w.start();
+        try {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (bp.getNumCleanFrames() < 5 && System.currentTimeMillis() < deadline)
+                Thread.sleep(5);
+        } finally {
+            w.stop();
+        }
+        assertTrue(!w.isRunning());
+        assertEquals(5, bp.getNumCleanFrames());
+        assertEquals(0, w.getErrorCount());
+        assertEquals(5, w.getPagesWritten());
+    }
+
+    /** With a writer installed, misses on a full pool evict clean pages. */
+    @Test public void evictsCleanFrames() throws Exception {
+        dirty(0, 10, true);
+        bp.setBackgroundWriter(new BackgroundWriter(bp, 0.5, 5, 64));
+        try {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (bp.getNumCleanFrames() < 5 && System.currentTimeMillis() < deadline)
+                Thread.sleep(5);
+            TransactionId tid = new TransactionId();
+            for (int pg = 10; pg < 15; pg++)
+                page(tid, pg);
+            bp.transactionComplete(tid, true);
+        } finally {
+            bp.setBackgroundWriter(null);
+        }
+        assertEquals(0, bp.getNumDirtyEvictions());
+    }
+
+    /** The writer stops when its pool is replaced. */
+    @Test public void stopsWithPool() throws Exception {
+        BackgroundWriter w = new BackgroundWriter(bp);
+        bp.setBackgroundWriter(w);
+        assertTrue(w.isRunning());
+        assertEquals(w, bp.getBackgroundWriter());
+        Database.resetBufferPool(10);
+        assertFalse(w.isRunning());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BackgroundWriterTest.class);
+    }
+}
@@ -0,0 +1,228 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolTest extends SimpleDbTestBase {
+
+    /** A HeapFile that counts its page reads and makes them slow. */
+    private static class SlowHeapFile extends HeapFile {
+        final AtomicInteger reads = new AtomicInteger();
+
+        SlowHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        public Page readPage(PageId pid) {
+            reads.incrementAndGet();
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    private SlowHeapFile f;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        File file = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * 20, 1000, null, null);
+        f = new SlowHeapFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+    }
+
+    /** Runs body on n threads at once and rethrows the first failure. */
+    private static void runThreads(int n, final Runnable body) throws Exception {
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[n];
+        for (int i = 0; i < n; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        body.run();
+                    } catch (Throwable t) {
+                        error.compareAndSet(null, t);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        if (error.get() != null)
+            throw new Exception(error.get());
+    }
+
+    /**
+     * Concurrent misses on one page read it once and all get the same page.
+     */
+    @Test public void singleFlight() throws Exception {
+        final BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setPrefetcher(null);
+        final PageId pid = new HeapPageId(f.getId(), 3);
+        final AtomicReference<Page> seen = new AtomicReference<Page>();
+        runThreads(8, new Runnable() {
+            public void run() {
+                try {
+                    Page p = bp.getPage(new TransactionId(), pid, Permissions.READ_ONLY);
+                    seen.compareAndSet(null, p);
+                    assertTrue(seen.get() == p);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        assertEquals(1, f.reads.get());
+        assertEquals(1, bp.getReplacementPolicy().getMissCount());
+        assertEquals(7, bp.getReplacementPolicy().getHitCount());
+    }
+
+    /**
+     * Concurrent random access to more pages than fit never overfills the
+     * pool.
+     */
+    @Test public void neverOverfills() throws Exception {
+        final BufferPool bp = Database.resetBufferPool(5);
+        final AtomicInteger maxUsed = new AtomicInteger();
+        runThreads(6, new Runnable() {
+            public void run() {
+                Random r = new Random();
+                TransactionId tid = new TransactionId();
+                try {
+                    for (int i = 0; i < 30; i++) {
+                        bp.getPage(tid, new HeapPageId(f.getId(), r.nextInt(20)),
+                                Permissions.READ_ONLY);
+                        int used = bp.getNumFramesUsed();
+                        if (used > maxUsed.get())
+                            maxUsed.set(used);
+                    }
+                    bp.transactionComplete(tid);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        assertTrue(maxUsed.get() <= 5);
+    }
+
+    /**
+     * A discarded page is read again on the next request.
+     */
+    @Test public void discard() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setPrefetcher(null);
+        TransactionId tid = new TransactionId();
+        PageId pid = new HeapPageId(f.getId(), 0);
+        Page p = bp.getPage(tid, pid, Permissions.READ_ONLY);
+        bp.discardPage(pid);
+        assertEquals(0, bp.getNumFramesUsed());
+        assertTrue(p != bp.getPage(tid, pid, Permissions.READ_ONLY));
+        assertEquals(2, f.reads.get());
+        assertNull(bp.getPage(tid, pid, Permissions.READ_ONLY).isDirty());
+    }
+
+    /**
+     * A pinned page stays in the pool, unwritten, however many misses need
+     * a frame; once unpinned it can be evicted again.
+     */
+    @Test public void pinnedNotEvicted() throws Exception {
+        BufferPool bp = Database.resetBufferPool(3);
+        bp.setPrefetcher(null);
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 504, null, null);
+        PageId pid = new HeapPageId(table.getId(), 0);
+        TransactionId writer = new TransactionId();
+        TransactionId reader = new TransactionId();
+
+        HeapPage p = (HeapPage) bp.pinPage(writer, pid, Permissions.READ_WRITE);
+        p.deleteTuple(p.iterator().next());
+        for (int pg = 0; pg < 10; pg++)
+            bp.getPage(reader, new HeapPageId(f.getId(), pg), Permissions.READ_ONLY);
+        assertTrue(p == bp.getCachedPage(pid));
+        assertEquals(0, ((HeapPage) table.readPage(pid)).getNumEmptySlots());
+
+        p.markDirty(true, writer);
+        bp.unpinPage(pid);
+        for (int pg = 10; pg < 20; pg++)
+            bp.getPage(reader, new HeapPageId(f.getId(), pg), Permissions.READ_ONLY);
+        assertNull(bp.getCachedPage(pid));
+        bp.transactionComplete(reader);
+        bp.transactionComplete(writer, false);
+        assertEquals(0, ((HeapPage) table.readPage(pid)).getNumEmptySlots());
+    }
+
+    /**
+     * Pages are not evicted (and so not stolen) in the middle of a change:
+     * a transaction inserting into a small pool while another thread forces
+     * evictions leaves every page exactly as it was when it aborts.
+     */
+    @Test public void evictWhileChanging() throws Exception {
+        final BufferPool bp = Database.resetBufferPool(3);
+        bp.setPrefetcher(null);
+        // two full pages and one with room
+        final HeapFile table = SystemTestUtil.createRandomHeapFile(2, 504 * 2 + 100, null, null);
+        int origPages = table.numPages();
+        byte[][] orig = new byte[origPages][];
+        for (int pg = 0; pg < origPages; pg++)
+            orig[pg] = table.readPage(new HeapPageId(table.getId(), pg)).getPageData();
+
+        final TransactionId writer = new TransactionId();
+        final AtomicInteger done = new AtomicInteger();
+        runThreads(2, new Runnable() {
+            public void run() {
+                try {
+                    if (done.getAndIncrement() == 0) {
+                        for (int i = 0; i < 1500; i++)
+                            bp.insertTuple(writer, table.getId(), Utility.getHeapTuple(i, 2));
+                        done.set(100);
+                    } else {
+                        TransactionId reader = new TransactionId();
+                        Random r = new Random(3);
+                        while (done.get() < 100)
+                            bp.getPage(reader, new HeapPageId(f.getId(), r.nextInt(20)),
+                                    Permissions.READ_ONLY);
+                        bp.transactionComplete(reader);
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        bp.transactionComplete(writer, false);
+
+        bp.flushAllPages();
+        TransactionId tid = new TransactionId();
+        byte[] empty = HeapPage.createEmptyPageData();
+        for (int pg = 0; pg < table.numPages(); pg++) {
+            PageId pid = new HeapPageId(table.getId(), pg);
+            byte[] want = (pg < origPages) ? orig[pg] : empty;
+            assertTrue("page " + pg, Arrays.equals(want, table.readPage(pid).getPageData()));
+            assertTrue("page " + pg, Arrays.equals(want,
+                    bp.getPage(tid, pid, Permissions.READ_ONLY).getPageData()));
+        }
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolTest.class);
+    }
+}
@@ -0,0 +1,165 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BulkLoaderTest extends SimpleDbTestBase {
+
+    private static File tempFile(String suffix) throws IOException {
+        File f = File.createTempFile("bulkload", suffix);
+        f.deleteOnExit();
+        return f;
+    }
+
+    /** Writes rows of random ints as text, keeping them in tuples. */
+    private static File writeInts(int rows, int columns, ArrayList<ArrayList<Integer>> tuples)
+            throws IOException {
+        File txt = tempFile(".txt");
+        Random r = new Random(42);
+        BufferedWriter w = new BufferedWriter(new FileWriter(txt));
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            for (int j = 0; j < columns; j++) {
+                int v = r.nextInt(1000) - 200;
+                tuple.add(v);
+                if (j > 0)
+                    w.write(',');
+                w.write(String.valueOf(v));
+            }
+            tuples.add(tuple);
+            w.write('\n');
+            // blank lines are skipped
+            if (i % 500 == 0)
+                w.write('\n');
+        }
+        w.close();
+        return txt;
+    }
+
+    /**
+     * Many small chunks encoded on several threads produce the same file as
+     * HeapFileEncoder, in input order.
+     */
+    @Test public void sameBytesAsEncoder() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File txt = writeInts(3000, 3, tuples);
+        File expected = tempFile(".dat");
+        HeapFileEncoder.convert(txt, expected, BufferPool.getPageSize(), 3);
+
+        File actual = tempFile(".dat");
+        BulkLoader loader = new BulkLoader(Utility.getTupleDesc(3), ',', 3, 1);
+        assertEquals(3000, loader.convert(txt, actual));
+        assertArrayEquals(TestUtil.readFileBytes(expected.getPath()),
+                TestUtil.readFileBytes(actual.getPath()));
+    }
+
+    /**
+     * String columns are encoded like HeapFileEncoder encodes them.
+     */
+    @Test public void strings() throws Exception {
+        File txt = tempFile(".txt");
+        BufferedWriter w = new BufferedWriter(new FileWriter(txt));
+        for (int i = 0; i < 1000; i++)
+            w.write(i + "| name" + i + " |" + (i % 7) + "\n");
+        w.close();
+        Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE };
+
+        File expected = tempFile(".dat");
+        HeapFileEncoder.convert(txt, expected, BufferPool.getPageSize(), 3, types, '|');
+        File actual = tempFile(".dat");
+        new BulkLoader(new TupleDesc(types), '|', 2, 1).convert(txt, actual);
+        assertArrayEquals(TestUtil.readFileBytes(expected.getPath()),
+                TestUtil.readFileBytes(actual.getPath()));
+    }
+
+    /**
+     * load registers the table and installs the same statistics a scan of
+     * the table would compute.
+     */
+    @Test public void loadRegistersTableAndStats() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File txt = writeInts(2000, 2, tuples);
+        String name = SystemTestUtil.getUUID();
+        HeapFile hf = new BulkLoader(Utility.getTupleDesc(2), ',', 2, 1)
+            .load(txt, tempFile(".dat"), name);
+
+        assertEquals(hf.getId(), Database.getCatalog().getTableId(name));
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        TableStats loaded = TableStats.getTableStats(name);
+        TableStats scanned = new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE);
+        assertEquals(scanned.totalTuples(), loaded.totalTuples());
+        assertEquals(scanned.estimateScanCost(), loaded.estimateScanCost(), 0.0);
+        for (int v = -300; v < 900; v += 37) {
+            for (Predicate.Op op : Predicate.Op.values()) {
+                if (op == Predicate.Op.LIKE)
+                    continue;
+                assertEquals(scanned.estimateSelectivity(1, op, new IntField(v)),
+                        loaded.estimateSelectivity(1, op, new IntField(v)), 0.0);
+            }
+        }
+    }
+
+    /**
+     * A malformed line fails the load.
+     */
+    @Test(expected=IOException.class) public void malformedLine() throws Exception {
+        File txt = tempFile(".txt");
+        BufferedWriter w = new BufferedWriter(new FileWriter(txt));
+        w.write("1,2\n3\n");
+        w.close();
+        new BulkLoader(Utility.getTupleDesc(2)).convert(txt, tempFile(".dat"));
+    }
+
+    /**
+     * A line with more fields than the schema fails the load, as it does
+     * for HeapFileEncoder.
+     */
+    @Test(expected=IOException.class) public void extraField() throws Exception {
+        File txt = tempFile(".txt");
+        BufferedWriter w = new BufferedWriter(new FileWriter(txt));
+        w.write("1,2\n3,4,5\n");
+        w.close();
+        new BulkLoader(Utility.getTupleDesc(2)).convert(txt, tempFile(".dat"));
+    }
+
+    /**
+     * A parse error names the line of the input it is on, counting the
+     * blank lines that are skipped.
+     */
+    @Test public void errorLineNumber() throws Exception {
+        File txt = tempFile(".txt");
+        BufferedWriter w = new BufferedWriter(new FileWriter(txt));
+        w.write("1,2\n\n\nx,4\n\n5,6\n");
+        w.close();
+        try {
+            new BulkLoader(Utility.getTupleDesc(2)).convert(txt, tempFile(".dat"));
+            fail("expected IOException");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("line 4: "));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoaderTest.class);
+    }
+}
@@ -0,0 +1,78 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ExternalSortTest extends SimpleDbTestBase {
+
+    /** @return n two-field tuples: a random key and the position */
+    private static TupleIterator data(int n, int keys) {
+        Random r = new Random(7);
+        int[] d = new int[n * 2];
+        for (int i = 0; i < n; i++) {
+            d[i * 2] = r.nextInt(keys);
+            d[i * 2 + 1] = i;
+        }
+        return TestUtil.createTupleList(2, d);
+    }
+
+    /** Checks that the rest of sort is n tuples, sorted and stable. */
+    private static void checkSorted(DbIterator sort, int n) throws Exception {
+        int seen = 0;
+        int lastKey = Integer.MIN_VALUE;
+        int lastPos = -1;
+        while (sort.hasNext()) {
+            Tuple t = sort.next();
+            int key = ((IntField) t.getField(0)).getValue();
+            int pos = ((IntField) t.getField(1)).getValue();
+            assertTrue(key >= lastKey);
+            if (key == lastKey)
+                assertTrue(pos > lastPos);
+            lastKey = key;
+            lastPos = pos;
+            seen++;
+        }
+        assertEquals(n, seen);
+    }
+
+    /** Input that fits in memory is not written out. */
+    @Test public void inMemory() throws Exception {
+        ExternalSort sort = new ExternalSort(data(1000, 50),
+                new TupleComparator(0, true), 16);
+        sort.open();
+        assertEquals(0, sort.getRunsWritten());
+        checkSorted(sort, 1000);
+        sort.close();
+    }
+
+    /**
+     * With three pages, runs of 1536 tuples are merged two at a time over
+     * several passes.
+     */
+    @Test public void multiPass() throws Exception {
+        ExternalSort sort = new ExternalSort(data(10000, 300),
+                new TupleComparator(0, true), 3);
+        sort.open();
+        // 7 runs, merged into 4 and then 2, which are merged lazily
+        assertEquals(7 + 3 + 2, sort.getRunsWritten());
+        checkSorted(sort, 10000);
+        sort.rewind();
+        checkSorted(sort, 10000);
+        sort.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ExternalSortTest.class);
+    }
+}
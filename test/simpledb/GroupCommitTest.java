@@ -0,0 +1,82 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class GroupCommitTest extends SimpleDbTestBase {
+    private static final int THREADS = 16;
+    private static final int COMMITS = 10;
+
+    private LogFile log;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        File f = File.createTempFile("grouplog", ".log");
+        f.deleteOnExit();
+        log = new LogFile(f);
+    }
+
+    /** Runs THREADS threads that each commit COMMITS transactions. */
+    private void commitConcurrently() throws Exception {
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < COMMITS; j++) {
+                            TransactionId tid = new TransactionId();
+                            log.logXactionBegin(tid);
+                            log.logCommit(tid);
+                        }
+                    } catch (Throwable t) {
+                        error.compareAndSet(null, t);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        if (error.get() != null)
+            throw new Exception(error.get());
+    }
+
+    /** Without group commit, every commit forces the log. */
+    @Test public void forcePerCommit() throws Exception {
+        log.setGroupCommitWindow(-1);
+        commitConcurrently();
+        assertEquals(THREADS * COMMITS, log.getCommitCount());
+        assertEquals(THREADS * COMMITS, log.getCommitForceCount());
+    }
+
+    /** With group commit, concurrent commits share forces. */
+    @Test public void batchedForces() throws Exception {
+        log.setGroupCommitWindow(5);
+        commitConcurrently();
+        assertEquals(THREADS * COMMITS, log.getCommitCount());
+        assertTrue(log.getCommitForceCount() < THREADS * COMMITS / 2);
+        // a lone commit still completes
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.logCommit(tid);
+        assertEquals(THREADS * COMMITS + 1, log.getCommitCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
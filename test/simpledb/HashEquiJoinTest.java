@@ -0,0 +1,142 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+    private static final JoinPredicate EQ =
+        new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+
+    /** @return n two-field tuples whose first field is drawn from keys */
+    private static int[] data(Random r, int n, int keys) {
+        int[] d = new int[n * 2];
+        for (int i = 0; i < n; i++) {
+            d[i * 2] = r.nextInt(keys);
+            d[i * 2 + 1] = i;
+        }
+        return d;
+    }
+
+    /** @return the equi-join of two tuple lists, as sorted strings */
+    private static List<String> expected(int[] a, int[] b) {
+        List<String> out = new ArrayList<String>();
+        for (int i = 0; i < a.length; i += 2) {
+            for (int j = 0; j < b.length; j += 2) {
+                if (a[i] == b[j])
+                    out.add(a[i] + "\t" + a[i + 1] + "\t" + b[j] + "\t" + b[j + 1]);
+            }
+        }
+        Collections.sort(out);
+        return out;
+    }
+
+    /** @return the rest of the output of op, as sorted strings */
+    private static List<String> drain(DbIterator op) throws Exception {
+        List<String> out = new ArrayList<String>();
+        while (op.hasNext()) {
+            Tuple t = op.next();
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+                if (i > 0)
+                    sb.append('\t');
+                sb.append(t.getField(i));
+            }
+            out.add(sb.toString());
+        }
+        Collections.sort(out);
+        return out;
+    }
+
+    private static HashEquiJoin join(int[] a, int[] b, int memoryPages) throws Exception {
+        HashEquiJoin op = new HashEquiJoin(EQ, TestUtil.createTupleList(2, a),
+                                           TestUtil.createTupleList(2, b));
+        op.setMemoryPages(memoryPages);
+        op.open();
+        return op;
+    }
+
+    /** A build side that fits in memory is never written out. */
+    @Test public void inMemory() throws Exception {
+        Random r = new Random(1);
+        int[] a = data(r, 500, 100);
+        int[] b = data(r, 500, 100);
+        HashEquiJoin op = join(a, b, HashEquiJoin.DEFAULT_MEMORY_PAGES);
+        assertEquals(expected(a, b), drain(op));
+        assertEquals(0, op.getNumSpilledPartitions());
+        op.rewind();
+        assertEquals(expected(a, b), drain(op));
+        op.close();
+    }
+
+    /**
+     * A build side several times the memory is partitioned to disk, and
+     * each input is written at most once.
+     */
+    @Test public void spills() throws Exception {
+        Random r = new Random(2);
+        int[] a = data(r, 6000, 3000);
+        int[] b = data(r, 6000, 3000);
+        int liveFiles = TupleFile.getNumLiveFiles();
+        // 2048 tuples of 8 bytes in memory
+        HashEquiJoin op = join(a, b, 4);
+        List<String> want = expected(a, b);
+        assertEquals(want, drain(op));
+        assertTrue(op.getNumSpilledPartitions() > 0);
+        assertTrue(op.getSpilledBytes() > 0);
+        assertTrue(op.getSpilledBytes() <= (a.length + b.length) * 4);
+
+        op.rewind();
+        assertEquals(want, drain(op));
+        op.close();
+        // every spill file is gone once the join is closed
+        assertEquals(liveFiles, TupleFile.getNumLiveFiles());
+    }
+
+    /**
+     * A partition of one key cannot be split and is joined in chunks
+     * once it has been partitioned down to the last level.
+     */
+    @Test public void skewedKey() throws Exception {
+        int[] a = new int[3000 * 2];
+        for (int i = 0; i < 3000; i++)
+            a[i * 2 + 1] = i;
+        int[] b = new int[] { 0, 1, 0, 2, 5, 3, 0, 4 };
+        HashEquiJoin op = join(a, b, 1);
+        assertEquals(expected(a, b), drain(op));
+        op.close();
+    }
+
+    /** Keys other than INT_TYPE are hashed as Fields. */
+    @Test public void stringKeys() throws Exception {
+        DbIterator a = TestUtil.createTupleList(2,
+                new Object[] { "x", 1, "y", 2, "x", 3 });
+        DbIterator b = TestUtil.createTupleList(2,
+                new Object[] { "x", 4, "z", 5 });
+        HashEquiJoin op = new HashEquiJoin(EQ, a, b);
+        op.open();
+        List<String> want = new ArrayList<String>();
+        want.add("x\t1\tx\t4");
+        want.add("x\t3\tx\t4");
+        assertEquals(want, drain(op));
+        op.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashEquiJoinTest.class);
+    }
+}
@@ -77,6 +77,47 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() past the end of the file and after
+     * HeapFile.close()
+     */
+    @Test
+    public void readPageAfterClose() throws Exception {
+        try {
+            hf.readPage(new HeapPageId(hf.getId(), 1));
+            fail("expected exception");
+        } catch (IllegalArgumentException e) {
+        }
+
+        hf.close();
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        assertEquals(484, page.getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for MappedHeapFile: same pages as the HeapFile it maps,
+     * but read-only
+     */
+    @Test
+    public void mappedHeapFile() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile plain = SystemTestUtil.createRandomHeapFile(2, 1000, null, tuples);
+        MappedHeapFile mapped = new MappedHeapFile(plain.getFile(), td);
+        Database.getCatalog().addTable(mapped, SystemTestUtil.getUUID());
+        assertEquals(plain.getId(), mapped.getId());
+        assertEquals(2, mapped.numPages());
+
+        HeapPage page = (HeapPage) mapped.readPage(new HeapPageId(mapped.getId(), 1));
+        assertEquals(504 - (1000 - 504), page.getNumEmptySlots());
+        SystemTestUtil.matchTuples(mapped, tuples);
+
+        try {
+            mapped.insertTuple(tid, Utility.getHeapTuple(1, 2));
+            fail("expected exception");
+        } catch (DbException e) {
+        }
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
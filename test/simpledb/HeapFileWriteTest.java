@@ -43,6 +43,33 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Space freed by a delete is reused, and the free-space map survives
+     * closing the file.
+     */
+    @Test public void freeSpaceMap() throws Exception {
+        Tuple first = null;
+        for (int i = 0; i < 504 * 2; ++i) {
+            Tuple t = Utility.getHeapTuple(i, 2);
+            empty.insertTuple(tid, t);
+            if (i == 0)
+                first = t;
+        }
+        assertEquals(-1, empty.getFreeSpaceMap().nextCandidate(0));
+
+        empty.deleteTuple(tid, first);
+        assertEquals(0, empty.getFreeSpaceMap().nextCandidate(0));
+        empty.insertTuple(tid, Utility.getHeapTuple(0, 2));
+        assertEquals(2, empty.numPages());
+        assertEquals(-1, empty.getFreeSpaceMap().nextCandidate(0));
+
+        Database.getBufferPool().flushAllPages();
+        empty.close();
+        assertTrue(FreeSpaceMap.sideFile(empty.getFile()).exists());
+        assertEquals(-1, empty.getFreeSpaceMap().nextCandidate(0));
+        FreeSpaceMap.sideFile(empty.getFile()).delete();
+    }
+
     /**
      * JUnit suite target
      */
@@ -1,6 +1,7 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
@@ -70,6 +71,7 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
 
                     // verify that the RecordId is sane
                     assertEquals(page.getId(), tup.getRecordId().getPageId());
+                    assertTrue(page.isSlotUsed(tup.getRecordId().tupleno()));
                     break;
                 }
             }
@@ -126,6 +128,75 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getPageData() and HeapPage.getBeforeImage()
+     * after changes: the page image follows inserts and deletes, and the
+     * before image keeps its contents when the page changes afterwards.
+     */
+    @Test public void pageDataAndBeforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        int free = page.getNumEmptySlots();
+        Tuple victim = page.iterator().next();
+        int victimValue = ((IntField) victim.getField(0)).getValue();
+
+        page.insertTuple(Utility.getHeapTuple(777, 2));
+        page.setBeforeImage();
+        page.deleteTuple(victim);
+        page.insertTuple(Utility.getHeapTuple(888, 2));
+        assertEquals(victimValue, ((IntField) victim.getField(0)).getValue());
+
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertEquals(free - 2 + 1, copy.getNumEmptySlots());
+        assertEquals(2, countValues(copy, 777) + countValues(copy, 888));
+
+        HeapPage before = page.getBeforeImage();
+        assertEquals(free - 1, before.getNumEmptySlots());
+        assertEquals(1, countValues(before, 777));
+        assertEquals(0, countValues(before, 888));
+    }
+
+    private static int countValues(HeapPage page, int value) {
+        int count = 0;
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() == value
+                    && ((IntField) t.getField(1)).getValue() == value)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Inserts fill the lowest empty slot, and a deleted slot is reused.
+     */
+    @Test public void slotReuse() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        // the example page uses slots 0-19
+        Tuple t = Utility.getHeapTuple(1, 2);
+        page.insertTuple(t);
+        assertEquals(20, t.getRecordId().tupleno());
+
+        Tuple victim = page.iterator().next();
+        assertEquals(0, victim.getRecordId().tupleno());
+        int free = page.getNumEmptySlots();
+        page.deleteTuple(victim);
+        assertEquals(free + 1, page.getNumEmptySlots());
+        assertFalse(page.isSlotUsed(0));
+
+        t = Utility.getHeapTuple(2, 2);
+        page.insertTuple(t);
+        assertEquals(0, t.getRecordId().tupleno());
+        assertEquals(free, page.getNumEmptySlots());
+
+        // the header written back to the page image decodes the same way
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertEquals(free, copy.getNumEmptySlots());
+        for (int i = 0; i < 21; i++)
+            assertTrue(copy.isSlotUsed(i));
+        assertFalse(copy.isSlotUsed(21));
+    }
+
     /**
      * JUnit suite target
      */
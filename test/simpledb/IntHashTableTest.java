@@ -0,0 +1,55 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+public class IntHashTableTest {
+
+    /** Keys get dense ids in the order they are first added. */
+    @Test public void denseIds() {
+        IntHashTable t = new IntHashTable(1);
+        assertEquals(0, t.add(42));
+        assertEquals(1, t.add(-7));
+        assertEquals(0, t.add(42));
+        assertEquals(2, t.add(0));
+        assertEquals(3, t.size());
+        assertEquals(-7, t.keyAt(1));
+        assertEquals(1, t.find(-7));
+        assertEquals(-1, t.find(5));
+    }
+
+    /** Ids and columns survive the table growing many times. */
+    @Test public void grows() {
+        IntHashTable t = new IntHashTable(2);
+        Random r = new Random(3);
+        int[] keys = new int[50000];
+        for (int i = 0; i < keys.length; i++) {
+            // multiples of a power of two collide in the low bits
+            keys[i] = i * 1024 + r.nextInt(2);
+            int id = t.add(keys[i]);
+            t.set(id, 0, t.get(id, 0) + 1);
+            t.set(id, 1, keys[i] * 3);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            int id = t.find(keys[i]);
+            assertEquals(keys[i], t.keyAt(id));
+            assertEquals(keys[i] * 3, t.get(id, 1));
+        }
+        int total = 0;
+        for (int id = 0; id < t.size(); id++)
+            total += t.get(id, 0);
+        assertEquals(keys.length, total);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IntHashTableTest.class);
+    }
+}
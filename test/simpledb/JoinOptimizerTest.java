@@ -466,4 +466,77 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
 		// Make sure that "a" is the outermost table in the join
 		Assert.assertTrue(result.get(result.size() - 1).t2Alias.equals("a") || result.get(result.size() - 1).t1Alias.equals("a"));
 	}
+
+	/**
+	 * Verify that chooseJoinAlgorithm() picks the cheap algorithm for the
+	 * predicate and the sizes of the inputs
+	 */
+	@Test public void chooseJoinAlgorithmTest() {
+		int pages = JoinOptimizer.DEFAULT_MEMORY_PAGES;
+		// 8-byte tuples; the large inputs take several blocks of memory
+		int small = 100, large = pages * BufferPool.getPageSize();
+		double smallCost = 1000, largeCost = 2.0 * pages * 1000;
+
+		Assert.assertEquals(JoinOptimizer.JoinAlgorithm.BLOCK_NESTED_LOOP,
+				JoinOptimizer.chooseJoinAlgorithm(Predicate.Op.EQUALS, small, small,
+						smallCost, smallCost, 8, 8, pages));
+		Assert.assertEquals(JoinOptimizer.JoinAlgorithm.HASH,
+				JoinOptimizer.chooseJoinAlgorithm(Predicate.Op.EQUALS, large, large,
+						largeCost, largeCost, 8, 8, pages));
+		Assert.assertEquals(JoinOptimizer.JoinAlgorithm.SORT_MERGE,
+				JoinOptimizer.chooseJoinAlgorithm(Predicate.Op.LESS_THAN, large, large,
+						largeCost, largeCost, 8, 8, pages));
+		Assert.assertEquals(JoinOptimizer.JoinAlgorithm.BLOCK_NESTED_LOOP,
+				JoinOptimizer.chooseJoinAlgorithm(Predicate.Op.NOT_EQUALS, large, large,
+						largeCost, largeCost, 8, 8, pages));
+	}
+
+	/**
+	 * Verify that orderJoins() records the algorithm of each join in the plan
+	 * it returns, without changing the nodes it was given
+	 */
+	@Test public void orderJoinsAlgorithm() throws ParsingException {
+		TransactionId tid = new TransactionId();
+		Parser p = new Parser();
+		Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+		nodes.add(new LogicalJoinNode("t1", "t2", "c1", "c2", Predicate.Op.EQUALS));
+		JoinOptimizer jo = new JoinOptimizer(p.generateLogicalPlan(tid, "SELECT * FROM "
+				+ tableName1 + " t1, " + tableName2 + " t2 WHERE t1.c1 = t2.c2;"), nodes);
+
+		HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+		stats.put(tableName1, stats1);
+		stats.put(tableName2, stats2);
+		HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+		filterSelectivities.put("t1", 1.0);
+		filterSelectivities.put("t2", 1.0);
+
+		Vector<LogicalJoinNode> result = jo.orderJoins(stats, filterSelectivities, false);
+		Assert.assertEquals(1, result.size());
+		// TA is 40KB, which is hashed in one block
+		Assert.assertEquals(JoinOptimizer.JoinAlgorithm.BLOCK_NESTED_LOOP, result.get(0).algorithm);
+		Assert.assertEquals("t1", result.get(0).t1Alias);
+		Assert.assertNull(nodes.get(0).algorithm);
+	}
+
+	/**
+	 * Verify that instantiateJoin() builds the operator for the algorithm
+	 * recorded on the node, which the operator reports
+	 */
+	@Test public void instantiateRecordedAlgorithm() throws ParsingException {
+		DbIterator a = new TupleIterator(Utility.getTupleDesc(2, "a."), new ArrayList<Tuple>());
+		DbIterator b = new TupleIterator(Utility.getTupleDesc(2, "b."), new ArrayList<Tuple>());
+		LogicalJoinNode lj = new LogicalJoinNode("a", "b", "a.0", "b.0", Predicate.Op.EQUALS);
+		for (JoinOptimizer.JoinAlgorithm alg : JoinOptimizer.JoinAlgorithm.values()) {
+			lj.algorithm = alg;
+			DbIterator j = JoinOptimizer.instantiateJoin(lj, a, b, 10, 10);
+			JoinOptimizer.JoinAlgorithm built;
+			if (j instanceof HashEquiJoin)
+				built = ((HashEquiJoin) j).getAlgorithm();
+			else if (j instanceof SortMergeJoin)
+				built = ((SortMergeJoin) j).getAlgorithm();
+			else
+				built = ((Join) j).getAlgorithm();
+			Assert.assertEquals(alg, built);
+		}
+	}
 }
@@ -3,6 +3,12 @@ package simpledb;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Before;
@@ -105,6 +111,49 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /** @return the rest of the output of op, as sorted strings */
+  private static List<String> drain(DbIterator op) throws Exception {
+    List<String> out = new ArrayList<String>();
+    while (op.hasNext())
+      out.add(op.next().toString());
+    Collections.sort(out);
+    return out;
+  }
+
+  /**
+   * Unit test for a join whose outer child takes several blocks, for the
+   * hashed = predicate and a predicate compared tuple by tuple
+   */
+  @Test public void blocks() throws Exception {
+    Random r = new Random(7);
+    int[] a = new int[2000 * 2];
+    int[] b = new int[300 * 2];
+    for (int i = 0; i < a.length; i++)
+      a[i] = r.nextInt(100);
+    for (int i = 0; i < b.length; i++)
+      b[i] = r.nextInt(100);
+    Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN };
+    for (Predicate.Op o : ops) {
+      JoinPredicate pred = new JoinPredicate(0, o, 1);
+      Join whole = new Join(pred, TestUtil.createTupleList(2, a),
+                            TestUtil.createTupleList(2, b));
+      whole.open();
+      List<String> want = drain(whole);
+      assertEquals(1, whole.getNumBlocks());
+
+      // 512 tuples of 8 bytes to a page
+      Join op = new Join(pred, TestUtil.createTupleList(2, a),
+                         TestUtil.createTupleList(2, b));
+      op.setMemoryPages(1);
+      op.open();
+      assertEquals(want, drain(op));
+      assertEquals(4, op.getNumBlocks());
+      op.rewind();
+      assertEquals(want, drain(op));
+      op.close();
+    }
+  }
+
   /**
    * JUnit suite target
    */
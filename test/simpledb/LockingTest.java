@@ -0,0 +1,134 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LockingTest extends SimpleDbTestBase {
+    /** Time to wait before checking the state of a lock grabber. */
+    private static final int TIMEOUT = 100;
+
+    private PageId p0, p1;
+    private TransactionId tid1, tid2;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 2, null, null);
+        p0 = new HeapPageId(f.getId(), 0);
+        p1 = new HeapPageId(f.getId(), 1);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * Starts a thread asking for a lock and reports whether it got it
+     * within TIMEOUT.
+     */
+    private TestUtil.LockGrabber grab(TransactionId tid, PageId pid, Permissions perm)
+            throws Exception {
+        TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid, pid, perm);
+        t.start();
+        Thread.sleep(TIMEOUT);
+        return t;
+    }
+
+    /** Shared locks are compatible. */
+    @Test public void sharedShared() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        assertTrue(grab(tid2, p0, Permissions.READ_ONLY).acquired());
+        assertTrue(bp.holdsLock(tid1, p0));
+        assertTrue(bp.holdsLock(tid2, p0));
+    }
+
+    /** An exclusive lock excludes everybody else until it is released. */
+    @Test public void exclusiveBlocks() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        TestUtil.LockGrabber t = grab(tid2, p0, Permissions.READ_ONLY);
+        assertFalse(t.acquired());
+        // other pages are not affected
+        assertTrue(grab(tid2, p1, Permissions.READ_WRITE).acquired());
+
+        bp.transactionComplete(tid1);
+        t.join(1000);
+        assertTrue(t.acquired());
+        assertFalse(bp.holdsLock(tid1, p0));
+    }
+
+    /** The only reader of a page may upgrade to an exclusive lock. */
+    @Test public void upgrade() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        assertTrue(bp.getLockManager().holdsExclusive(tid1, p0));
+        assertFalse(grab(tid2, p0, Permissions.READ_ONLY).acquired());
+    }
+
+    /** An upgrade waits for the other readers. */
+    @Test public void upgradeWaitsForReaders() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        bp.getPage(tid2, p0, Permissions.READ_ONLY);
+        TestUtil.LockGrabber t = grab(tid1, p0, Permissions.READ_WRITE);
+        assertFalse(t.acquired());
+        bp.releasePage(tid2, p0);
+        t.join(1000);
+        assertTrue(t.acquired());
+    }
+
+    /**
+     * Two transactions that each wait for a page the other holds deadlock;
+     * one of them is aborted and the other gets its lock.
+     */
+    @Test public void deadlock() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        bp.getPage(tid2, p1, Permissions.READ_WRITE);
+        TestUtil.LockGrabber t1 = grab(tid1, p1, Permissions.READ_WRITE);
+        TestUtil.LockGrabber t2 = grab(tid2, p0, Permissions.READ_WRITE);
+        t1.join(1000);
+        t2.join(1000);
+
+        // exactly one of them was aborted (and released its locks)
+        assertTrue(t1.acquired() != t2.acquired());
+        TestUtil.LockGrabber loser = t1.acquired() ? t2 : t1;
+        assertTrue(loser.getError() instanceof TransactionAbortedException);
+    }
+
+    /** Two readers that both try to upgrade deadlock as well. */
+    @Test public void upgradeDeadlock() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        bp.getPage(tid2, p0, Permissions.READ_ONLY);
+        TestUtil.LockGrabber t1 = grab(tid1, p0, Permissions.READ_WRITE);
+        TestUtil.LockGrabber t2 = grab(tid2, p0, Permissions.READ_WRITE);
+        t1.join(1000);
+        t2.join(1000);
+        assertTrue(t1.acquired() != t2.acquired());
+    }
+
+    /** Aborting a transaction throws away the pages it dirtied. */
+    @Test public void abortDiscardsPages() throws Exception {
+        HeapPage page = (HeapPage) bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        Tuple t = page.iterator().next();
+        bp.deleteTuple(tid1, t);
+        int free = ((HeapPage) bp.getPage(tid1, p0, Permissions.READ_ONLY)).getNumEmptySlots();
+        assertEquals(1, free);
+
+        bp.transactionComplete(tid1, false);
+        page = (HeapPage) bp.getPage(tid2, p0, Permissions.READ_ONLY);
+        assertEquals(0, page.getNumEmptySlots());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockingTest.class);
+    }
+}
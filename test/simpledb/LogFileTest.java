@@ -0,0 +1,133 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LogFileTest extends SimpleDbTestBase {
+    private HeapFile table;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        table = SystemTestUtil.createRandomHeapFile(2, 504 * 2, null, null);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setPrefetcher(null);
+    }
+
+    private HeapPage page(TransactionId tid, int pgNo) throws Exception {
+        return (HeapPage) bp.getPage(tid, new HeapPageId(table.getId(), pgNo),
+                Permissions.READ_WRITE);
+    }
+
+    private HeapPage onDisk(int pgNo) {
+        return (HeapPage) table.readPage(new HeapPageId(table.getId(), pgNo));
+    }
+
+    /** A delta undoes and redoes the change between two images. */
+    @Test public void deltaRoundTrip() throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapPage p = page(tid, 0);
+        HeapPage before = p.getBeforeImage();
+        Iterator<Tuple> it = p.iterator();
+        it.next();
+        p.deleteTuple(it.next());
+        p.deleteTuple(it.next());
+
+        PageDelta d = PageDelta.diff(before, p);
+        // the header byte and the two adjacent cleared slots
+        assertEquals(2, d.getNumRanges());
+        assertTrue(d.toBytes().length < 100);
+        PageDelta read = PageDelta.read(new DataInputStream(
+                new ByteArrayInputStream(d.toBytes())));
+        assertEquals(p.getId(), read.getPageId());
+
+        byte[] data = before.getPageData();
+        read.redo(data);
+        assertArrayEquals(p.getPageData(), data);
+        read.undo(data);
+        assertArrayEquals(before.getPageData(), data);
+    }
+
+    /** Logging a one-tuple update costs far less than a page. */
+    @Test public void smallUpdateIsSmall() throws Exception {
+        LogFile log = Database.getLogFile();
+        TransactionId tid = new TransactionId();
+        HeapPage p = page(tid, 0);
+        long start = log.getBytesWritten();
+        bp.deleteTuple(tid, p.iterator().next());
+        bp.transactionComplete(tid, true);
+        long written = log.getBytesWritten() - start;
+        assertTrue("commit logged " + written + " bytes",
+                written < BufferPool.getPageSize() / 10);
+    }
+
+    /**
+     * A page stolen twice from a transaction is rolled back through both
+     * deltas when it aborts.
+     */
+    @Test public void rollbackStolenTwice() throws Exception {
+        byte[] original = onDisk(0).getPageData();
+        TransactionId tid = new TransactionId();
+        Iterator<Tuple> it = page(tid, 0).iterator();
+        bp.deleteTuple(tid, it.next());
+        bp.flushPages(tid);
+        bp.deleteTuple(tid, it.next());
+        bp.flushPages(tid);
+        assertEquals(2, onDisk(0).getNumEmptySlots());
+
+        bp.transactionComplete(tid, false);
+        assertArrayEquals(original, onDisk(0).getPageData());
+        assertEquals(0, page(new TransactionId(), 0).getNumEmptySlots());
+    }
+
+    /**
+     * Truncation deletes the segments that only hold changes that are on
+     * disk, and recovery still works from what is left.
+     */
+    @Test public void truncateRetiresSegments() throws Exception {
+        LogFile log = Database.getLogFile();
+        log.setSegmentSize(256);
+        for (int i = 0; i < 40; i++) {
+            TransactionId tid = new TransactionId();
+            Iterator<Tuple> it = page(tid, i % 2).iterator();
+            bp.deleteTuple(tid, it.next());
+            bp.transactionComplete(tid, true);
+        }
+        int segments = log.getNumSegments();
+        assertTrue(segments > 10);
+
+        // the first checkpoint only records the dirty pages
+        log.logCheckpoint();
+        assertTrue(log.getNumSegments() > segments / 2);
+        // the second writes out the pages dirty since before the first
+        log.logCheckpoint();
+        assertTrue(log.getNumSegments() <= 2);
+        assertEquals(20, onDisk(0).getNumEmptySlots());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        new LogFile(new File("log")).recover();
+        assertEquals(20, onDisk(0).getNumEmptySlots());
+        assertEquals(20, onDisk(1).getNumEmptySlots());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogFileTest.class);
+    }
+}
@@ -0,0 +1,73 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+    /** @return n two-field tuples: a random key and the position */
+    private static TupleIterator data(int n, int keys) {
+        Random r = new Random(8);
+        int[] d = new int[n * 2];
+        for (int i = 0; i < n; i++) {
+            d[i * 2] = r.nextInt(keys);
+            d[i * 2 + 1] = i;
+        }
+        return TestUtil.createTupleList(2, d);
+    }
+
+    /** Checks that the rest of op is n tuples in descending key order. */
+    private static void checkDescending(DbIterator op, int n) throws Exception {
+        int seen = 0;
+        int lastKey = Integer.MAX_VALUE;
+        while (op.hasNext()) {
+            int key = ((IntField) op.next().getField(0)).getValue();
+            assertTrue(key <= lastKey);
+            lastKey = key;
+            seen++;
+        }
+        assertEquals(n, seen);
+    }
+
+    /** A child that fits in memory is sorted without writing runs. */
+    @Test public void inMemory() throws Exception {
+        OrderBy op = new OrderBy(0, false, data(1000, 100));
+        op.open();
+        assertEquals(0, op.getRunsWritten());
+        checkDescending(op, 1000);
+        op.close();
+    }
+
+    /** A child larger than the memory is sorted in runs on disk. */
+    @Test public void spills() throws Exception {
+        OrderBy op = new OrderBy(0, false, data(10000, 1000));
+        // 1536 tuples of 8 bytes in memory
+        op.setMemoryPages(3);
+        op.open();
+        assertTrue(op.getRunsWritten() > 0);
+        checkDescending(op, 10000);
+        op.rewind();
+        checkDescending(op, 10000);
+        op.close();
+
+        // a second open sorts the child again
+        op.open();
+        checkDescending(op, 10000);
+        op.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OrderByTest.class);
+    }
+}
@@ -0,0 +1,54 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ParserTest extends SimpleDbTestBase {
+
+    /** A LIMIT clause ending the statement is taken off. */
+    @Test public void limit() throws Exception {
+        String s = "SELECT * FROM t ORDER BY t.a LIMIT 5;";
+        assertEquals(5, Parser.parseLimit(s));
+        assertEquals("SELECT * FROM t ORDER BY t.a;", Parser.removeLimit(s));
+
+        s = "SELECT * FROM t ORDER BY t.a limit 7";
+        assertEquals(7, Parser.parseLimit(s));
+        assertEquals("SELECT * FROM t ORDER BY t.a", Parser.removeLimit(s));
+    }
+
+    /** "LIMIT n;" inside a string literal is part of the literal. */
+    @Test public void limitInLiteral() throws Exception {
+        String s = "SELECT * FROM t WHERE t.s = 'x LIMIT 5;';";
+        assertEquals(s.length() - 1, Parser.statementEnd(s));
+        assertEquals(-1, Parser.parseLimit(s));
+        assertEquals(s, Parser.removeLimit(s));
+
+        s = "SELECT * FROM t WHERE t.s = 'x LIMIT 5';";
+        assertEquals(-1, Parser.parseLimit(s));
+        assertEquals(s, Parser.removeLimit(s));
+    }
+
+    /** A LIMIT on a later statement does not apply to the first. */
+    @Test public void limitInLaterStatement() throws Exception {
+        String s = "SELECT * FROM t;\nSELECT * FROM u ORDER BY u.a LIMIT 3;";
+        assertEquals(-1, Parser.parseLimit(s));
+        assertEquals(s, Parser.removeLimit(s));
+
+        s = "SELECT * FROM t ORDER BY t.a LIMIT 2;\nSELECT * FROM u LIMIT 3;";
+        assertEquals(2, Parser.parseLimit(s));
+        assertEquals("SELECT * FROM t ORDER BY t.a;\nSELECT * FROM u LIMIT 3;",
+                Parser.removeLimit(s));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParserTest.class);
+    }
+}
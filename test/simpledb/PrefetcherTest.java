@@ -0,0 +1,86 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.Executor;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PrefetcherTest extends SimpleDbTestBase {
+
+    /** Runs prefetches on the calling thread, so the test is deterministic. */
+    private static final Executor DIRECT = new Executor() {
+        public void execute(Runnable r) {
+            r.run();
+        }
+    };
+
+    private HeapFile f;
+    private BufferPool pool;
+    private ReplacementPolicy policy;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // 10 pages of two-int tuples
+        f = SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, null);
+        pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        pool.setPrefetcher(new Prefetcher(2, DIRECT));
+        policy = pool.getReplacementPolicy();
+        tid = new TransactionId();
+    }
+
+    private void get(int pgNo) throws Exception {
+        pool.getPage(tid, new HeapPageId(f.getId(), pgNo), Permissions.READ_ONLY);
+    }
+
+    /**
+     * Sequential requests read ahead; the pages read ahead are hits later.
+     */
+    @Test public void sequentialReadAhead() throws Exception {
+        get(0);
+        assertEquals(1, policy.getMissCount());
+        get(1);
+        // page 1 and the two pages after it
+        assertEquals(4, policy.getMissCount());
+        get(2);
+        get(3);
+        assertEquals(2, policy.getHitCount());
+        // ... while still keeping two pages ahead
+        assertEquals(6, policy.getMissCount());
+    }
+
+    /**
+     * Read-ahead stops at the end of the table.
+     */
+    @Test public void stopsAtEndOfFile() throws Exception {
+        get(8);
+        get(9);
+        assertEquals(2, policy.getMissCount());
+    }
+
+    /**
+     * Random access does not trigger read-ahead.
+     */
+    @Test public void randomAccess() throws Exception {
+        get(5);
+        get(2);
+        get(7);
+        get(0);
+        assertEquals(4, policy.getMissCount());
+        assertEquals(0, policy.getHitCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PrefetcherTest.class);
+    }
+}
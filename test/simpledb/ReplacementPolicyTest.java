@@ -0,0 +1,154 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static HeapPageId pid(int pgNo) {
+        return new HeapPageId(-1, pgNo);
+    }
+
+    /**
+     * Unit test for LruReplacementPolicy: a hit moves the page to the back.
+     */
+    @Test public void lru() {
+        ReplacementPolicy p = new LruReplacementPolicy();
+        p.pageLoaded(pid(0));
+        p.pageLoaded(pid(1));
+        p.pageLoaded(pid(2));
+        p.pageAccessed(pid(0));
+
+        assertEquals(pid(1), p.chooseVictim());
+        assertEquals(pid(2), p.chooseVictim());
+        assertEquals(pid(0), p.chooseVictim());
+        assertNull(p.chooseVictim());
+    }
+
+    /**
+     * Unit test for ClockReplacementPolicy: referenced frames get a second
+     * chance, frames of removed pages are reused.
+     */
+    @Test public void clock() {
+        ReplacementPolicy p = new ClockReplacementPolicy();
+        p.pageLoaded(pid(0));
+        p.pageLoaded(pid(1));
+        p.pageLoaded(pid(2));
+
+        // first sweep clears all bits, then the hand comes back to frame 0
+        assertEquals(pid(0), p.chooseVictim());
+        p.pageLoaded(pid(3));          // takes frame 0, referenced
+        p.pageAccessed(pid(1));        // sets frame 1 again
+        assertEquals(pid(2), p.chooseVictim());
+
+        p.pageRemoved(pid(1));
+        assertEquals(pid(3), p.chooseVictim());
+        assertNull(p.chooseVictim());
+    }
+
+    /**
+     * Unit test for LruKReplacementPolicy: pages touched once (e.g. by a
+     * scan) are evicted before pages referenced K times, even if the scan
+     * touched them last.
+     */
+    @Test public void lruKIsScanResistant() {
+        ReplacementPolicy p = new LruKReplacementPolicy(2, 10);
+        p.pageLoaded(pid(0));
+        p.pageAccessed(pid(0));
+        p.pageLoaded(pid(1));
+        p.pageAccessed(pid(1));
+        for (int i = 10; i < 13; i++)
+            p.pageLoaded(pid(i));
+
+        assertEquals(pid(10), p.chooseVictim());
+        assertEquals(pid(11), p.chooseVictim());
+        assertEquals(pid(12), p.chooseVictim());
+        assertEquals(pid(0), p.chooseVictim());
+
+        // history of page 0 is retained across its eviction
+        p.pageLoaded(pid(0));
+        p.pageLoaded(pid(20));
+        assertEquals(pid(20), p.chooseVictim());
+    }
+
+    /**
+     * coldestPages lists the pages in the order chooseVictim hands them
+     * out, for every policy.
+     */
+    @Test public void coldestPages() {
+        for (String name : new String[] { "lru", "clock", "lruk" }) {
+            ReplacementPolicy p = BufferPool.newReplacementPolicy(name, 8);
+            for (int i = 0; i < 6; i++)
+                p.pageLoaded(pid(i));
+            p.pageAccessed(pid(3));
+            p.pageAccessed(pid(1));
+            p.chooseVictim();
+            p.pageAccessed(pid(4));
+            p.pageLoaded(pid(6));
+
+            List<PageId> cold = p.coldestPages(10);
+            assertEquals(name, cold.subList(0, 2), p.coldestPages(2));
+            List<PageId> victims = new ArrayList<PageId>();
+            PageId v;
+            while ((v = p.chooseVictim()) != null)
+                victims.add(v);
+            assertEquals(name, victims, cold);
+        }
+    }
+
+    /**
+     * Unit test for the hit/miss/eviction counters.
+     */
+    @Test public void counters() {
+        ReplacementPolicy p = BufferPool.newReplacementPolicy("clock", 4);
+        p.pageLoaded(pid(0));
+        p.pageLoaded(pid(1));
+        p.pageAccessed(pid(0));
+        p.pageAccessed(pid(0));
+        p.chooseVictim();
+
+        assertEquals(2, p.getHitCount());
+        assertEquals(2, p.getMissCount());
+        assertEquals(1, p.getEvictionCount());
+
+        p.resetCounters();
+        assertEquals(0, p.getHitCount());
+        assertEquals(0, p.getMissCount());
+        assertEquals(0, p.getEvictionCount());
+    }
+
+    /**
+     * A victim that is put back is neither a hit nor a miss, and is still
+     * the next victim, for every policy.
+     */
+    @Test public void restore() {
+        for (String name : new String[] { "lru", "clock", "lruk" }) {
+            ReplacementPolicy p = BufferPool.newReplacementPolicy(name, 8);
+            for (int i = 0; i < 4; i++)
+                p.pageLoaded(pid(i));
+            p.pageAccessed(pid(2));
+            PageId v = p.chooseVictim();
+            p.pageRestored(v);
+
+            assertEquals(name, 1, p.getHitCount());
+            assertEquals(name, 4, p.getMissCount());
+            assertEquals(name, 0, p.getEvictionCount());
+            assertEquals(name, v, p.chooseVictim());
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,160 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+    /** @return n two-field tuples whose first field is drawn from keys */
+    private static int[] data(Random r, int n, int keys) {
+        int[] d = new int[n * 2];
+        for (int i = 0; i < n; i++) {
+            d[i * 2] = r.nextInt(keys);
+            d[i * 2 + 1] = i;
+        }
+        return d;
+    }
+
+    /** @return the join of two tuple lists on their first fields, as sorted strings */
+    private static List<String> expected(int[] a, Predicate.Op op, int[] b) {
+        List<String> out = new ArrayList<String>();
+        for (int i = 0; i < a.length; i += 2) {
+            for (int j = 0; j < b.length; j += 2) {
+                if (new IntField(a[i]).compare(op, new IntField(b[j])))
+                    out.add(a[i] + "\t" + a[i + 1] + "\t" + b[j] + "\t" + b[j + 1]);
+            }
+        }
+        Collections.sort(out);
+        return out;
+    }
+
+    /** @return the rest of the output of op, as sorted strings */
+    private static List<String> drain(DbIterator op) throws Exception {
+        List<String> out = new ArrayList<String>();
+        while (op.hasNext()) {
+            Tuple t = op.next();
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+                if (i > 0)
+                    sb.append('\t');
+                sb.append(t.getField(i));
+            }
+            out.add(sb.toString());
+        }
+        Collections.sort(out);
+        return out;
+    }
+
+    private static SortMergeJoin join(DbIterator a, Predicate.Op op, DbIterator b,
+                                      int memoryPages) throws Exception {
+        SortMergeJoin j = new SortMergeJoin(new JoinPredicate(0, op, 0), a, b);
+        j.setMemoryPages(memoryPages);
+        j.open();
+        return j;
+    }
+
+    /** Equality with duplicate keys on both sides, sorted on disk. */
+    @Test public void equality() throws Exception {
+        Random r = new Random(4);
+        int[] a = data(r, 5000, 1000);
+        int[] b = data(r, 4000, 1000);
+        SortMergeJoin j = join(TestUtil.createTupleList(2, a), Predicate.Op.EQUALS,
+                               TestUtil.createTupleList(2, b), 4);
+        assertEquals(2, j.getNumSorts());
+        List<String> want = expected(a, Predicate.Op.EQUALS, b);
+        assertEquals(want, drain(j));
+        j.rewind();
+        assertEquals(want, drain(j));
+        j.close();
+    }
+
+    /** Every band operator, with the output size a fraction of the cross product. */
+    @Test public void bands() throws Exception {
+        Random r = new Random(5);
+        int[] a = data(r, 300, 500);
+        int[] b = data(r, 200, 500);
+        Predicate.Op[] ops = { Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+                               Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ };
+        for (Predicate.Op op : ops) {
+            SortMergeJoin j = join(TestUtil.createTupleList(2, a), op,
+                                   TestUtil.createTupleList(2, b), 3);
+            assertEquals(op.toString(), expected(a, op, b), drain(j));
+            j.close();
+        }
+    }
+
+    /**
+     * A band prefix larger than the join's memory goes to a temporary file,
+     * which is removed when the join is closed.
+     */
+    @Test public void bandPrefixSpills() throws Exception {
+        Random r = new Random(7);
+        int[] a = data(r, 100, 4000);
+        int[] b = data(r, 2000, 4000);
+        int files = TupleFile.getNumLiveFiles();
+        // half of 2 pages holds 512 of the 8-byte inner tuples
+        SortMergeJoin j = join(TestUtil.createTupleList(2, a), Predicate.Op.GREATER_THAN,
+                               TestUtil.createTupleList(2, b), 2);
+        List<String> want = expected(a, Predicate.Op.GREATER_THAN, b);
+        assertEquals(want, drain(j));
+        j.rewind();
+        assertEquals(want, drain(j));
+        j.close();
+        assertEquals(files, TupleFile.getNumLiveFiles());
+    }
+
+    /** An input sorted by an OrderBy on the join field is not sorted again. */
+    @Test public void orderedInput() throws Exception {
+        Random r = new Random(6);
+        int[] a = data(r, 100, 20);
+        int[] b = data(r, 100, 20);
+        OrderBy sorted = new OrderBy(0, true, TestUtil.createTupleList(2, a));
+        SortMergeJoin j = join(sorted, Predicate.Op.EQUALS,
+                               TestUtil.createTupleList(2, b), 16);
+        assertEquals(1, j.getNumSorts());
+        assertEquals(expected(a, Predicate.Op.EQUALS, b), drain(j));
+        j.close();
+
+        assertTrue(SortMergeJoin.isOrderedOn(j, 0));
+        assertTrue(SortMergeJoin.isOrderedOn(j, 2));
+        assertFalse(SortMergeJoin.isOrderedOn(j, 1));
+        assertFalse(SortMergeJoin.isOrderedOn(new OrderBy(0, false,
+                TestUtil.createTupleList(2, a)), 0));
+    }
+
+    /** LIKE and NOT_EQUALS cannot be merged. */
+    @Test(expected = IllegalArgumentException.class) public void notEquals() {
+        new SortMergeJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0),
+                TestUtil.createTupleList(2, new int[0]),
+                TestUtil.createTupleList(2, new int[0]));
+    }
+
+    /** The optimizer merges large inputs and loops over small ones. */
+    @Test public void optimizerChoice() throws Exception {
+        DbIterator a = new TupleIterator(Utility.getTupleDesc(2, "a."), new ArrayList<Tuple>());
+        DbIterator b = new TupleIterator(Utility.getTupleDesc(2, "b."), new ArrayList<Tuple>());
+        LogicalJoinNode lj = new LogicalJoinNode("a", "b", "a.0", "b.0", Predicate.Op.LESS_THAN);
+        assertTrue(JoinOptimizer.instantiateJoin(lj, a, b, 5000, 5000) instanceof SortMergeJoin);
+        assertTrue(JoinOptimizer.instantiateJoin(lj, a, b, 5000, 10) instanceof Join);
+        assertTrue(JoinOptimizer.instantiateJoin(lj, a, b) instanceof Join);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
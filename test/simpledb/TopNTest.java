@@ -0,0 +1,109 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class TopNTest extends SimpleDbTestBase {
+
+    /** @return n two-field tuples: a random key and the position */
+    private static int[] data(int n, int keys) {
+        Random r = new Random(9);
+        int[] d = new int[n * 2];
+        for (int i = 0; i < n; i++) {
+            d[i * 2] = r.nextInt(keys);
+            d[i * 2 + 1] = i;
+        }
+        return d;
+    }
+
+    /** @return the rest of op, as strings */
+    private static List<String> drain(DbIterator op) throws Exception {
+        List<String> out = new ArrayList<String>();
+        while (op.hasNext())
+            out.add(op.next().toString());
+        return out;
+    }
+
+    /** TopN returns the first tuples an OrderBy would, ties included. */
+    @Test public void sameAsOrderBy() throws Exception {
+        int[] d = data(2000, 50);
+        for (boolean asc : new boolean[] { true, false }) {
+            OrderBy all = new OrderBy(0, asc, TestUtil.createTupleList(2, d));
+            all.open();
+            List<String> sorted = drain(all);
+            all.close();
+
+            for (int limit : new int[] { 0, 1, 75, 2000, 3000 }) {
+                TopN op = new TopN(0, asc, limit, TestUtil.createTupleList(2, d));
+                op.open();
+                List<String> want = sorted.subList(0, Math.min(limit, sorted.size()));
+                assertEquals(want, drain(op));
+                op.rewind();
+                assertEquals(want, drain(op));
+                op.close();
+            }
+        }
+    }
+
+    /** A LIMIT on an ORDER BY query is planned as a TopN. */
+    @Test public void parseLimit() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 500, null, tuples, "c");
+        Database.getCatalog().addTable(f, "topn");
+        TableStats.setTableStats("topn", new TableStats(f.getId(), 1000));
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT * FROM topn ORDER BY topn.c0 DESC LIMIT 10;");
+        assertEquals(10, lp.getLimit());
+        DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof TopN);
+
+        Collections.sort(tuples, new Comparator<ArrayList<Integer>>() {
+            public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+                return b.get(0).compareTo(a.get(0));
+            }
+        });
+        plan.open();
+        for (int i = 0; i < 10; i++)
+            assertEquals(tuples.get(i).get(0).intValue(),
+                    ((IntField) plan.next().getField(0)).getValue());
+        assertTrue(!plan.hasNext());
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** LIMIT without ORDER BY is rejected. */
+    @Test(expected = ParsingException.class) public void limitWithoutOrderBy()
+            throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10, null, tuples, "c");
+        Database.getCatalog().addTable(f, "topn");
+        TableStats.setTableStats("topn", new TableStats(f.getId(), 1000));
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT * FROM topn LIMIT 10;");
+        lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TopNTest.class);
+    }
+}
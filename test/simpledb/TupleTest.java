@@ -29,6 +29,30 @@ public class TupleTest extends SimpleDbTestBase {
         assertEquals(new IntField(37), tup.getField(1));
     }
 
+    /**
+     * Unit test for tuples that decode their fields from a page image
+     */
+    @Test public void lazyFields() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+        java.nio.ByteBuffer image = java.nio.ByteBuffer.allocate(8 + td.getSize());
+        int off = 8;
+        image.putInt(off, 7);
+        image.putInt(off + td.getFieldOffset(1), 2);
+        image.put(off + td.getFieldOffset(1) + 4, (byte) 'h');
+        image.put(off + td.getFieldOffset(1) + 5, (byte) 'i');
+        image.putInt(off + td.getFieldOffset(2), -3);
+
+        Tuple tup = new Tuple(td, image, off);
+        assertEquals(new IntField(-3), tup.getField(2));
+        assertEquals(new StringField("hi", Type.STRING_LEN), tup.getField(1));
+        assertEquals(new IntField(7), tup.getField(0));
+
+        // explicitly set fields win over the image
+        tup.setField(0, new IntField(8));
+        assertEquals(new IntField(8), tup.getField(0));
+        assertEquals("8\thi\t-3\t\n", tup.toString());
+    }
+
     /**
      * Unit test for Tuple.getTupleDesc()
      */
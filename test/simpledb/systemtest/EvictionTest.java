@@ -40,6 +40,34 @@ public class EvictionTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * A scan over a table much larger than the pool should recycle its own
+     * ring of frames rather than evict pages another query is using.
+     */
+    @Test public void testLargeScanKeepsHotPages() throws IOException, DbException, TransactionAbortedException {
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 1024*20, null, null);
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2, 1024, null, null);
+        BufferPool pool = Database.resetBufferPool(BUFFER_PAGES);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < hot.numPages(); i++)
+            pool.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+
+        SeqScan scan = new SeqScan(tid, big.getId(), "");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        assertEquals(1024*20, count);
+
+        long misses = pool.getReplacementPolicy().getMissCount();
+        for (int i = 0; i < hot.numPages(); i++)
+            pool.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+        assertEquals(misses, pool.getReplacementPolicy().getMissCount());
+    }
+
     public static void insertRow(HeapFile f, Transaction t) throws DbException,
             TransactionAbortedException {
         // Create a row to insert
@@ -0,0 +1,242 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Crash recovery: pages are left the way the log says after the buffer
+ * pool is thrown away.
+ */
+public class RecoveryTest extends SimpleDbTestBase {
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile table;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        // four full pages
+        table = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, tuples);
+        resetPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private BufferPool resetPool(int pages) {
+        BufferPool bp = Database.resetBufferPool(pages);
+        bp.setPrefetcher(null);
+        return bp;
+    }
+
+    /** @return the number of tuples on page pgNo as it is on disk */
+    private int onDisk(int pgNo) {
+        HeapPage p = (HeapPage) table.readPage(new HeapPageId(table.getId(), pgNo));
+        return 504 - p.getNumEmptySlots();
+    }
+
+    /** Deletes tuple i of page pgNo on behalf of tid. */
+    private void delete(TransactionId tid, int pgNo, int i) throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        HeapPage p = (HeapPage) bp.getPage(tid,
+                new HeapPageId(table.getId(), pgNo), Permissions.READ_WRITE);
+        Iterator<Tuple> it = p.iterator();
+        Tuple t = it.next();
+        while (i-- > 0)
+            t = it.next();
+        tuples.remove(SystemTestUtil.tupleToList(t));
+        bp.deleteTuple(tid, t);
+    }
+
+    /**
+     * Throws away the buffer pool, as a crash would, and recovers from the
+     * log on disk.
+     */
+    private LogFile crashAndRecover(int threads) throws Exception {
+        resetPool(BufferPool.DEFAULT_PAGES);
+        LogFile log = new LogFile(new File("log"));
+        log.setRecoveryThreads(threads);
+        log.recover();
+        return log;
+    }
+
+    /** A commit that never reached the table file is redone. */
+    @Test public void redoCommitted() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        delete(t.getId(), 0, 0);
+        delete(t.getId(), 2, 5);
+        t.commit();
+        assertEquals(504, onDisk(0));
+
+        LogFile log = crashAndRecover(2);
+        assertEquals(503, onDisk(0));
+        assertEquals(503, onDisk(2));
+        SystemTestUtil.matchTuples(table, tuples);
+        assertEquals(0, log.getLastRecovery().getLosers());
+    }
+
+    /** Pages stolen from a transaction that never finished are undone. */
+    @Test public void undoUnfinished() throws Exception {
+        ArrayList<ArrayList<Integer>> original = new ArrayList<ArrayList<Integer>>(tuples);
+        resetPool(2);
+        Transaction t = new Transaction();
+        t.start();
+        for (int pg = 0; pg < 4; pg++)
+            delete(t.getId(), pg, 0);
+        assertEquals(503, onDisk(0));
+
+        LogFile log = crashAndRecover(3);
+        for (int pg = 0; pg < 4; pg++)
+            assertEquals(504, onDisk(pg));
+        SystemTestUtil.matchTuples(table, original);
+        assertEquals(1, log.getLastRecovery().getLosers());
+
+        // the rollback was logged: recovering again changes nothing
+        crashAndRecover(1);
+        SystemTestUtil.matchTuples(table, original);
+    }
+
+    /**
+     * A rolled back transaction stays rolled back when a later one
+     * commits changes to the same page.
+     */
+    @Test public void abortThenCommit() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        Transaction t1 = new Transaction();
+        t1.start();
+        ArrayList<ArrayList<Integer>> before = new ArrayList<ArrayList<Integer>>(tuples);
+        delete(t1.getId(), 0, 0);
+        bp.flushPages(t1.getId());
+        t1.abort();
+        tuples = before;
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        delete(t2.getId(), 0, 3);
+        t2.commit();
+
+        crashAndRecover(4);
+        assertEquals(503, onDisk(0));
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    /** A record torn by the crash is cut off the end of the log. */
+    @Test public void tornRecord() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        delete(t.getId(), 1, 0);
+        t.commit();
+        File segment = lastSegment();
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        long length = raf.length();
+        raf.seek(length);
+        raf.writeInt(3);
+        raf.writeLong(t.getId().getId());
+        raf.close();
+
+        LogFile log = crashAndRecover(2);
+        assertEquals(503, onDisk(1));
+        SystemTestUtil.matchTuples(table, tuples);
+        assertEquals(length, segment.length());
+        assertEquals(1, log.getLastRecovery().getPages());
+    }
+
+    /** @return the log segment records are appended to */
+    private static File lastSegment() {
+        File last = null;
+        for (File f : new File(".").getAbsoluteFile().listFiles()) {
+            if (f.getName().startsWith("log.")
+                    && (last == null || f.getName().compareTo(last.getName()) > 0))
+                last = f;
+        }
+        return last;
+    }
+
+    /**
+     * A checkpoint writes no pages; the committed pages it finds dirty are
+     * redone from the dirty page table.
+     */
+    @Test public void fuzzyCheckpoint() throws Exception {
+        Transaction t1 = new Transaction();
+        t1.start();
+        delete(t1.getId(), 1, 0);
+        t1.commit();
+
+        // t2 is running while the checkpoint is taken; its page was stolen,
+        // which logged it
+        ArrayList<ArrayList<Integer>> committed = new ArrayList<ArrayList<Integer>>(tuples);
+        Transaction t2 = new Transaction();
+        t2.start();
+        delete(t2.getId(), 2, 0);
+        Database.getBufferPool().flushPages(t2.getId());
+        Database.getLogFile().logCheckpoint();
+        assertEquals(504, onDisk(1));
+        assertEquals(503, onDisk(2));
+
+        LogFile log = crashAndRecover(2);
+        assertEquals(503, onDisk(1));
+        assertEquals(504, onDisk(2));
+        SystemTestUtil.matchTuples(table, committed);
+        // t2, which the checkpoint lists as active
+        assertEquals(1, log.getLastRecovery().getLosers());
+    }
+
+    /**
+     * Pages stolen while their transactions change them are logged whole:
+     * a commit is redone and an abort undone exactly.
+     */
+    @Test public void stealWhileChanging() throws Exception {
+        final Transaction t1 = new Transaction();
+        final Transaction t2 = new Transaction();
+        t1.start();
+        t2.start();
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread stealer = new Thread() {
+            public void run() {
+                try {
+                    while (!done.get()) {
+                        Database.getBufferPool().flushPages(t1.getId());
+                        Database.getBufferPool().flushPages(t2.getId());
+                    }
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            }
+        };
+        stealer.start();
+        ArrayList<ArrayList<Integer>> committed;
+        try {
+            for (int i = 0; i < 200; i++)
+                delete(t1.getId(), i % 2, 0);
+            committed = new ArrayList<ArrayList<Integer>>(tuples);
+            t1.commit();
+            for (int i = 0; i < 200; i++)
+                delete(t2.getId(), 2 + i % 2, 0);
+            t2.abort();
+        } finally {
+            done.set(true);
+            stealer.join();
+        }
+        assertEquals(null, error.get());
+
+        crashAndRecover(2);
+        assertEquals(2 * 504 - 200, onDisk(0) + onDisk(1));
+        assertEquals(504, onDisk(2));
+        assertEquals(504, onDisk(3));
+        SystemTestUtil.matchTuples(table, committed);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(RecoveryTest.class);
+    }
+}
@@ -0,0 +1,152 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Commit and abort under the NO-FORCE/STEAL buffer management policy.
+ */
+public class TransactionTest extends SimpleDbTestBase {
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile table;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        // four full pages
+        table = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, tuples);
+    }
+
+    private BufferPool resetPool(int pages) {
+        BufferPool bp = Database.resetBufferPool(pages);
+        bp.setPrefetcher(null);
+        return bp;
+    }
+
+    /** @return the number of tuples on page pgNo as it is on disk */
+    private int onDisk(int pgNo) {
+        HeapPage p = (HeapPage) table.readPage(new HeapPageId(table.getId(), pgNo));
+        return 504 - p.getNumEmptySlots();
+    }
+
+    /** Deletes the first tuple of page pgNo on behalf of tid. */
+    private void deleteFirst(TransactionId tid, int pgNo) throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        HeapPage p = (HeapPage) bp.getPage(tid,
+                new HeapPageId(table.getId(), pgNo), Permissions.READ_WRITE);
+        Iterator<Tuple> it = p.iterator();
+        bp.deleteTuple(tid, it.next());
+    }
+
+    /**
+     * A commit logs the dirty pages but does not write them; they reach the
+     * table file when they are flushed later.
+     */
+    @Test public void commitDoesNotForce() throws Exception {
+        BufferPool bp = resetPool(BufferPool.DEFAULT_PAGES);
+        Transaction t = new Transaction();
+        t.start();
+        deleteFirst(t.getId(), 0);
+        t.commit();
+
+        assertEquals(504, onDisk(0));
+        PageId pid = new HeapPageId(table.getId(), 0);
+        assertNotNull(bp.getPage(new TransactionId(), pid, Permissions.READ_ONLY).isDirty());
+
+        bp.flushAllPages();
+        assertEquals(503, onDisk(0));
+    }
+
+    /**
+     * An abort restores the state of the last commit, even if that commit
+     * has not reached the disk yet.
+     */
+    @Test public void abortAfterUnflushedCommit() throws Exception {
+        BufferPool bp = resetPool(BufferPool.DEFAULT_PAGES);
+        Transaction t1 = new Transaction();
+        t1.start();
+        deleteFirst(t1.getId(), 0);
+        t1.commit();
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        deleteFirst(t2.getId(), 0);
+        deleteFirst(t2.getId(), 1);
+        t2.abort();
+
+        TransactionId tid = new TransactionId();
+        HeapPage p0 = (HeapPage) bp.getPage(tid, new HeapPageId(table.getId(), 0), Permissions.READ_ONLY);
+        HeapPage p1 = (HeapPage) bp.getPage(tid, new HeapPageId(table.getId(), 1), Permissions.READ_ONLY);
+        assertEquals(1, p0.getNumEmptySlots());
+        assertEquals(0, p1.getNumEmptySlots());
+        // still to be written, but no longer on behalf of t2
+        assertNotNull(p0.isDirty());
+        assertFalse(t2.getId().equals(p0.isDirty()));
+        bp.transactionComplete(tid);
+    }
+
+    /** A transaction that only reads writes nothing to the log. */
+    @Test public void readOnlyCommitLogsNothing() throws Exception {
+        BufferPool bp = resetPool(BufferPool.DEFAULT_PAGES);
+        LogFile log = Database.getLogFile();
+        int records = log.getTotalRecords();
+        long forces = log.getCommitForceCount();
+
+        Transaction t = new Transaction();
+        t.start();
+        bp.getPage(t.getId(), new HeapPageId(table.getId(), 0), Permissions.READ_ONLY);
+        t.commit();
+
+        assertEquals(records, log.getTotalRecords());
+        assertEquals(forces, log.getCommitForceCount());
+    }
+
+    /**
+     * Pages stolen from a running transaction are written to disk; if the
+     * transaction aborts, they are rolled back from the log.
+     */
+    @Test public void abortStolenPages() throws Exception {
+        resetPool(2);
+        Transaction t = new Transaction();
+        t.start();
+        for (int pg = 0; pg < 4; pg++)
+            deleteFirst(t.getId(), pg);
+        // pages 0 and 1 had to make room for 2 and 3
+        assertEquals(503, onDisk(0));
+        assertEquals(503, onDisk(1));
+        t.abort();
+
+        for (int pg = 0; pg < 4; pg++)
+            assertEquals(504, onDisk(pg));
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    /**
+     * A committed transaction whose pages were stolen keeps its changes.
+     */
+    @Test public void commitStolenPages() throws Exception {
+        BufferPool bp = resetPool(2);
+        Transaction t = new Transaction();
+        t.start();
+        for (int pg = 0; pg < 4; pg++)
+            deleteFirst(t.getId(), pg);
+        t.commit();
+        bp.flushAllPages();
+        for (int pg = 0; pg < 4; pg++)
+            assertEquals(503, onDisk(pg));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(TransactionTest.class);
+    }
+}